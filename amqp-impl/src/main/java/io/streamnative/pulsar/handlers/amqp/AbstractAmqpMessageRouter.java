@@ -113,11 +113,11 @@ public abstract class AbstractAmqpMessageRouter implements AmqpMessageRouter {
     }
 
     @Override
-    public CompletableFuture<Void> routingMessage(long ledgerId, long entryId,
+    public CompletableFuture<Void> routingMessage(long ledgerId, long entryId, int batchIndex,
                                                   String routingKey, Map<String, Object> properties) {
         if (isMatch(properties)) {
             try {
-                return queue.writeIndexMessageAsync(exchange.getName(), ledgerId, entryId, properties);
+                return queue.writeIndexMessageAsync(exchange.getName(), ledgerId, entryId, batchIndex, properties);
             } catch (Exception e) {
                 log.error("Failed to route message from exchange {} to queue {} for pos {}:{}.",
                         exchange.getName(), queue.getName(), ledgerId, entryId, e);
@@ -0,0 +1,127 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.common.util.SimpleTextOutputStream;
+
+/**
+ * The number of exchange entries read and routed at a time, sized from the downstream write latency.
+ *
+ * <p>The latencies are averaged over periods of one window of samples. After a period, the window is halved if the
+ * average latency exceeds twice the target, reduced by a quarter if it exceeds the target, and grown by an eighth if
+ * it's under the target while the reads were limited by the window, that is while there is a backlog to catch up.
+ * The window stays within the configured bounds, it's fixed when both bounds are equal.
+ */
+@Slf4j
+public class AdaptiveRouteWindow {
+
+    private static final Set<AdaptiveRouteWindow> WINDOWS = ConcurrentHashMap.newKeySet();
+    private static final int MIN_PERIOD_SAMPLES = 16;
+
+    private final String name;
+    private final int minSize;
+    private final int maxSize;
+    private final long targetLatencyNanos;
+    private volatile int size;
+    private volatile boolean limited;
+    private long latencySumNanos;
+    private int samples;
+
+    public AdaptiveRouteWindow(String name, int initialSize, int minSize, int maxSize, long targetLatencyMillis) {
+        this.name = name;
+        this.minSize = Math.max(1, Math.min(minSize, maxSize));
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.size = Math.min(Math.max(initialSize, this.minSize), this.maxSize);
+    }
+
+    public static AdaptiveRouteWindow create(String name, int initialSize, AmqpServiceConfiguration config) {
+        return new AdaptiveRouteWindow(name, initialSize, config.getAmqpExchangeRouteQueueMinSize(),
+                config.getAmqpExchangeRouteQueueMaxSize(), config.getAmqpExchangeRouteTargetLatencyMillis());
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Mark the reads of the current period as limited by the window.
+     */
+    public void onLimited() {
+        limited = true;
+    }
+
+    /**
+     * Record the time taken to write a routed entry downstream.
+     */
+    public void record(long latencyNanos) {
+        record(latencyNanos, 1);
+    }
+
+    /**
+     * Record the time taken to write a batch of routed entries downstream.
+     */
+    public synchronized void record(long latencyNanos, int entries) {
+        latencySumNanos += latencyNanos * entries;
+        samples += entries;
+        if (samples < Math.max(MIN_PERIOD_SAMPLES, size)) {
+            return;
+        }
+        long averageLatencyNanos = latencySumNanos / samples;
+        int newSize = size;
+        if (averageLatencyNanos > 2 * targetLatencyNanos) {
+            newSize = size / 2;
+        } else if (averageLatencyNanos > targetLatencyNanos) {
+            newSize = size - size / 4;
+        } else if (limited) {
+            newSize = size + Math.max(1, size / 8);
+        }
+        newSize = Math.min(Math.max(newSize, minSize), maxSize);
+        if (newSize != size && log.isDebugEnabled()) {
+            log.debug("{} Resize route window from {} to {}, average write latency {} us.",
+                    name, size, newSize, TimeUnit.NANOSECONDS.toMicros(averageLatencyNanos));
+        }
+        size = newSize;
+        latencySumNanos = 0;
+        samples = 0;
+        limited = false;
+    }
+
+    /**
+     * Export the window in the broker metrics until it's closed.
+     */
+    public void register() {
+        WINDOWS.add(this);
+    }
+
+    public void close() {
+        WINDOWS.remove(this);
+    }
+
+    /**
+     * Write the route window of each exchange of the broker.
+     */
+    public static void generateMetrics(SimpleTextOutputStream stream, String cluster) {
+        stream.write("# TYPE amqp_exchange_route_window gauge\n");
+        for (AdaptiveRouteWindow window : WINDOWS) {
+            stream.write("amqp_exchange_route_window{cluster=\"").write(cluster)
+                    .write("\",exchange=\"").write(window.name).write("\"} ")
+                    .write(window.size).write('\n');
+        }
+    }
+}
@@ -52,6 +52,10 @@ public class AmqpBrokerService {
     PrometheusAdmin prometheusAdmin;
     @Getter
     private final PulsarClient pulsarClient;
+    @Getter
+    private final PublishMemoryLimiter publishMemoryLimiter;
+    @Getter
+    private final ExchangeEntryCache exchangeEntryCache;
 
     public AmqpBrokerService(PulsarService pulsarService, AmqpServiceConfiguration config) {
         try {
@@ -71,12 +75,21 @@ public class AmqpBrokerService {
         this.prometheusAdmin = new PrometheusAdmin(config.getAmqpPrometheusUrl(), clusterName);
         this.pulsarService = pulsarService;
         this.amqpTopicManager = new AmqpTopicManager(pulsarService);
+        this.exchangeEntryCache = new ExchangeEntryCache(clusterName, config.getAmqpExchangeEntryCacheMaxBytes());
         this.exchangeContainer = new ExchangeContainer(amqpTopicManager, pulsarService,
-                initRouteExecutor(config), config, amqpAdmin, pulsarClient);
+                initRouteExecutor(config), config, amqpAdmin, pulsarClient, exchangeEntryCache);
         this.queueContainer = new QueueContainer(amqpTopicManager, pulsarService, exchangeContainer, config);
         this.exchangeService = new ExchangeServiceImpl(exchangeContainer);
         this.queueService = new QueueServiceImpl(exchangeContainer, queueContainer, amqpTopicManager);
         this.connectionContainer = new ConnectionContainer(pulsarService, exchangeContainer, queueContainer, amqpAdmin);
+        this.publishMemoryLimiter = new PublishMemoryLimiter(clusterName, config.getAmqpMaxPublishMemoryBytes(),
+                config.getAmqpPublishMemoryResumeThresholdPercent());
+        pulsarService.addPrometheusRawMetricsProvider(publishMemoryLimiter);
+        pulsarService.addPrometheusRawMetricsProvider(exchangeEntryCache);
+        pulsarService.addPrometheusRawMetricsProvider(
+                stream -> ExchangeAckTracker.generateMetrics(stream, clusterName));
+        pulsarService.addPrometheusRawMetricsProvider(
+                stream -> AdaptiveRouteWindow.generateMetrics(stream, clusterName));
     }
 
     private ExecutorService initRouteExecutor(AmqpServiceConfiguration config) {
@@ -20,10 +20,12 @@ import static org.apache.qpid.server.transport.util.Functions.hex;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.streamnative.pulsar.handlers.amqp.common.exception.AoPException;
+import io.streamnative.pulsar.handlers.amqp.common.exception.AoPServiceRuntimeException;
 import io.streamnative.pulsar.handlers.amqp.flow.AmqpFlowCreditManager;
 import io.streamnative.pulsar.handlers.amqp.impl.PersistentQueue;
 import io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -31,11 +33,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.log4j.Log4j2;
+import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.Consumer;
@@ -57,7 +61,6 @@ import org.apache.qpid.server.protocol.v0_8.IncomingMessage;
 import org.apache.qpid.server.protocol.v0_8.transport.AMQFrame;
 import org.apache.qpid.server.protocol.v0_8.transport.AMQMethodBody;
 import org.apache.qpid.server.protocol.v0_8.transport.AccessRequestOkBody;
-import org.apache.qpid.server.protocol.v0_8.transport.BasicAckBody;
 import org.apache.qpid.server.protocol.v0_8.transport.BasicCancelOkBody;
 import org.apache.qpid.server.protocol.v0_8.transport.BasicContentHeaderProperties;
 import org.apache.qpid.server.protocol.v0_8.transport.ChannelFlowOkBody;
@@ -75,7 +78,6 @@ import org.apache.qpid.server.protocol.v0_8.transport.TxCommitOkBody;
 import org.apache.qpid.server.protocol.v0_8.transport.TxRollbackOkBody;
 import org.apache.qpid.server.protocol.v0_8.transport.TxSelectOkBody;
 import org.apache.qpid.server.txn.AsyncCommand;
-import org.apache.qpid.server.txn.ServerTransaction;
 
 /**
  * Amqp Channel level method processor.
@@ -88,8 +90,7 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
     private final AtomicBoolean blocking = new AtomicBoolean(false);
     protected final AtomicBoolean closing = new AtomicBoolean(false);
     private final java.util.Queue<AsyncCommand> unfinishedCommandsQueue = new ConcurrentLinkedQueue<>();
-    protected long confirmedMessageCounter;
-    private volatile ServerTransaction transaction;
+    protected final PublisherConfirmTracker confirmTracker;
     protected boolean confirmOnPublish;
     /** A channel has a default queue (the last declared) that is used when no queue name is explicitly set. */
     protected volatile AmqpQueue defaultQueue;
@@ -108,6 +109,26 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
      */
     protected IncomingMessage currentMessage;
 
+    /**
+     * Completes once the destination of the current message is resolved, null if it's already resolved.
+     */
+    protected CompletableFuture<Void> currentDestinationFuture;
+
+    /**
+     * Complete messages waiting for their destination or for an earlier message of this channel, in publish order.
+     * Only accessed in the event loop of the connection.
+     */
+    private final java.util.Queue<PendingPublish> pendingPublishes = new ArrayDeque<>();
+
+    /**
+     * Whether the channel is transactional, the publishes and acks are buffered until the transaction is committed.
+     * The transaction state is only accessed in the event loop of the connection.
+     */
+    private boolean transactional;
+    private List<PendingPublish> txPublishes = new ArrayList<>();
+    private long txPublishSize;
+    private List<TxAck> txAcks = new ArrayList<>();
+
     protected final String defaultSubscription = "defaultSubscription";
     public static final AMQShortString EMPTY_STRING = AMQShortString.createAMQShortString((String) null);
     /**
@@ -138,6 +159,7 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
         this.channelId = channelId;
         this.connection = connection;
         this.unacknowledgedMessageMap = new UnacknowledgedMessageMap(this);
+        this.confirmTracker = new PublisherConfirmTracker(connection, channelId);
         this.creditManager = new AmqpFlowCreditManager(0, 0);
         this.exchangeService = amqpBrokerService.getExchangeService();
         this.queueService = amqpBrokerService.getQueueService();
@@ -482,42 +504,12 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
                     channelId, exchange, routingKey, mandatory, immediate);
         }
         if (isDefaultExchange(exchange)) {
-            CompletableFuture<AmqpExchange> completableFuture = exchangeContainer.
-                    asyncGetExchange(connection.getNamespaceName(), AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE,
-                            true, ExchangeDefaults.DIRECT_EXCHANGE_CLASS);
-            completableFuture.whenComplete((amqpExchange, throwable) -> {
-                if (null != throwable) {
-                    log.error("Get exchange failed. exchange name:{}", AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE);
-                    closeChannel(ErrorCodes.INTERNAL_ERROR, "Get exchange failed. ");
-                } else {
-                    String queueName = routingKey.toString();
-                    CompletableFuture<AmqpQueue> amqpQueueCompletableFuture =
-                            queueContainer.asyncGetQueue(connection.getNamespaceName(), queueName, false);
-                    amqpQueueCompletableFuture.whenComplete((amqpQueue, throwable1) -> {
-                        if (throwable1 != null) {
-                            log.error("Get Topic error:{}", throwable1.getMessage());
-                            closeChannel(INTERNAL_ERROR, "Get Topic error: " + throwable1.getMessage());
-                        } else {
-                            if (amqpQueue == null) {
-                                closeChannel(ErrorCodes.NOT_FOUND, "No such queue: " + queueName);
-                                return;
-                            } else {
-                                // bind to default exchange.
-                                if (amqpQueue.getRouter(AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE) == null
-                                        || amqpExchange.getQueue(queueName) == null) {
-                                    amqpQueue.bindExchange(amqpExchange,
-                                            AbstractAmqpMessageRouter.generateRouter(AmqpExchange.Type.Direct),
-                                            routingKey.toString(), null);
-                                }
-                                MessagePublishInfo info = new MessagePublishInfo(AMQShortString.
-                                        valueOf(AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE), immediate,
-                                        mandatory, routingKey);
-                                setPublishFrame(info, null);
-                            }
-                        }
-                    }).join();
-                }
-            }).join();
+            // the destination is resolved asynchronously, the message is parked until it's resolved
+            MessagePublishInfo info = new MessagePublishInfo(AMQShortString.
+                    valueOf(AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE), immediate,
+                    mandatory, routingKey);
+            setPublishFrame(info, null);
+            currentDestinationFuture = bindDefaultExchange(routingKey.toString());
         } else {
             MessagePublishInfo info = new MessagePublishInfo(exchange, immediate,
                     mandatory, routingKey);
@@ -525,6 +517,38 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
         }
     }
 
+    private CompletableFuture<Void> bindDefaultExchange(String queueName) {
+        return exchangeContainer.asyncGetExchange(connection.getNamespaceName(),
+                AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE, true, ExchangeDefaults.DIRECT_EXCHANGE_CLASS)
+                .exceptionally(throwable -> {
+                    log.error("Get exchange failed. exchange name:{}", AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE);
+                    closeChannel(ErrorCodes.INTERNAL_ERROR, "Get exchange failed. ");
+                    throw new CompletionException(throwable);
+                })
+                .thenCompose(amqpExchange -> queueContainer.asyncGetQueue(connection.getNamespaceName(), queueName,
+                        false)
+                        .handle((amqpQueue, throwable) -> {
+                            if (throwable != null) {
+                                log.error("Get Topic error:{}", throwable.getMessage());
+                                closeChannel(INTERNAL_ERROR, "Get Topic error: " + throwable.getMessage());
+                                throw new CompletionException(throwable);
+                            }
+                            if (amqpQueue == null) {
+                                closeChannel(ErrorCodes.NOT_FOUND, "No such queue: " + queueName);
+                                throw new CompletionException(
+                                        new AoPServiceRuntimeException.NoSuchQueueException(queueName));
+                            }
+                            // bind to default exchange.
+                            if (amqpQueue.getRouter(AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE) == null
+                                    || amqpExchange.getQueue(queueName) == null) {
+                                amqpQueue.bindExchange(amqpExchange,
+                                        AbstractAmqpMessageRouter.generateRouter(AmqpExchange.Type.Direct),
+                                        queueName, null);
+                            }
+                            return null;
+                        }));
+    }
+
     private void setPublishFrame(MessagePublishInfo info, final MessageDestination e) {
         currentMessage = new IncomingMessage(info);
         currentMessage.setMessageDestination(e);
@@ -648,6 +672,7 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
         } catch (RuntimeException e) {
             // we want to make sure we don't keep a reference to the message in the
             // event of an error
+            releaseIncompleteMessage();
             currentMessage = null;
             throw e;
         }
@@ -659,8 +684,14 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
             log.debug("RECV[{}] MessageHeader[ properties: {{}} bodySize: {}]", channelId, properties, bodySize);
         }
 
-        // TODO - maxMessageSize ?
-        long maxMessageSize = 1024 * 1024 * 10;
+        // the body is written as a single entry or Pulsar message, it can't be larger than the broker allows
+        long maxMessageSize = Math.min(connection.getAmqpConfig().getAmqpMaxMessageSize(),
+                connection.getAmqpConfig().getMaxMessageSize());
+        // the body is reserved from the publish memory as a whole, it can't be larger than the budget
+        long maxPublishMemory = connection.getAmqpConfig().getAmqpMaxPublishMemoryBytes();
+        if (maxPublishMemory > 0) {
+            maxMessageSize = Math.min(maxMessageSize, maxPublishMemory);
+        }
         if (hasCurrentMessage()) {
             if (bodySize > maxMessageSize) {
                 properties.dispose();
@@ -682,55 +713,220 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
         }
 
         currentMessage.setContentHeaderBody(contentHeaderBody);
+        // reserve the whole body before the content arrives, released once the message is written or dropped
+        connection.acquirePublishMemory(contentHeaderBody.getBodySize());
+        // a blocked connection keeps being read until the content is received, otherwise the memory reserved for
+        // the message would never be released
+        connection.updateAutoRead();
 
         deliverCurrentMessageIfComplete();
     }
 
+    /**
+     * Whether the content header of the current message is received but not all of its content.
+     */
+    public boolean isReceivingMessage() {
+        IncomingMessage incomingMessage = currentMessage;
+        return incomingMessage != null && incomingMessage.getContentHeader() != null
+                && !incomingMessage.allContentReceived();
+    }
+
     protected void deliverCurrentMessageIfComplete() {
         if (currentMessage.allContentReceived()) {
-            MessagePublishInfo info = currentMessage.getMessagePublishInfo();
-            String routingKey = AMQShortString.toString(info.getRoutingKey());
-            String exchangeName = AMQShortString.toString(info.getExchange());
-            Message<byte[]> message;
-            try {
-                message = MessageConvertUtils.toPulsarMessage(currentMessage);
-            } catch (UnsupportedEncodingException e) {
-                connection.sendConnectionClose(INTERNAL_ERROR, "Message encoding fail.", channelId);
+            connection.updateAutoRead();
+            IncomingMessage incomingMessage = currentMessage;
+            CompletableFuture<Void> destinationFuture = currentDestinationFuture;
+            currentDestinationFuture = null;
+            if (transactional) {
+                bufferTxPublish(incomingMessage, destinationFuture);
                 return;
             }
-            boolean createIfMissing = false;
-            String exchangeType = null;
-            if (isDefaultExchange(AMQShortString.valueOf(exchangeName))
-                    || isBuildInExchange(exchangeName)) {
-                // Auto create default and buildIn exchanges if use.
-                createIfMissing = true;
-                exchangeType = getExchangeType(exchangeName);
+            if (pendingPublishes.isEmpty() && (destinationFuture == null || destinationFuture.isDone())) {
+                if (destinationFuture == null || !destinationFuture.isCompletedExceptionally()) {
+                    publishMessage(incomingMessage);
+                } else {
+                    disposeMessage(incomingMessage);
+                }
+                return;
             }
+            // keep the publish order of the channel, the message is published after the earlier ones
+            pendingPublishes.add(new PendingPublish(incomingMessage, destinationFuture));
+            if (destinationFuture != null) {
+                destinationFuture.whenCompleteAsync((ignored, throwable) -> publishPendingMessages(),
+                        connection.getCtx().channel().eventLoop());
+            }
+        }
+    }
 
-            if (exchangeName == null || exchangeName.length() == 0) {
-                exchangeName = AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE;
+    private void publishPendingMessages() {
+        PendingPublish pendingPublish;
+        while ((pendingPublish = pendingPublishes.peek()) != null) {
+            if (pendingPublish.destinationFuture != null && !pendingPublish.destinationFuture.isDone()) {
+                return;
             }
-            CompletableFuture<AmqpExchange> completableFuture = exchangeContainer.
-                    asyncGetExchange(connection.getNamespaceName(), exchangeName, createIfMissing, exchangeType);
-            completableFuture.thenApply(amqpExchange -> amqpExchange.writeMessageAsync(message, routingKey).
-                    thenApply(position -> {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Publish message success, position {}", position.toString());
-                        }
-                        if (confirmOnPublish) {
-                            confirmedMessageCounter++;
-                            BasicAckBody body = connection.getMethodRegistry().
-                                    createBasicAckBody(confirmedMessageCounter, false);
-                            connection.writeFrame(body.generateFrame(channelId));
-                        }
-                        return position;
-                    })).exceptionally(throwable -> {
-                log.error("Failed to write message to exchange", throwable);
-                return null;
-            });
+            pendingPublishes.poll();
+            CompletableFuture<Void> writeFuture;
+            if (pendingPublish.destinationFuture == null
+                    || !pendingPublish.destinationFuture.isCompletedExceptionally()) {
+                writeFuture = publishMessage(pendingPublish.message);
+            } else {
+                disposeMessage(pendingPublish.message);
+                writeFuture = pendingPublish.destinationFuture;
+            }
+            if (pendingPublish.writeFuture != null) {
+                CompletableFuture<Void> txWriteFuture = pendingPublish.writeFuture;
+                writeFuture.whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        txWriteFuture.completeExceptionally(throwable);
+                    } else {
+                        txWriteFuture.complete(null);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Drop the messages still waiting for their destination, they're not published once the channel is closed.
+     */
+    protected void discardPendingPublishes() {
+        PendingPublish pendingPublish;
+        while ((pendingPublish = pendingPublishes.poll()) != null) {
+            connection.releasePublishMemory(pendingPublish.message.getSize());
+            disposeContent(pendingPublish.message);
+            if (pendingPublish.writeFuture != null) {
+                pendingPublish.writeFuture.completeExceptionally(
+                        new IllegalStateException("Channel " + channelId + " is closed"));
+            }
+        }
+    }
+
+    protected void releaseIncompleteMessage() {
+        IncomingMessage incomingMessage = currentMessage;
+        if (incomingMessage != null && incomingMessage.getContentHeader() != null
+                && !incomingMessage.allContentReceived()) {
+            currentMessage = null;
+            disposeContent(incomingMessage);
+            connection.releasePublishMemory(incomingMessage.getSize());
+            connection.updateAutoRead();
+        }
+    }
+
+    private void disposeMessage(IncomingMessage incomingMessage) {
+        long confirmTag = nextConfirmTag();
+        if (confirmTag > 0) {
+            confirmTracker.nack(confirmTag);
+        }
+        connection.releasePublishMemory(incomingMessage.getSize());
+        disposeContent(incomingMessage);
+    }
+
+    private void disposeContent(IncomingMessage incomingMessage) {
+        for (int i = 0; i < incomingMessage.getBodyCount(); i++) {
+            incomingMessage.getContentChunk(i).getPayload().dispose();
+        }
+    }
+
+    /**
+     * A complete message waiting to be published.
+     */
+    private static class PendingPublish {
+        private final IncomingMessage message;
+        private final CompletableFuture<Void> destinationFuture;
+        /**
+         * Completes once the message is written, only set for the messages of a committed transaction.
+         */
+        private final CompletableFuture<Void> writeFuture;
+
+        PendingPublish(IncomingMessage message, CompletableFuture<Void> destinationFuture) {
+            this(message, destinationFuture, null);
+        }
+
+        PendingPublish(IncomingMessage message, CompletableFuture<Void> destinationFuture,
+                       CompletableFuture<Void> writeFuture) {
+            this.message = message;
+            this.destinationFuture = destinationFuture;
+            this.writeFuture = writeFuture;
+        }
+    }
+
+    /**
+     * An ack, nack or reject received in a transaction.
+     */
+    private static class TxAck {
+        private final long deliveryTag;
+        private final boolean multiple;
+        private final boolean nack;
+        private final boolean requeue;
+
+        TxAck(long deliveryTag, boolean multiple, boolean nack, boolean requeue) {
+            this.deliveryTag = deliveryTag;
+            this.multiple = multiple;
+            this.nack = nack;
+            this.requeue = requeue;
         }
     }
 
+    /**
+     * Assign the publisher confirm delivery tag of the next published message, 0 if confirms are not enabled.
+     */
+    protected long nextConfirmTag() {
+        return confirmOnPublish ? confirmTracker.nextDeliveryTag() : 0;
+    }
+
+    /**
+     * Publish a complete message.
+     *
+     * @return a future that completes once the message is written
+     */
+    protected CompletableFuture<Void> publishMessage(IncomingMessage incomingMessage) {
+        MessagePublishInfo info = incomingMessage.getMessagePublishInfo();
+        String routingKey = AMQShortString.toString(info.getRoutingKey());
+        String exchangeName = AMQShortString.toString(info.getExchange());
+        long publishSize = incomingMessage.getSize();
+        Message<byte[]> message;
+        try {
+            message = MessageConvertUtils.toPulsarMessage(incomingMessage,
+                    connection.getAmqpConfig().isAmqpCompactPropertiesEnabled());
+        } catch (UnsupportedEncodingException e) {
+            connection.releasePublishMemory(publishSize);
+            connection.sendConnectionClose(INTERNAL_ERROR, "Message encoding fail.", channelId);
+            return FutureUtil.failedFuture(e);
+        }
+        long confirmTag = nextConfirmTag();
+        boolean createIfMissing = false;
+        String exchangeType = null;
+        if (isDefaultExchange(AMQShortString.valueOf(exchangeName))
+                || isBuildInExchange(exchangeName)) {
+            // Auto create default and buildIn exchanges if use.
+            createIfMissing = true;
+            exchangeType = getExchangeType(exchangeName);
+        }
+
+        if (exchangeName == null || exchangeName.length() == 0) {
+            exchangeName = AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE;
+        }
+        CompletableFuture<AmqpExchange> completableFuture = exchangeContainer.
+                asyncGetExchange(connection.getNamespaceName(), exchangeName, createIfMissing, exchangeType);
+        CompletableFuture<Void> writeFuture = completableFuture.thenCompose(amqpExchange ->
+                amqpExchange.writeMessageAsync(message, routingKey).thenAccept(position -> {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Publish message success, position {}", position.toString());
+                    }
+                    if (confirmTag > 0) {
+                        confirmTracker.ack(confirmTag);
+                    }
+                }));
+        writeFuture.exceptionally(throwable -> {
+            log.error("Failed to write message to exchange", throwable);
+            if (confirmTag > 0) {
+                confirmTracker.nack(confirmTag);
+            }
+            return null;
+        }).thenRun(() -> connection.releasePublishMemory(publishSize));
+        return writeFuture;
+    }
+
     @Override
     public boolean ignoreAllButCloseOk() {
         return false;
@@ -742,6 +938,10 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
             log.debug("RECV[ {} ] BasicNAck[deliveryTag: {} multiple: {} requeue: {}]",
                 channelId, deliveryTag, multiple, requeue);
         }
+        if (transactional) {
+            addTxAck(new TxAck(deliveryTag, multiple, true, requeue));
+            return;
+        }
         messageNAck(deliveryTag, multiple, requeue);
     }
 
@@ -775,8 +975,10 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
 
     @Override
     public void receiveBasicRecover(boolean requeue, boolean sync) {
-        Collection<UnacknowledgedMessageMap.MessageConsumerAssociation> ackedMessages =
-            unacknowledgedMessageMap.acknowledgeAll();
+        // the messages acknowledged in the pending transaction are not redelivered
+        Collection<UnacknowledgedMessageMap.MessageConsumerAssociation> ackedMessages = txAcks.isEmpty()
+                ? unacknowledgedMessageMap.acknowledgeAll()
+                : unacknowledgedMessageMap.acknowledgeAllExcept(this::isSettledByTransaction);
         if (!ackedMessages.isEmpty()) {
             requeue(ackedMessages);
         }
@@ -808,6 +1010,10 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
         if (log.isDebugEnabled()) {
             log.debug("RECV[ {} ] BasicAck[deliveryTag: {} multiple: {} ]", channelId, deliveryTag, multiple);
         }
+        if (transactional) {
+            addTxAck(new TxAck(deliveryTag, multiple, false, false));
+            return;
+        }
         messageAck(deliveryTag, multiple);
     }
 
@@ -829,6 +1035,10 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
 
     @Override
     public void receiveBasicReject(long deliveryTag, boolean requeue) {
+        if (transactional) {
+            addTxAck(new TxAck(deliveryTag, false, true, requeue));
+            return;
+        }
         messageNAck(deliveryTag, false, requeue);
     }
 
@@ -837,19 +1047,58 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
         if (log.isDebugEnabled()) {
             log.debug("RECV[{}] TxSelect", channelId);
         }
-        // TODO txSelect process
+        transactional = true;
         TxSelectOkBody txSelectOkBody = connection.getMethodRegistry().createTxSelectOkBody();
         connection.writeFrame(txSelectOkBody.generateFrame(channelId));
     }
 
+    /**
+     * Publish the messages of the transaction and apply its acks once all of them are written.
+     *
+     * <p>The commit is not atomic: the messages are written one by one, each of them to its own destination. If a
+     * write fails, the messages already written stay published, the acks of the transaction are not applied and the
+     * channel is closed with an internal error, the client can't tell which messages were published.
+     */
     @Override
     public void receiveTxCommit() {
         if (log.isDebugEnabled()) {
             log.debug("RECV[{}] TxCommit", channelId);
         }
-        // TODO txCommit process
-        TxCommitOkBody txCommitOkBody = connection.getMethodRegistry().createTxCommitOkBody();
-        connection.writeFrame(txCommitOkBody.generateFrame(channelId));
+        if (!transactional) {
+            closeChannel(ErrorCodes.IN_USE, "PRECONDITION_FAILED - channel is not transactional");
+            return;
+        }
+        List<PendingPublish> publishes = txPublishes;
+        List<TxAck> acks = txAcks;
+        txPublishes = new ArrayList<>();
+        txAcks = new ArrayList<>();
+        txPublishSize = 0;
+
+        // the messages of the transaction are published back to back, they're only grouped in the same writes
+        // when the entries of the exchanges are batched
+        List<CompletableFuture<Void>> writeFutures = new ArrayList<>(publishes.size());
+        for (PendingPublish pendingPublish : publishes) {
+            connection.acquirePublishMemory(pendingPublish.message.getSize());
+            pendingPublishes.add(pendingPublish);
+            writeFutures.add(pendingPublish.writeFuture);
+            if (pendingPublish.destinationFuture != null && !pendingPublish.destinationFuture.isDone()) {
+                pendingPublish.destinationFuture.whenCompleteAsync((ignored, throwable) -> publishPendingMessages(),
+                        connection.getCtx().channel().eventLoop());
+            }
+        }
+        publishPendingMessages();
+
+        // the acks are applied once all the messages of the transaction are written
+        FutureUtil.waitForAll(writeFutures).whenCompleteAsync((ignored, throwable) -> {
+            if (throwable != null) {
+                log.error("Failed to commit the transaction of channel {}", channelId, throwable);
+                closeChannel(INTERNAL_ERROR, "Failed to commit transaction: " + throwable.getMessage());
+                return;
+            }
+            applyTxAcks(acks);
+            TxCommitOkBody txCommitOkBody = connection.getMethodRegistry().createTxCommitOkBody();
+            connection.writeFrame(txCommitOkBody.generateFrame(channelId));
+        }, connection.getCtx().channel().eventLoop());
     }
 
     @Override
@@ -857,11 +1106,81 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
         if (log.isDebugEnabled()) {
             log.debug("RECV[{}] TxRollback", channelId);
         }
-        // TODO txRollback process
+        if (!transactional) {
+            closeChannel(ErrorCodes.IN_USE, "PRECONDITION_FAILED - channel is not transactional");
+            return;
+        }
+        // the messages acknowledged in the transaction stay unacknowledged
+        discardTransaction();
         TxRollbackOkBody txRollbackBody = connection.getMethodRegistry().createTxRollbackOkBody();
         connection.writeFrame(txRollbackBody.generateFrame(channelId));
     }
 
+    private void bufferTxPublish(IncomingMessage incomingMessage, CompletableFuture<Void> destinationFuture) {
+        // the transaction is bounded by its own limit, the publish memory is released meanwhile so that a blocked
+        // connection can still receive the commit
+        connection.releasePublishMemory(incomingMessage.getSize());
+        txPublishes.add(new PendingPublish(incomingMessage, destinationFuture, new CompletableFuture<>()));
+        txPublishSize += incomingMessage.getSize();
+        long maxTransactionSize = connection.getAmqpConfig().getAmqpMaxTransactionSize();
+        if (txPublishSize > maxTransactionSize) {
+            discardTransaction();
+            closeChannel(ErrorCodes.IN_USE,
+                    "PRECONDITION_FAILED - transaction size exceeds the allowed maximum of " + maxTransactionSize);
+        }
+    }
+
+    private void addTxAck(TxAck ack) {
+        // a transactional channel checks the delivery tag immediately instead of at commit
+        if (ack.deliveryTag > deliveryTag
+                || (!ack.multiple && !unacknowledgedMessageMap.contains(ack.deliveryTag))) {
+            closeChannel(ErrorCodes.IN_USE, "PRECONDITION_FAILED - unknown delivery tag " + ack.deliveryTag);
+            return;
+        }
+        if (ack.multiple && ack.deliveryTag == 0) {
+            // the messages delivered after the ack are not part of it
+            ack = new TxAck(deliveryTag, true, ack.nack, ack.requeue);
+        }
+        txAcks.add(ack);
+    }
+
+    private boolean isSettledByTransaction(long tag) {
+        for (TxAck ack : txAcks) {
+            if (ack.multiple ? tag <= ack.deliveryTag : tag == ack.deliveryTag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void applyTxAcks(List<TxAck> acks) {
+        // group the acks per consumer, so that each consumer acknowledges its positions at once
+        Map<UnacknowledgedMessageMap.MessageProcessor, List<Position>> positionMap = new HashMap<>();
+        for (TxAck ack : acks) {
+            if (ack.nack) {
+                messageNAck(ack.deliveryTag, ack.multiple, ack.requeue);
+                continue;
+            }
+            unacknowledgedMessageMap.acknowledge(ack.deliveryTag, ack.multiple).forEach(association ->
+                    positionMap.computeIfAbsent(association.getConsumer(), list -> new ArrayList<>())
+                            .add(association.getPosition()));
+        }
+        positionMap.forEach(UnacknowledgedMessageMap.MessageProcessor::messagesAck);
+        if (creditManager.hasCredit() && isBlockedOnCredit()) {
+            unBlockedOnCredit();
+        }
+    }
+
+    /**
+     * Drop the publishes and acks of the current transaction.
+     */
+    protected void discardTransaction() {
+        txPublishes.forEach(pendingPublish -> disposeContent(pendingPublish.message));
+        txPublishes.clear();
+        txPublishSize = 0;
+        txAcks.clear();
+    }
+
     @Override
     public void receiveConfirmSelect(boolean nowait) {
         if (log.isDebugEnabled()) {
@@ -888,6 +1207,9 @@ public class AmqpChannel implements ServerChannelMethodProcessor {
 
     public void close() {
         // TODO
+        releaseIncompleteMessage();
+        discardPendingPublishes();
+        discardTransaction();
         unsubscribeConsumerAll();
         // TODO need to delete exclusive queues in this channel.
         setDefaultQueue(null);
@@ -29,6 +29,7 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -68,7 +69,6 @@ import org.apache.qpid.server.protocol.v0_8.transport.ConnectionCloseBody;
 import org.apache.qpid.server.protocol.v0_8.transport.ConnectionCloseOkBody;
 import org.apache.qpid.server.protocol.v0_8.transport.ConnectionTuneBody;
 import org.apache.qpid.server.protocol.v0_8.transport.HeartbeatBody;
-import org.apache.qpid.server.protocol.v0_8.transport.MessagePublishInfo;
 import org.apache.qpid.server.protocol.v0_8.transport.MethodRegistry;
 import org.apache.qpid.server.protocol.v0_8.transport.ProtocolInitiation;
 import org.apache.qpid.server.protocol.v0_8.transport.ServerChannelMethodProcessor;
@@ -94,6 +94,9 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
     public static final String DEFAULT_NAMESPACE = "default";
 
     private static final AtomicLong ID_GENERATOR = new AtomicLong(0);
+    private static final String CAPABILITIES = "capabilities";
+    private static final String CONNECTION_BLOCKED_CAPABILITY = "connection.blocked";
+    private static final String PUBLISH_MEMORY_BLOCKED_REASON = "publish memory limit reached";
 
     private long connectionId;
     @Getter
@@ -115,6 +118,7 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
     private NamespaceName namespaceName;
     private final Object channelAddRemoveLock = new Object();
     private AtomicBoolean blocked = new AtomicBoolean();
+    private volatile boolean blockedNotificationSupported;
     private AmqpOutputConverter amqpOutputConverter;
     private ServerCnx pulsarServerCnx;
     @Getter
@@ -126,7 +130,8 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
     private long connectedAt;
 
     final Map<String, CompletableFuture<Producer<byte[]>>> producerMap;
-    final Map<String, MessagePublishInfo> publishInfoMap;
+    final Map<String, CompletableFuture<Void>> publishInfoMap;
+    final Map<String, CompletableFuture<PublishRoute>> publishRouteMap;
 
     private static final Map<String, String> USERS = new HashMap<>() {
         {
@@ -171,6 +176,7 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
         this.amqpBrokerService = amqpBrokerService;
         this.producerMap = new ConcurrentHashMap<>();
         this.publishInfoMap = new ConcurrentHashMap<>();
+        this.publishRouteMap = new ConcurrentHashMap<>();
     }
 
 
@@ -189,6 +195,7 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
         super.channelInactive(ctx);
         completeAndCloseAllChannels();
         closeAllProducers();
+        amqpBrokerService.getPublishMemoryLimiter().remove(this);
         amqpBrokerService.getConnectionContainer().removeConnection(namespaceName, this);
         this.brokerDecoder.close();
     }
@@ -237,6 +244,7 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
         }
         this.clientIp = ctx.channel().remoteAddress().toString();
         assertState(ConnectionState.AWAIT_START_OK);
+        this.blockedNotificationSupported = hasCapability(clientProperties, CONNECTION_BLOCKED_CAPABILITY);
         if (mechanism != null && mechanism.length() != 0) {
             if ("PLAIN".equals(String.valueOf(mechanism))) {
                 int authzidNullPosition = findNullPosition(response, 0);
@@ -264,6 +272,17 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
         state = ConnectionState.AWAIT_TUNE_OK;
     }
 
+    private static boolean hasCapability(FieldTable clientProperties, String capability) {
+        if (clientProperties == null) {
+            return false;
+        }
+        Object capabilities = FieldTable.convertToMap(clientProperties).get(CAPABILITIES);
+        if (capabilities instanceof FieldTable) {
+            capabilities = FieldTable.convertToMap((FieldTable) capabilities);
+        }
+        return capabilities instanceof Map && Boolean.TRUE.equals(((Map<?, ?>) capabilities).get(capability));
+    }
+
     private int findNullPosition(byte[] response, int startPosition) {
         int position = startPosition;
         while (position < response.length) {
@@ -477,6 +496,8 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
                     FieldTable.convertToFieldTable(new HashMap<>(2) {
                         {
                             put(ServerPropertyNames.VERSION, AopVersion.getVersion());
+                            put(CAPABILITIES, FieldTable.convertToFieldTable(
+                                    Collections.singletonMap(CONNECTION_BLOCKED_CAPABILITY, true)));
                         }
                     }),
                     // TODO temporary modification
@@ -590,6 +611,16 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
         getCtx().writeAndFlush(frame);
     }
 
+    /**
+     * Write a frame without flushing it, the frames written are sent by the next flush of the channel.
+     */
+    public synchronized void writeFrameNoFlush(AMQDataBlock frame) {
+        if (log.isDebugEnabled()) {
+            log.debug("send: " + frame);
+        }
+        getCtx().write(frame);
+    }
+
     public MethodRegistry getMethodRegistry() {
         return methodRegistry;
     }
@@ -735,16 +766,63 @@ public class AmqpConnection extends AmqpCommandDecoder implements ServerMethodPr
         }
     }
 
+    /**
+     * Stop reading from the connection, the client is notified if it supports connection.blocked.
+     *
+     * <p>The connection is still read until the messages whose content is being received are complete, their memory
+     * is already reserved and only released once they are written.
+     */
     public void block() {
         synchronized (channelAddRemoveLock) {
             if (blocked.compareAndSet(false, true)) {
                 for (AmqpChannel channel : channels.values()) {
                     channel.block();
                 }
+                ctx.channel().eventLoop().execute(() -> {
+                    updateAutoRead();
+                    if (blockedNotificationSupported) {
+                        amqpOutputConverter.writeConnectionBlocked(PUBLISH_MEMORY_BLOCKED_REASON);
+                    }
+                });
+            }
+        }
+    }
+
+    public void unblock() {
+        synchronized (channelAddRemoveLock) {
+            if (blocked.compareAndSet(true, false)) {
+                for (AmqpChannel channel : channels.values()) {
+                    channel.unblock();
+                }
+                ctx.channel().eventLoop().execute(() -> {
+                    if (blockedNotificationSupported) {
+                        amqpOutputConverter.writeConnectionUnblocked();
+                    }
+                    updateAutoRead();
+                });
             }
         }
     }
 
+    /**
+     * Read from the connection unless it's blocked and none of its channels is receiving the content of a message,
+     * called from the event loop when the connection is blocked or unblocked and when a message starts or completes.
+     */
+    public void updateAutoRead() {
+        boolean autoRead = !blocked.get() || channels.values().stream().anyMatch(AmqpChannel::isReceivingMessage);
+        if (ctx.channel().config().isAutoRead() != autoRead) {
+            ctx.channel().config().setAutoRead(autoRead);
+        }
+    }
+
+    public void acquirePublishMemory(long bytes) {
+        amqpBrokerService.getPublishMemoryLimiter().acquire(this, bytes);
+    }
+
+    public void releasePublishMemory(long bytes) {
+        amqpBrokerService.getPublishMemoryLimiter().release(bytes);
+    }
+
 //    public Policies getPolicies(NamespaceName namespaceName) {
 //        return getPulsarService().getConfigurationCache().policiesCache()
 //            .get(AdminResource.path(POLICIES, namespaceName.toString())).orElse(null);
@@ -15,21 +15,25 @@ package io.streamnative.pulsar.handlers.amqp;
 
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 import io.netty.util.concurrent.Future;
 import io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.EntryBatchIndexesAcks;
@@ -62,9 +66,11 @@ public class AmqpConsumer extends Consumer implements UnacknowledgedMessageMap.M
 
     private final String queueName;
     /**
-     * map(exchangeName,treeMap(indexPosition,msgPosition)) .
+     * Exchange positions of the delivered messages, only accessed on the event loop of the connection.
      */
-    private final Map<String, ConcurrentSkipListMap<PositionImpl, PositionImpl>> unAckMessages;
+    private final ExchangeMarkDeleteTracker markDeleteTracker;
+    private final long markDeleteFlushIntervalMillis;
+    private boolean markDeleteFlushScheduled;
     private static final AtomicIntegerFieldUpdater<AmqpConsumer> MESSAGE_PERMITS_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(AmqpConsumer.class, "availablePermits");
     private volatile int availablePermits;
@@ -74,6 +80,10 @@ public class AmqpConsumer extends Consumer implements UnacknowledgedMessageMap.M
     private volatile int addPermits = 0;
 
     private final int maxPermits = 1000;
+    /**
+     * Completed once the last dispatch batch is delivered, only accessed on the event loop of the connection.
+     */
+    private CompletableFuture<Void> lastDelivery = CompletableFuture.completedFuture(null);
 
     public AmqpConsumer(QueueContainer queueContainer, Subscription subscription,
         CommandSubscribe.SubType subType, String topicName, long consumerId,
@@ -88,7 +98,9 @@ public class AmqpConsumer extends Consumer implements UnacknowledgedMessageMap.M
         this.autoAck = autoAck;
         this.consumerTag = consumerTag;
         this.queueName = queueName;
-        this.unAckMessages = new ConcurrentHashMap<>();
+        AmqpServiceConfiguration config = channel.getConnection().getAmqpConfig();
+        this.markDeleteTracker = new ExchangeMarkDeleteTracker(config.getAmqpConsumerExchangeAckMaxPendingPositions());
+        this.markDeleteFlushIntervalMillis = config.getAmqpConsumerExchangeAckFlushIntervalMillis();
     }
 
     @Override
@@ -121,19 +133,14 @@ public class AmqpConsumer extends Consumer implements UnacknowledgedMessageMap.M
         MESSAGE_PERMITS_UPDATER.addAndGet(this, -totalMessages);
         final AmqpConnection connection = channel.getConnection();
         connection.ctx.channel().eventLoop().execute(() -> {
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-            for (Entry index : entries) {
-                if (index == null) {
-                    // Entry was filtered out
-                    continue;
-                }
-                futures.add(sendMessage(index));
-            }
-            FutureUtil.waitForAll(futures).whenComplete((ignored, throwable) -> {
+            sendIndexMessages(entries).whenComplete((ignored, throwable) -> {
                 if (throwable != null) {
+                    // send the messages delivered before the failure
+                    connection.getCtx().flush();
                     writePromise.setFailure(throwable);
                     return;
                 }
+                // the deliveries of the batch are sent by one flush
                 connection.getCtx().writeAndFlush(Unpooled.EMPTY_BUFFER, writePromise);
             });
             batchSizes.recyle();
@@ -141,91 +148,195 @@ public class AmqpConsumer extends Consumer implements UnacknowledgedMessageMap.M
         return writePromise;
     }
 
-    private CompletableFuture<Void> sendMessage(Entry index) {
-        CompletableFuture<Void> sendFuture = new CompletableFuture<>();
-        IndexMessage indexMessage;
-        try {
-            indexMessage = MessageConvertUtils.entryToIndexMessage(index);
-        } catch (Exception e) {
-            log.error("[{}-{}] Failed to get index data.", queueName, consumerTag, e);
-            sendFuture.completeExceptionally(e);
-            return sendFuture;
+    /**
+     * Read the exchange entries of the index messages and deliver the messages in the order of the indexes.
+     *
+     * <p>The entries of each exchange are read by ranges of close positions instead of one read per message. The
+     * entries of the dispatch batches are read concurrently, the batches are delivered one after another in dispatch
+     * order on the event loop of the connection, without flushing the frames. It must be called on the event loop.
+     */
+    private CompletableFuture<Void> sendIndexMessages(List<? extends Entry> entries) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<Entry> indexes = new ArrayList<>(entries.size());
+        List<IndexMessage> indexMessages = new ArrayList<>(entries.size());
+        Map<String, NavigableSet<PositionImpl>> positions = new HashMap<>();
+        for (Entry index : entries) {
+            if (index == null) {
+                // Entry was filtered out
+                continue;
+            }
+            IndexMessage indexMessage;
+            try {
+                indexMessage = MessageConvertUtils.entryToIndexMessage(index);
+            } catch (Exception e) {
+                log.error("[{}-{}] Failed to get index data.", queueName, consumerTag, e);
+                futures.add(FutureUtil.failedFuture(e));
+                continue;
+            }
+            indexes.add(index);
+            indexMessages.add(indexMessage);
+            positions.computeIfAbsent(indexMessage.getExchangeName(), k -> new TreeSet<>())
+                    .add(PositionImpl.get(indexMessage.getLedgerId(), indexMessage.getEntryId()));
+        }
+        if (indexes.isEmpty()) {
+            return FutureUtil.waitForAll(futures);
         }
-        asyncGetQueue()
-                .thenCompose(amqpQueue -> amqpQueue.readEntryAsync(
-                        indexMessage.getExchangeName(), indexMessage.getLedgerId(), indexMessage.getEntryId())
-                .thenAccept(msg -> {
-                    try {
-                        long deliveryTag = channel.getNextDeliveryTag();
-
-                        addUnAckMessages(indexMessage.getExchangeName(), (PositionImpl) index.getPosition(),
-                                (PositionImpl) msg.getPosition());
-                        if (!autoAck) {
-                            channel.getUnacknowledgedMessageMap().add(deliveryTag,
-                                    index.getPosition(), this, msg.getLength());
-                        }
-
-                        try {
-                            boolean isRedelivery = getRedeliveryTracker().getRedeliveryCount(
-                                    PositionImpl.get(index.getPosition().getLedgerId(),
-                                            index.getPosition().getEntryId())) > 0;
-                            channel.getConnection().getAmqpOutputConverter().writeDeliver(
-                                    MessageConvertUtils.entryToAmqpBody(msg),
-                                    channel.getChannelId(),
-                                    isRedelivery,
-                                    deliveryTag,
-                                    AMQShortString.createAMQShortString(consumerTag));
-                            sendFuture.complete(null);
-                        } catch (Exception e) {
-                            log.error("[{}-{}] Failed to send message to consumer.", queueName, consumerTag, e);
-                            sendFuture.completeExceptionally(e);
-                            return;
-                        } finally {
-                            msg.release();
-                        }
-
-                        if (autoAck) {
-                            messageAck(index.getPosition());
-                        }
-                    } finally {
-                        index.release();
-                        indexMessage.recycle();
+        EventLoop eventLoop = channel.getConnection().getCtx().channel().eventLoop();
+        CompletableFuture<Map<String, Map<PositionImpl, Entry>>> readFuture = asyncGetQueue()
+                .thenCompose(amqpQueue -> readExchangeEntries(amqpQueue, positions));
+        CompletableFuture<Void> sendFuture = lastDelivery
+                .thenCompose(__ -> readFuture.handleAsync((exchangeEntries, throwable) -> {
+                    if (throwable != null) {
+                        log.error("[{}-{}] Failed to get queue from queue container.",
+                                queueName, consumerTag, throwable);
+                    }
+                    List<CompletableFuture<Void>> sendFutures = new ArrayList<>(indexes.size());
+                    for (int i = 0; i < indexes.size(); i++) {
+                        IndexMessage indexMessage = indexMessages.get(i);
+                        Entry msg = throwable != null ? null : exchangeEntries.get(indexMessage.getExchangeName())
+                                .get(PositionImpl.get(indexMessage.getLedgerId(), indexMessage.getEntryId()));
+                        sendFutures.add(sendMessage(indexes.get(i), indexMessage, msg));
+                    }
+                    if (exchangeEntries != null) {
+                        exchangeEntries.values().forEach(read -> read.values().forEach(Entry::release));
+                    }
+                    return FutureUtil.waitForAll(sendFutures);
+                }, eventLoop)).thenCompose(future -> future);
+        lastDelivery = sendFuture.handle((__, ignore) -> null);
+        futures.add(sendFuture);
+        return FutureUtil.waitForAll(futures);
+    }
+
+    /**
+     * Read the entries at the positions of each exchange, the entries between close positions are read as well.
+     */
+    private CompletableFuture<Map<String, Map<PositionImpl, Entry>>> readExchangeEntries(
+            AmqpQueue amqpQueue, Map<String, NavigableSet<PositionImpl>> positions) {
+        AmqpServiceConfiguration config = channel.getConnection().getAmqpConfig();
+        Map<String, Map<PositionImpl, Entry>> exchangeEntries = new HashMap<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        positions.forEach((exchangeName, exchangePositions) -> {
+            Map<PositionImpl, Entry> entries = new ConcurrentHashMap<>();
+            exchangeEntries.put(exchangeName, entries);
+            for (ExchangeReadRange range : ExchangeReadRange.coalesce(exchangePositions,
+                    config.getAmqpConsumerReadRangeMaxEntries(), config.getAmqpConsumerReadRangeMaxGap())) {
+                futures.add(amqpQueue.readEntriesAsync(exchangeName, range).handle((rangeEntries, throwable) -> {
+                    if (throwable != null) {
+                        log.error("[{}-{}] Failed to read data from exchange topic {}, range {}.",
+                                queueName, consumerTag, exchangeName, range, throwable);
+                        return null;
+                    }
+                    for (Entry entry : rangeEntries) {
+                        entries.put(PositionImpl.get(entry.getLedgerId(), entry.getEntryId()), entry);
                     }
-                })).exceptionally(throwable -> {
-                    log.error("[{}-{}] Failed to read data from exchange topic {}.",
-                            queueName, consumerTag, indexMessage.getExchangeName(), throwable);
-                    sendFuture.completeExceptionally(throwable);
                     return null;
+                }));
+            }
         });
-        return sendFuture;
+        return FutureUtil.waitForAll(futures).thenApply(__ -> exchangeEntries);
+    }
+
+    /**
+     * Deliver the message of an index, the exchange entry is kept by the caller.
+     */
+    private CompletableFuture<Void> sendMessage(Entry index, IndexMessage indexMessage, Entry exchangeEntry) {
+        if (exchangeEntry == null) {
+            index.release();
+            indexMessage.recycle();
+            return FutureUtil.failedFuture(new IllegalStateException("Failed to read data from exchange topic "
+                    + indexMessage.getExchangeName()));
+        }
+        // the entry may be shared by several indexes, each delivery reads its own view of it
+        Entry msg = EntryImpl.create(exchangeEntry.getLedgerId(), exchangeEntry.getEntryId(),
+                exchangeEntry.getDataBuffer().duplicate());
+        try {
+            long deliveryTag = channel.getNextDeliveryTag();
+
+            addUnAckMessages(indexMessage.getExchangeName(), (PositionImpl) index.getPosition(),
+                    MessageConvertUtils.getMarkDeletePosition(msg, indexMessage.getBatchIndex()));
+            if (!autoAck) {
+                channel.getUnacknowledgedMessageMap().add(deliveryTag,
+                        index.getPosition(), this, msg.getLength());
+            }
+
+            try {
+                boolean isRedelivery = getRedeliveryTracker().getRedeliveryCount(
+                        PositionImpl.get(index.getPosition().getLedgerId(),
+                                index.getPosition().getEntryId())) > 0;
+                channel.getConnection().getAmqpOutputConverter().writeDeliver(
+                        MessageConvertUtils.entryToAmqpBody(msg, indexMessage.getBatchIndex()),
+                        channel.getChannelId(),
+                        isRedelivery,
+                        deliveryTag,
+                        AMQShortString.createAMQShortString(consumerTag),
+                        false);
+            } catch (Exception e) {
+                log.error("[{}-{}] Failed to send message to consumer.", queueName, consumerTag, e);
+                return FutureUtil.failedFuture(e);
+            } finally {
+                msg.release();
+            }
+
+            if (autoAck) {
+                messageAck(index.getPosition());
+            }
+            return CompletableFuture.completedFuture(null);
+        } finally {
+            index.release();
+            indexMessage.recycle();
+        }
     }
 
+    @Override
     public void messagesAck(List<Position> position) {
         incrementPermits(position.size());
         ManagedCursor cursor = ((PersistentSubscription) getSubscription()).getCursor();
         Position previousMarkDeletePosition = cursor.getMarkDeletedPosition();
         getSubscription().acknowledgeMessage(position, CommandAck.AckType.Individual, Collections.EMPTY_MAP);
-        if (!cursor.getMarkDeletedPosition().equals(previousMarkDeletePosition)) {
-            asyncGetQueue().whenComplete((amqpQueue, throwable) -> {
-                if (throwable != null) {
-                    log.error("Failed to get queue from queue container", throwable);
-                } else {
-                    synchronized (this) {
-                        PositionImpl newDeletePosition = (PositionImpl) cursor.getMarkDeletedPosition();
-                        unAckMessages.forEach((key, value) -> {
-                            SortedMap<PositionImpl, PositionImpl> ackMap = value.headMap(newDeletePosition, true);
-                            if (ackMap.size() > 0) {
-                                PositionImpl lastValue = ackMap.get(ackMap.lastKey());
-                                amqpQueue.acknowledgeAsync(key, lastValue.getLedgerId(), lastValue.getEntryId());
-                            }
-                            ackMap.clear();
-                        });
-                    }
-                }
-            });
+        PositionImpl newMarkDeletePosition = (PositionImpl) cursor.getMarkDeletedPosition();
+        if (!newMarkDeletePosition.equals(previousMarkDeletePosition)) {
+            EventLoop eventLoop = channel.getConnection().getCtx().channel().eventLoop();
+            if (eventLoop.inEventLoop()) {
+                advanceMarkDelete(newMarkDeletePosition, eventLoop);
+            } else {
+                eventLoop.execute(() -> advanceMarkDelete(newMarkDeletePosition, eventLoop));
+            }
         }
     }
 
+    /**
+     * Advance the exchange cursors up to the messages acknowledged by the queue subscription, the mark-delete
+     * positions are applied in one batch once enough messages are acknowledged or on the flush interval.
+     */
+    private void advanceMarkDelete(PositionImpl newMarkDeletePosition, EventLoop eventLoop) {
+        if (markDeleteTracker.advance(newMarkDeletePosition)) {
+            flushMarkDelete();
+        } else if (markDeleteTracker.hasPending() && !markDeleteFlushScheduled) {
+            markDeleteFlushScheduled = true;
+            if (markDeleteFlushIntervalMillis > 0) {
+                eventLoop.schedule(this::flushMarkDelete, markDeleteFlushIntervalMillis, TimeUnit.MILLISECONDS);
+            } else {
+                eventLoop.execute(this::flushMarkDelete);
+            }
+        }
+    }
+
+    private void flushMarkDelete() {
+        markDeleteFlushScheduled = false;
+        Map<String, PositionImpl> positions = markDeleteTracker.drain();
+        if (positions.isEmpty()) {
+            return;
+        }
+        asyncGetQueue().whenComplete((amqpQueue, throwable) -> {
+            if (throwable != null) {
+                log.error("Failed to get queue from queue container", throwable);
+                return;
+            }
+            positions.forEach((exchangeName, position) ->
+                    amqpQueue.acknowledgeAsync(exchangeName, position.getLedgerId(), position.getEntryId()));
+        });
+    }
+
     @Override
     public void messageAck(Position position) {
         messagesAck(Collections.singletonList(position));
@@ -269,9 +380,12 @@ public class AmqpConsumer extends Consumer implements UnacknowledgedMessageMap.M
     }
 
     void addUnAckMessages(String exchangeName, PositionImpl index, PositionImpl message) {
-        ConcurrentSkipListMap<PositionImpl, PositionImpl> map = unAckMessages.computeIfAbsent(exchangeName,
-                treeMap -> new ConcurrentSkipListMap<>());
-        map.put(index, message);
+        EventLoop eventLoop = channel.getConnection().getCtx().channel().eventLoop();
+        if (eventLoop.inEventLoop()) {
+            markDeleteTracker.add(exchangeName, index, message);
+        } else {
+            eventLoop.execute(() -> markDeleteTracker.add(exchangeName, index, message));
+        }
     }
 
     public String getConsumerTag() {
@@ -13,11 +13,16 @@
  */
 package io.streamnative.pulsar.handlers.amqp;
 
+import static io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils.addMessageToBatch;
+import static io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils.batchToByteBuf;
 import static io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils.messageToByteBuf;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.util.Recycler;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
@@ -25,36 +30,130 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
 
 /**
  * This class used to write entry to ledger.
+ *
+ * <p>When batching is enabled, concurrent publishes are grouped into one Pulsar batch entry, the batch is
+ * written once it reaches the max messages or max bytes, or when the max publish delay has elapsed since
+ * its first message.
  */
 @Slf4j
 public class AmqpEntryWriter implements AsyncCallbacks.AddEntryCallback {
 
     private final PersistentTopic topic;
 
+    private final boolean batchingEnabled;
+    private final int batchingMaxMessages;
+    private final int batchingMaxBytes;
+    private final long batchingMaxPublishDelayMillis;
+
+    // guarded by this
+    private ByteBuf batchBuffer;
+    private List<CompletableFuture<Position>> batchFutures;
+    private ScheduledFuture<?> batchFlushTask;
+
     public AmqpEntryWriter(PersistentTopic persistentTopic) {
+        this(persistentTopic, false, 1, 0, 0);
+    }
+
+    public AmqpEntryWriter(PersistentTopic persistentTopic, boolean batchingEnabled, int batchingMaxMessages,
+                           int batchingMaxBytes, long batchingMaxPublishDelayMillis) {
         this.topic = persistentTopic;
+        this.batchingEnabled = batchingEnabled && batchingMaxMessages > 1;
+        this.batchingMaxMessages = batchingMaxMessages;
+        this.batchingMaxBytes = batchingMaxBytes;
+        this.batchingMaxPublishDelayMillis = batchingMaxPublishDelayMillis;
     }
 
     public CompletableFuture<Position> publishMessage(Message<byte[]> message) {
+        if (batchingEnabled) {
+            return addToBatch(message);
+        }
         CompletableFuture<Position> future = new CompletableFuture<>();
         ByteBuf data = messageToByteBuf(message);
         try {
-            if (topic.getBrokerService().isBrokerEntryMetadataEnabled()) {
-                topic.getManagedLedger().asyncAddEntry(data, 1, this,
-                        MessagePublishContext.get(System.nanoTime(), future));
-            } else {
-                topic.getManagedLedger().asyncAddEntry(data, this,
-                        MessagePublishContext.get(System.nanoTime(), future));
-            }
+            addEntry(data, 1, future);
         } finally {
             data.release();
         }
         return future;
     }
 
+    private synchronized CompletableFuture<Position> addToBatch(Message<byte[]> message) {
+        CompletableFuture<Position> future = new CompletableFuture<>();
+        if (batchBuffer == null) {
+            batchBuffer = PulsarByteBufAllocator.DEFAULT.buffer(Math.min(batchingMaxBytes, 64 * 1024));
+            batchFutures = new ArrayList<>(batchingMaxMessages);
+            if (batchingMaxPublishDelayMillis > 0) {
+                batchFlushTask = topic.getBrokerService().executor().schedule(
+                        this::flushBatch, batchingMaxPublishDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        try {
+            addMessageToBatch(message, batchBuffer);
+        } catch (Exception e) {
+            log.error("[{}] Failed to add message to batch.", topic.getName(), e);
+            future.completeExceptionally(e);
+            return future;
+        }
+        batchFutures.add(future);
+        if (batchFutures.size() >= batchingMaxMessages || batchBuffer.readableBytes() >= batchingMaxBytes
+                || batchingMaxPublishDelayMillis <= 0) {
+            flushBatch();
+        }
+        return future;
+    }
+
+    /**
+     * Write the pending batch as one entry, all messages of the batch share the position of the entry.
+     */
+    public synchronized void flushBatch() {
+        if (batchFlushTask != null) {
+            batchFlushTask.cancel(false);
+            batchFlushTask = null;
+        }
+        if (batchBuffer == null) {
+            return;
+        }
+        List<CompletableFuture<Position>> futures = batchFutures;
+        ByteBuf buffer = batchBuffer;
+        batchBuffer = null;
+        batchFutures = null;
+        if (futures.isEmpty()) {
+            buffer.release();
+            return;
+        }
+        ByteBuf data = batchToByteBuf(buffer, futures.size());
+
+        CompletableFuture<Position> entryFuture = new CompletableFuture<>();
+        try {
+            addEntry(data, futures.size(), entryFuture);
+        } finally {
+            data.release();
+        }
+        entryFuture.whenComplete((position, throwable) -> {
+            for (CompletableFuture<Position> future : futures) {
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else {
+                    future.complete(position);
+                }
+            }
+        });
+    }
+
+    private void addEntry(ByteBuf data, int numberOfMessages, CompletableFuture<Position> future) {
+        if (topic.getBrokerService().isBrokerEntryMetadataEnabled()) {
+            topic.getManagedLedger().asyncAddEntry(data, numberOfMessages, this,
+                    MessagePublishContext.get(System.nanoTime(), future));
+        } else {
+            topic.getManagedLedger().asyncAddEntry(data, this,
+                    MessagePublishContext.get(System.nanoTime(), future));
+        }
+    }
+
     protected static class MessagePublishContext {
         private long startTimeNs;
         private CompletableFuture<Position> positionFuture;
@@ -14,6 +14,7 @@
 package io.streamnative.pulsar.handlers.amqp;
 
 import io.streamnative.pulsar.handlers.amqp.common.exception.AoPServiceRuntimeException.NotSupportedOperationException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.mledger.Entry;
@@ -110,6 +111,17 @@ public interface AmqpExchange {
      */
     CompletableFuture<Entry> readEntryAsync(String queueName, Position position);
 
+    /**
+     * Read the entries {@link Entry} of a range of one ledger from the exchange.
+     *
+     * @param queueName name of the queue that read entries from the exchange.
+     * @param range range of the entries that to read, only its wanted entries are read one by one by default.
+     * @return entries of the range in order, without the missing ones
+     */
+    default CompletableFuture<List<Entry>> readEntriesAsync(String queueName, ExchangeReadRange range) {
+        return range.readEach(entryId -> readEntryAsync(queueName, range.getLedgerId(), entryId));
+    }
+
     /**
      * Mark delete position for a queue.
      *
@@ -36,19 +36,20 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.impl.Backoff;
 import org.apache.pulsar.common.api.proto.CommandSubscribe;
+import org.apache.pulsar.common.util.FutureUtil;
 
 /**
  * Amqp exchange replicator, read entries from BookKeeper and process entries.
  */
 @Slf4j
-public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntriesCallback,
-        AsyncCallbacks.DeleteCallback {
+public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntriesCallback {
 
     private PersistentExchange persistentExchange;
     private final String cursorNamePre = "__amqp_replicator__";
     private String name;
     private PersistentTopic topic;
     private ManagedCursor cursor;
+    private volatile ExchangeAckTracker ackTracker;
     private ScheduledExecutorService scheduledExecutorService;
 
     protected final Backoff backOff = new Backoff(
@@ -65,7 +66,9 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
     }
 
     private static final int defaultReadMaxSizeBytes = 5 * 1024 * 1024;
-    private int routeQueueSize = 200;
+    private static final long ROUTE_RETRY_DELAY_MS = 100;
+    private static final long MAX_ROUTE_RETRY_DELAY_MS = 60 * 1000;
+    private final AdaptiveRouteWindow routeWindow;
     private volatile int pendingQueueSize = 0;
     private static final AtomicIntegerFieldUpdater<AmqpExchangeReplicator> PENDING_SIZE_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(AmqpExchangeReplicator.class, "pendingQueueSize");
@@ -87,19 +90,18 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
         this.persistentExchange = persistentExchange;
         this.topic = (PersistentTopic) persistentExchange.getTopic();
         this.scheduledExecutorService = topic.getBrokerService().executor();
-        this.initMaxRouteQueueSize(routeQueueSize);
+        this.routeWindow = AdaptiveRouteWindow.create(persistentExchange.getName(),
+                initRouteQueueSize(routeQueueSize), persistentExchange.getConfig());
         this.routeExecutor = routeExecutor;
         STATE_UPDATER.set(this, AmqpExchangeReplicator.State.Stopped);
         this.name = "[AMQP Replicator for " + topic.getName() + " ]";
     }
 
-    private void initMaxRouteQueueSize(int maxRouteQueueSize) {
+    private static int initRouteQueueSize(int routeQueueSize) {
         if (System.getProperty("aop.replicatorQueueSize") != null) {
-            this.routeQueueSize = Integer.parseInt(
-                    System.getProperty("aop.replicatorQueueSize", "" + maxRouteQueueSize));
-            return;
+            return Integer.parseInt(System.getProperty("aop.replicatorQueueSize", "" + routeQueueSize));
         }
-        this.routeQueueSize = maxRouteQueueSize;
+        return routeQueueSize;
     }
 
     public void startReplicate() {
@@ -123,6 +125,7 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
             }
             return;
         }
+        routeWindow.register();
 
         topic.getManagedLedger().asyncOpenCursor(cursorNamePre + persistentExchange.getName(),
                 CommandSubscribe.InitialPosition.Earliest,
@@ -131,6 +134,10 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
                     public void openCursorComplete(ManagedCursor managedCursor, Object o) {
                         log.info("{} Open cursor succeed for route.", name);
                         AmqpExchangeReplicator.this.cursor = managedCursor;
+                        AmqpServiceConfiguration config = persistentExchange.getConfig();
+                        ackTracker = new ExchangeAckTracker(name, managedCursor,
+                                config.getAmqpExchangeAckMaxPendingPositions());
+                        ackTracker.start(scheduledExecutorService, config.getAmqpExchangeAckFlushIntervalMillis());
                         readEntries();
                     }
 
@@ -164,12 +171,15 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
         cursor.setActive();
 
         STATE_UPDATER.set(this, State.Started);
-        log.info("{} Replicator is started, routeQueueSize: {}.", name, this.routeQueueSize);
+        log.info("{} Replicator is started, routeQueueSize: {}.", name, routeWindow.getSize());
 
         readMoreEntries();
     }
 
     private void readMoreEntries() {
+        if (!STATE_UPDATER.get(this).equals(State.Started)) {
+            return;
+        }
         if (log.isDebugEnabled()) {
             log.debug("{} Read more entries.", name);
         }
@@ -179,7 +189,7 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
                 if (log.isDebugEnabled()) {
                     log.debug("{} Schedule read of {} messages.", name, availablePermits);
                 }
-                cursor.asyncReadEntriesOrWait(availablePermits, defaultReadMaxSizeBytes, this, null, null);
+                cursor.asyncReadEntriesOrWait(availablePermits, defaultReadMaxSizeBytes, this, availablePermits, null);
             } else {
                 if (log.isDebugEnabled()) {
                     log.debug("{} Not schedule read due to pending read. Messages to read {}.",
@@ -188,12 +198,13 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
             }
         } else {
             // no permits from rate limit
+            routeWindow.onLimited();
             scheduledExecutorService.schedule(this::readMoreEntries, MESSAGE_RATE_BACKOFF_MS, TimeUnit.MILLISECONDS);
         }
     }
 
     private int getAvailablePermits() {
-        int availablePermits = routeQueueSize - PENDING_SIZE_UPDATER.get(this);
+        int availablePermits = routeWindow.getSize() - PENDING_SIZE_UPDATER.get(this);
         if (availablePermits <= 0) {
             if (log.isDebugEnabled()) {
                 log.debug("{} Replicator queue is full, availablePermits: {}, pause route.",
@@ -210,6 +221,14 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
             log.debug("{} Read entries complete. Entries size: {}", name, list.size());
         }
         HAVE_PENDING_READ_UPDATER.set(this, FALSE);
+        ExchangeAckTracker tracker = ackTracker;
+        if (tracker == null || !STATE_UPDATER.get(this).equals(State.Started)) {
+            // the replicator is stopped while the read was in flight
+            if (list != null) {
+                list.forEach(Entry::release);
+            }
+            return;
+        }
         if (list == null || list.isEmpty()) {
             long delay = readFailureBackoff.next();
             log.warn("{} The read entry list is empty, will retry in {} ms. ReadPosition: {}, LAC: {}.",
@@ -218,35 +237,65 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
             return;
         }
         readFailureBackoff.reduceToHalf();
+        if (o instanceof Integer requested && list.size() >= requested) {
+            // there are more entries to read than the window allows
+            routeWindow.onLimited();
+        }
         List<Pair<PositionImpl, ByteBuf>> bufList = new ArrayList<>(list.size());
         for (Entry entry : list) {
+            tracker.read(entry.getPosition());
             bufList.add(
                     Pair.of(PositionImpl.get(entry.getLedgerId(), entry.getEntryId()), entry.getDataBuffer()));
         }
-        routeExecutor.execute(() -> this.readComplete(bufList));
+        routeExecutor.execute(() -> this.readComplete(bufList, tracker));
     }
 
-    private void readComplete(List<Pair<PositionImpl, ByteBuf>> list) {
+    private void readComplete(List<Pair<PositionImpl, ByteBuf>> list, ExchangeAckTracker tracker) {
         for (Pair<PositionImpl, ByteBuf> entry : list) {
             PENDING_SIZE_UPDATER.incrementAndGet(this);
-            readProcess(entry.getRight(), entry.getLeft()).whenCompleteAsync((ignored, exception) -> {
-                if (exception != null) {
-                    log.error("{} Error producing messages", name, exception);
-                    this.cursor.rewind();
-                } else {
-                    if (log.isDebugEnabled()) {
-                        log.debug("{} Route message successfully.", name);
-                    }
-                    AmqpExchangeReplicator.this.cursor
-                            .asyncDelete(entry.getLeft(), this, entry.getLeft());
-                }
-                if (PENDING_SIZE_UPDATER.decrementAndGet(this) < routeQueueSize * 0.5
-                        && HAVE_PENDING_READ_UPDATER.get(this) == FALSE) {
-                    this.readMoreEntries();
-                }
-            }, routeExecutor);
-            entry.getRight().release();
+            routeEntry(entry.getLeft(), entry.getRight(), entry.getRight().readerIndex(), tracker, 0);
+        }
+    }
+
+    /**
+     * Route one entry, a failed entry is retried on its own after a backoff while the other entries keep being
+     * routed. It keeps its place in the route queue until it's routed.
+     */
+    private void routeEntry(PositionImpl position, ByteBuf data, int readerIndex, ExchangeAckTracker tracker,
+                            int retries) {
+        if (!STATE_UPDATER.get(this).equals(State.Started)) {
+            data.release();
+            PENDING_SIZE_UPDATER.decrementAndGet(this);
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        data.readerIndex(readerIndex);
+        CompletableFuture<Void> future;
+        try {
+            future = readProcess(data, position);
+        } catch (Exception e) {
+            future = FutureUtil.failedFuture(e);
         }
+        future.whenCompleteAsync((ignored, exception) -> {
+            if (exception != null) {
+                long delayMs = Math.min(MAX_ROUTE_RETRY_DELAY_MS, ROUTE_RETRY_DELAY_MS << Math.min(retries, 10));
+                log.error("{} Error producing messages of {}, retrying in {} ms", name, position, delayMs, exception);
+                scheduledExecutorService.schedule(() -> routeExecutor.execute(
+                        () -> routeEntry(position, data, readerIndex, tracker, retries + 1)),
+                        delayMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+            routeWindow.record(System.nanoTime() - startNanos);
+            if (log.isDebugEnabled()) {
+                log.debug("{} Route message successfully.", name);
+            }
+            data.release();
+            tracker.ack(position);
+            if (PENDING_SIZE_UPDATER.decrementAndGet(this) < routeWindow.getSize() * 0.5
+                    && HAVE_PENDING_READ_UPDATER.get(this) == FALSE) {
+                this.readMoreEntries();
+            }
+        }, routeExecutor);
     }
 
     public abstract CompletableFuture<Void> readProcess(ByteBuf data, Position position);
@@ -269,19 +318,13 @@ public abstract class AmqpExchangeReplicator implements AsyncCallbacks.ReadEntri
         scheduledExecutorService.schedule(this::readMoreEntries, waitTimeMs, TimeUnit.MILLISECONDS);
     }
 
-    @Override
-    public void deleteComplete(Object position) {
-        if (log.isDebugEnabled()) {
-            log.debug("{} Deleted message at {}", name, position);
-        }
-    }
-
-    @Override
-    public void deleteFailed(ManagedLedgerException e, Object position) {
-        log.error("{} Failed to delete message at {}: {}", name, position, e.getMessage(), e);
-    }
-
     public void stopReplicate() {
+        routeWindow.close();
+        ExchangeAckTracker tracker = ackTracker;
+        if (tracker != null) {
+            ackTracker = null;
+            tracker.close();
+        }
         if (cursor == null) {
             STATE_UPDATER.set(this, State.Stopped);
             log.info("[{}] AMQP Exchange Replicator is stopped.", name);
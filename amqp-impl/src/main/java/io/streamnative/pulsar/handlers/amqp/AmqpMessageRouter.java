@@ -112,7 +112,21 @@ public interface AmqpMessageRouter {
      * @param routingKey routingKey
      * @param properties header properties
      */
-    CompletableFuture<Void> routingMessage(long ledgerId, long entryId, String routingKey,
+    default CompletableFuture<Void> routingMessage(long ledgerId, long entryId, String routingKey,
+                                                   Map<String, Object> properties) {
+        return routingMessage(ledgerId, entryId, -1, routingKey, properties);
+    }
+
+    /**
+     * Routes the message ID of a message in a batch entry to the queue.
+     *
+     * @param ledgerId   ledger ID
+     * @param entryId    entry ID
+     * @param batchIndex index of the message in the batch entry, -1 if the entry is not a batch entry
+     * @param routingKey routingKey
+     * @param properties header properties
+     */
+    CompletableFuture<Void> routingMessage(long ledgerId, long entryId, int batchIndex, String routingKey,
                                            Map<String, Object> properties);
 
 }
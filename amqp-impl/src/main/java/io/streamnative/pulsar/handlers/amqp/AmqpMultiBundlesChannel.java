@@ -14,6 +14,8 @@
 package io.streamnative.pulsar.handlers.amqp;
 
 import static org.apache.qpid.server.protocol.ErrorCodes.INTERNAL_ERROR;
+import static org.apache.qpid.server.protocol.ErrorCodes.NO_ROUTE;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.util.ReferenceCountUtil;
 import io.streamnative.pulsar.handlers.amqp.admin.AmqpAdmin;
 import io.streamnative.pulsar.handlers.amqp.admin.model.BindingParams;
@@ -25,12 +27,16 @@ import io.streamnative.pulsar.handlers.amqp.impl.PersistentQueue;
 import io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.log4j.Log4j2;
@@ -41,23 +47,27 @@ import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.Producer;
 import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.SubscriptionInitialPosition;
 import org.apache.pulsar.client.api.SubscriptionType;
 import org.apache.pulsar.client.impl.MemoryLimitController;
 import org.apache.pulsar.client.impl.MessageImpl;
 import org.apache.pulsar.client.impl.ProducerImpl;
 import org.apache.pulsar.client.impl.PulsarClientImpl;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
 import org.apache.pulsar.common.naming.TopicDomain;
+import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.qpid.server.bytebuffer.QpidByteBuffer;
 import org.apache.qpid.server.exchange.ExchangeDefaults;
 import org.apache.qpid.server.message.MessageDestination;
 import org.apache.qpid.server.protocol.v0_8.AMQShortString;
 import org.apache.qpid.server.protocol.v0_8.FieldTable;
 import org.apache.qpid.server.protocol.v0_8.IncomingMessage;
 import org.apache.qpid.server.protocol.v0_8.transport.AMQMethodBody;
-import org.apache.qpid.server.protocol.v0_8.transport.BasicAckBody;
 import org.apache.qpid.server.protocol.v0_8.transport.BasicCancelOkBody;
 import org.apache.qpid.server.protocol.v0_8.transport.BasicConsumeOkBody;
+import org.apache.qpid.server.protocol.v0_8.transport.ContentBody;
 import org.apache.qpid.server.protocol.v0_8.transport.ExchangeDeleteOkBody;
 import org.apache.qpid.server.protocol.v0_8.transport.MessagePublishInfo;
 import org.apache.qpid.server.protocol.v0_8.transport.MethodRegistry;
@@ -161,6 +171,7 @@ public class AmqpMultiBundlesChannel extends AmqpChannel {
         getAmqpAdmin().queueBind(connection.getNamespaceName(),
                         exchange.toString(), finalQueue.toString(), params)
                 .thenAccept(__ -> {
+                    connection.publishRouteMap.remove(exchange.toString());
                     if (!nowait) {
                         MethodRegistry methodRegistry = connection.getMethodRegistry();
                         AMQMethodBody responseBody = methodRegistry.createQueueBindOkBody();
@@ -184,6 +195,7 @@ public class AmqpMultiBundlesChannel extends AmqpChannel {
         getAmqpAdmin().queueUnbind(connection.getNamespaceName(), exchange.toString(),
                         queue.toString(), bindingKey.toString())
                 .thenAccept(__ -> {
+                    connection.publishRouteMap.remove(exchange.toString());
                     AMQMethodBody responseBody = connection.getMethodRegistry().createQueueUnbindOkBody();
                     connection.writeFrame(responseBody.generateFrame(channelId));
                 }).exceptionally(t -> {
@@ -208,6 +220,9 @@ public class AmqpMultiBundlesChannel extends AmqpChannel {
         params.put("vhost", connection.getNamespaceName().getLocalName());
         getAmqpAdmin().queueDelete(connection.getNamespaceName(), queue.toString(), params)
                 .thenAccept(__ -> {
+                    // the queue is unbound from all the exchanges and its topic is gone
+                    connection.publishRouteMap.clear();
+                    evictQueueProducer(queue.toString());
                     if (!nowait) {
                         MethodRegistry methodRegistry = connection.getMethodRegistry();
                         QueueDeleteOkBody responseBody = methodRegistry.createQueueDeleteOkBody(0);
@@ -233,6 +248,7 @@ public class AmqpMultiBundlesChannel extends AmqpChannel {
         params.put("vhost", connection.getNamespaceName().getLocalName());
         getAmqpAdmin().exchangeDelete(connection.getNamespaceName(), exchange.toString(), params)
                 .thenAccept(__ -> {
+                    connection.publishRouteMap.remove(exchange.toString());
                     if (!nowait) {
                         ExchangeDeleteOkBody responseBody = connection.getMethodRegistry().createExchangeDeleteOkBody();
                         connection.writeFrame(responseBody.generateFrame(channelId));
@@ -293,106 +309,255 @@ public class AmqpMultiBundlesChannel extends AmqpChannel {
         }
         AMQShortString routingKeyLocal = routingKey == null ? AMQShortString.valueOf("") : routingKey;
         if (isDefaultExchange(exchange)) {
-            MessagePublishInfo messagePublishInfo = connection.publishInfoMap.get(routingKeyLocal.toString());
-            if (messagePublishInfo != null) {
-                setPublishFrame(messagePublishInfo, null);
+            MessagePublishInfo info = new MessagePublishInfo(
+                    AMQShortString.valueOf(AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE),
+                    immediate, mandatory, routingKeyLocal);
+            setPublishFrame(info, null);
+            if (connection.getAmqpConfig().isAmqpRouteOnPublishEnabled()) {
+                // the message is written to the queue topic directly, no binding is needed
                 return;
             }
-            synchronized (connection) {
-                messagePublishInfo = connection.publishInfoMap.get(routingKeyLocal.toString());
-                if (messagePublishInfo != null) {
-                    setPublishFrame(messagePublishInfo, null);
-                    return;
-                }
-                ExchangeDeclareParams exchangeParams = new ExchangeDeclareParams();
-                exchangeParams.setType(ExchangeDefaults.DIRECT_EXCHANGE_CLASS);
-                exchangeParams.setInternal(false);
-                exchangeParams.setAutoDelete(false);
-                exchangeParams.setDurable(true);
-                exchangeParams.setPassive(false);
-                getAmqpAdmin().exchangeDeclare(connection.getNamespaceName(),
-                        AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE, exchangeParams
-                ).thenCompose(__ -> {
-                    BindingParams bindingParams = new BindingParams();
-                    bindingParams.setRoutingKey(routingKeyLocal.toString());
-                    return getAmqpAdmin().queueBind(connection.getNamespaceName(),
-                            AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE, routingKeyLocal.toString(), bindingParams);
-                }).thenRun(() -> {
-                    MessagePublishInfo info =
-                            new MessagePublishInfo(
-                                    AMQShortString.valueOf(AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE),
-                                    immediate, mandatory, routingKeyLocal);
-                    connection.publishInfoMap.putIfAbsent(routingKeyLocal.toString(), info);
-                    setPublishFrame(connection.publishInfoMap.get(routingKeyLocal.toString()), null);
-                }).exceptionally(t -> {
-                    log.error("Failed to bind queue {} to exchange {}", routingKeyLocal,
-                            AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE, t);
-                    handleAoPException(t);
-                    return null;
-                }).join();
+            // the message is parked until the queue is bound to the default exchange
+            currentDestinationFuture = connection.publishInfoMap.computeIfAbsent(routingKeyLocal.toString(),
+                    queueName -> bindDefaultExchange(queueName));
+            if (currentDestinationFuture.isCompletedExceptionally()) {
+                connection.publishInfoMap.remove(routingKeyLocal.toString(), currentDestinationFuture);
             }
         } else {
             MessagePublishInfo info = new MessagePublishInfo(exchange, immediate, mandatory, routingKeyLocal);
             setPublishFrame(info, null);
+            if (connection.getAmqpConfig().isAmqpRouteOnPublishEnabled()) {
+                // the message is parked until the queues the exchange routes to are known
+                CompletableFuture<PublishRoute> routeFuture = getPublishRoute(exchange.toString());
+                if (!routeFuture.isDone()) {
+                    currentDestinationFuture = routeFuture.thenAccept(__ -> {
+                    });
+                }
+            }
         }
     }
 
+    /**
+     * Get the cached route of an exchange. An expired route is still used while it is resolved again, so the
+     * publishes are not parked each time the cache expires.
+     */
+    private CompletableFuture<PublishRoute> getPublishRoute(String exchange) {
+        CompletableFuture<PublishRoute> routeFuture =
+                connection.publishRouteMap.computeIfAbsent(exchange, this::resolvePublishRoute);
+        PublishRoute route = routeFuture.getNow(null);
+        if (route != null && route.isExpired(System.currentTimeMillis()) && route.startRefresh()) {
+            resolvePublishRoute(exchange).thenAccept(newRoute -> connection.publishRouteMap.replace(
+                    exchange, routeFuture, CompletableFuture.completedFuture(newRoute)));
+        }
+        return routeFuture;
+    }
+
+    /**
+     * Resolve the route of an exchange from its type and its bindings, the messages go through the exchange topic
+     * if the route can not be resolved.
+     */
+    private CompletableFuture<PublishRoute> resolvePublishRoute(String exchange) {
+        long expireTimeMillis = System.currentTimeMillis()
+                + connection.getAmqpConfig().getAmqpRouteOnPublishBindingCacheMillis();
+        return getAmqpAdmin().getExchange(connection.getNamespaceName(), exchange)
+                .thenCombine(getAmqpAdmin().getExchangeBindings(connection.getNamespaceName(), exchange),
+                        (detail, bindings) -> PublishRoute.of(exchange, detail, bindings, expireTimeMillis))
+                .exceptionally(t -> {
+                    log.warn("Failed to resolve the route of exchange {} in vhost {}, route it through the "
+                            + "exchange topic.", exchange, connection.getNamespaceName(), t);
+                    return PublishRoute.viaExchange(exchange, expireTimeMillis);
+                });
+    }
+
+    private CompletableFuture<Void> bindDefaultExchange(String queueName) {
+        ExchangeDeclareParams exchangeParams = new ExchangeDeclareParams();
+        exchangeParams.setType(ExchangeDefaults.DIRECT_EXCHANGE_CLASS);
+        exchangeParams.setInternal(false);
+        exchangeParams.setAutoDelete(false);
+        exchangeParams.setDurable(true);
+        exchangeParams.setPassive(false);
+        CompletableFuture<Void> future = getAmqpAdmin().exchangeDeclare(connection.getNamespaceName(),
+                AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE, exchangeParams
+        ).thenCompose(__ -> {
+            BindingParams bindingParams = new BindingParams();
+            bindingParams.setRoutingKey(queueName);
+            return getAmqpAdmin().queueBind(connection.getNamespaceName(),
+                    AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE, queueName, bindingParams);
+        });
+        future.exceptionally(t -> {
+            log.error("Failed to bind queue {} to exchange {}", queueName,
+                    AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE, t);
+            // retry the binding on the next publish
+            connection.publishInfoMap.remove(queueName, future);
+            handleAoPException(t);
+            return null;
+        });
+        return future;
+    }
+
     private void setPublishFrame(MessagePublishInfo info, final MessageDestination e) {
         currentMessage = new IncomingMessage(info);
         currentMessage.setMessageDestination(e);
     }
 
     @Override
-    protected void deliverCurrentMessageIfComplete() {
-        if (currentMessage.allContentReceived()) {
-            MessagePublishInfo info = currentMessage.getMessagePublishInfo();
-            String exchangeName = AMQShortString.toString(info.getExchange());
-            MessageImpl<byte[]> message;
-            try {
-                message = MessageConvertUtils.toPulsarMessage(currentMessage);
-            } catch (UnsupportedEncodingException e) {
-                connection.sendConnectionClose(INTERNAL_ERROR, "Message encoding fail.", channelId);
-                return;
-            }
+    protected CompletableFuture<Void> publishMessage(IncomingMessage incomingMessage) {
+        MessagePublishInfo info = incomingMessage.getMessagePublishInfo();
+        String exchangeName = AMQShortString.toString(info.getExchange());
+        long publishSize = incomingMessage.getSize();
+        MessageImpl<byte[]> message;
+        try {
+            // a batching producer copies the payload into the batch, so the content is not kept as it is
+            message = MessageConvertUtils.toPulsarMessage(incomingMessage,
+                    connection.getAmqpConfig().isAmqpCompactPropertiesEnabled(),
+                    connection.getAmqpConfig().isAmqpEntryBatchingEnabled());
+        } catch (UnsupportedEncodingException e) {
+            connection.releasePublishMemory(publishSize);
+            connection.sendConnectionClose(INTERNAL_ERROR, "Message encoding fail.", channelId);
+            return FutureUtil.failedFuture(e);
+        }
 
-            if (exchangeName == null || exchangeName.length() == 0) {
-                exchangeName = AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE;
-            }
+        if (exchangeName == null || exchangeName.length() == 0) {
+            exchangeName = AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE;
+        }
 
-            CompletableFuture<Producer<byte[]>> producerFuture = getProducer(exchangeName);
-            producerFuture.thenCompose(producer -> {
+        long confirmTag = nextConfirmTag();
+        Collection<String> queues = getPublishQueues(exchangeName, AMQShortString.toString(info.getRoutingKey()));
+        CompletableFuture<Boolean> routeFuture;
+        if (queues != null) {
+            routeFuture = sendToQueues(message, queues);
+        } else {
+            routeFuture = getProducer(exchangeName).thenCompose(producer -> {
                 ProducerImpl<byte[]> producerImpl = (ProducerImpl<byte[]>) producer;
-                return producerImpl.sendAsync(message)
-                        .thenAccept(position -> {
-                            if (log.isDebugEnabled()) {
-                                log.debug("Publish message success, position {}", position);
-                            }
-                            if (confirmOnPublish) {
-                                confirmedMessageCounter++;
-                                BasicAckBody body = connection.getMethodRegistry().
-                                        createBasicAckBody(confirmedMessageCounter, false);
-                                connection.writeFrame(body.generateFrame(channelId));
-                            }
-                        });
-            }).exceptionally(throwable -> {
-                ReferenceCountUtil.safeRelease(message.getDataBuffer());
-                log.error("Failed to write message to exchange", throwable);
-                handleAoPException(throwable);
-                return null;
+                return producerImpl.sendAsync(message);
+            }).thenApply(position -> {
+                if (log.isDebugEnabled()) {
+                    log.debug("Publish message success, position {}", position);
+                }
+                return true;
             });
         }
+        CompletableFuture<Void> writeFuture = routeFuture.thenAccept(routed -> {
+            if (!routed) {
+                // an unroutable message is confirmed as RabbitMQ does, and returned first if it is mandatory
+                if (info.isMandatory()) {
+                    returnUnroutableMessage(incomingMessage, message);
+                }
+                ReferenceCountUtil.safeRelease(message.getDataBuffer());
+            }
+            if (confirmTag > 0) {
+                confirmTracker.ack(confirmTag);
+            }
+        });
+        writeFuture.exceptionally(throwable -> {
+            ReferenceCountUtil.safeRelease(message.getDataBuffer());
+            log.error("Failed to write message to exchange", throwable);
+            if (confirmTag > 0) {
+                confirmTracker.nack(confirmTag);
+            }
+            handleAoPException(throwable);
+            return null;
+        }).thenRun(() -> connection.releasePublishMemory(publishSize));
+        return writeFuture;
+    }
+
+    /**
+     * The queues a message is written to when it is routed on publish, null if it goes through the exchange topic.
+     */
+    private Collection<String> getPublishQueues(String exchangeName, String routingKey) {
+        if (!connection.getAmqpConfig().isAmqpRouteOnPublishEnabled()) {
+            return null;
+        }
+        if (AbstractAmqpExchange.DEFAULT_EXCHANGE_DURABLE.equals(exchangeName)) {
+            // the default exchange routes the message to the queue named by the routing key
+            return Collections.singleton(routingKey);
+        }
+        // the route was resolved before the message was published, unless the bindings changed meanwhile
+        CompletableFuture<PublishRoute> routeFuture = connection.publishRouteMap.get(exchangeName);
+        PublishRoute route = routeFuture != null ? routeFuture.getNow(null) : null;
+        return route != null && route.isRoutedOnPublish() ? route.getQueues(routingKey) : null;
+    }
+
+    /**
+     * Write a message to the topics of the queues, the queues that do not exist are skipped.
+     *
+     * @return a future that completes with false if none of the queues exist
+     */
+    private CompletableFuture<Boolean> sendToQueues(MessageImpl<byte[]> message, Collection<String> queues) {
+        List<String> queueList = new ArrayList<>(queues);
+        List<CompletableFuture<Producer<byte[]>>> producerFutures = new ArrayList<>(queueList.size());
+        for (String queue : queueList) {
+            producerFutures.add(getQueueProducer(queue));
+        }
+        return FutureUtil.waitForAll(producerFutures).handle((__, throwable) -> {
+            Map<String, ProducerImpl<byte[]>> producers = new LinkedHashMap<>();
+            for (int i = 0; i < queueList.size(); i++) {
+                CompletableFuture<Producer<byte[]>> producerFuture = producerFutures.get(i);
+                if (!producerFuture.isCompletedExceptionally()) {
+                    producers.put(queueList.get(i), (ProducerImpl<byte[]>) producerFuture.join());
+                    continue;
+                }
+                Throwable cause = FutureUtil.unwrapCompletionException(
+                        producerFuture.handle((p, t) -> t).join());
+                if (!(cause instanceof AoPServiceRuntimeException.NoSuchQueueException)) {
+                    throw new CompletionException(cause);
+                }
+            }
+            return producers;
+        }).thenCompose(producers -> {
+            if (producers.isEmpty()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            // the producers fill in the metadata of the messages they send, each queue gets its own copy
+            List<MessageImpl<byte[]>> messages = new ArrayList<>(producers.size());
+            messages.add(message);
+            for (int i = 1; i < producers.size(); i++) {
+                messages.add(MessageImpl.create(null, null,
+                        new MessageMetadata().copyFrom(message.getMessageBuilder()),
+                        message.getDataBuffer().retainedDuplicate(), Optional.empty(), null, Schema.BYTES, 0,
+                        false, -1L));
+            }
+            List<CompletableFuture<MessageId>> sendFutures = new ArrayList<>(producers.size());
+            int index = 0;
+            for (Map.Entry<String, ProducerImpl<byte[]>> entry : producers.entrySet()) {
+                String queue = entry.getKey();
+                sendFutures.add(entry.getValue().sendAsync(messages.get(index++)).whenComplete((id, t) -> {
+                    if (t != null && isQueueTopicGone(FutureUtil.unwrapCompletionException(t))) {
+                        evictQueueProducer(queue);
+                    }
+                }));
+            }
+            return FutureUtil.waitForAll(sendFutures).thenApply(__ -> true);
+        });
+    }
+
+    private static boolean isQueueTopicGone(Throwable throwable) {
+        return throwable instanceof PulsarClientException.AlreadyClosedException
+                || throwable instanceof PulsarClientException.TopicDoesNotExistException
+                || throwable instanceof PulsarClientException.TopicTerminatedException;
+    }
+
+    private void returnUnroutableMessage(IncomingMessage incomingMessage, MessageImpl<byte[]> message) {
+        AmqpMessageData messageData = AmqpMessageData.builder()
+                .messagePublishInfo(incomingMessage.getMessagePublishInfo())
+                .contentHeaderBody(incomingMessage.getContentHeader())
+                .contentBody(new ContentBody(QpidByteBuffer.wrap(ByteBufUtil.getBytes(message.getDataBuffer()))))
+                .build();
+        connection.getAmqpOutputConverter().writeReturn(incomingMessage.getMessagePublishInfo(),
+                incomingMessage.getContentHeader(), messageData, channelId, NO_ROUTE,
+                AMQShortString.valueOf("NO_ROUTE"));
     }
 
     @Override
     public void receiveBasicReject(long deliveryTag, boolean requeue) {
         // TODO handle message reject, message requeue
-        super.messageNAck(deliveryTag, false, requeue);
+        super.receiveBasicReject(deliveryTag, requeue);
     }
 
     @Override
     public void receiveBasicNack(long deliveryTag, boolean multiple, boolean requeue) {
         // TODO handle message negative ack, message requeue
-        super.messageNAck(deliveryTag, multiple, requeue);
+        super.receiveBasicNack(deliveryTag, multiple, requeue);
     }
 
     @Override
@@ -597,6 +762,9 @@ public class AmqpMultiBundlesChannel extends AmqpChannel {
 
     @Override
     public void close() {
+        releaseIncompleteMessage();
+        discardPendingPublishes();
+        discardTransaction();
         closeAllConsumers();
         // TODO need to delete exclusive queues in this channel.
         setDefQueue(null);
@@ -631,15 +799,57 @@ public class AmqpMultiBundlesChannel extends AmqpChannel {
     }
 
     public CompletableFuture<Producer<byte[]>> getProducer(String exchange) {
+        AmqpServiceConfiguration config = connection.getAmqpConfig();
         return connection.producerMap.computeIfAbsent(exchange,
                 k -> getAmqpAdmin().loadExchange(connection.getNamespaceName(), exchange)
                         .thenCompose(__ -> pulsarClient.newProducer()
                                 .topic(getTopicName(PersistentExchange.TOPIC_PREFIX, exchange))
+                                .enableBatching(config.isAmqpEntryBatchingEnabled())
+                                .batchingMaxMessages(config.getAmqpEntryBatchingMaxMessages())
+                                .batchingMaxBytes(config.getAmqpEntryBatchingMaxBytes())
+                                .batchingMaxPublishDelay(config.getAmqpEntryBatchingMaxPublishDelayMillis(),
+                                        TimeUnit.MILLISECONDS)
+                                .blockIfQueueFull(true)
+                                .maxPendingMessages(20000)
+                                .sendTimeout(0, TimeUnit.MILLISECONDS)
+                                .createAsync()));
+    }
+
+    public CompletableFuture<Producer<byte[]>> getQueueProducer(String queue) {
+        String topic = getTopicName(PersistentQueue.TOPIC_PREFIX, queue);
+        CompletableFuture<Producer<byte[]>> producerFuture = connection.producerMap.computeIfAbsent(topic,
+                k -> connection.getPulsarService().getNamespaceService().checkTopicExists(TopicName.get(topic))
+                        .thenCompose(exists -> {
+                            if (!exists) {
+                                return FutureUtil.failedFuture(new AoPServiceRuntimeException.NoSuchQueueException(
+                                        "Queue " + queue + " not found in vhost " + connection.getNamespaceName()));
+                            }
+                            return getAmqpAdmin().loadQueue(connection.getNamespaceName(), queue);
+                        })
+                        .thenCompose(__ -> pulsarClient.newProducer()
+                                .topic(topic)
                                 .enableBatching(false)
                                 .blockIfQueueFull(true)
                                 .maxPendingMessages(20000)
                                 .sendTimeout(0, TimeUnit.MILLISECONDS)
                                 .createAsync()));
+        producerFuture.exceptionally(t -> {
+            // the queue may be declared later
+            connection.producerMap.remove(topic, producerFuture);
+            return null;
+        });
+        return producerFuture;
+    }
+
+    /**
+     * Close the producer of a deleted queue, the queue may be declared again later.
+     */
+    private void evictQueueProducer(String queue) {
+        CompletableFuture<Producer<byte[]>> producerFuture =
+                connection.producerMap.remove(getTopicName(PersistentQueue.TOPIC_PREFIX, queue));
+        if (producerFuture != null) {
+            producerFuture.thenAccept(Producer::closeAsync);
+        }
     }
 
     public CompletableFuture<AmqpPulsarConsumer> getConsumer(String queue, String consumerTag, boolean autoAck) {
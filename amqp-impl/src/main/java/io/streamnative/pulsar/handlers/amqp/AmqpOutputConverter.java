@@ -14,6 +14,7 @@
 package io.streamnative.pulsar.handlers.amqp;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import lombok.extern.log4j.Log4j2;
 import org.apache.qpid.server.QpidException;
 import org.apache.qpid.server.bytebuffer.QpidByteBuffer;
@@ -49,9 +50,20 @@ public class AmqpOutputConverter {
     public long writeDeliver(final AmqpMessageData message, int channelId,
         boolean isRedelivered, long deliveryTag,
         AMQShortString consumerTag) {
+        return writeDeliver(message, channelId, isRedelivered, deliveryTag, consumerTag, true);
+    }
+
+    /**
+     * Write a basic.deliver, the frames of a batch of deliveries can be flushed at once by the caller.
+     *
+     * @param flush whether to flush the frames of the delivery
+     */
+    public long writeDeliver(final AmqpMessageData message, int channelId,
+        boolean isRedelivered, long deliveryTag,
+        AMQShortString consumerTag, boolean flush) {
 
         AMQBody deliverBody = createEncodedDeliverBody(message, isRedelivered, deliveryTag, consumerTag);
-        return writeMessageDelivery(message, channelId, deliverBody);
+        return writeMessageDelivery(message, message.getContentHeaderBody(), channelId, deliverBody, flush);
     }
 
     private long writeMessageDelivery(AmqpMessageData message, int channelId, AMQBody deliverBody) {
@@ -64,6 +76,11 @@ public class AmqpOutputConverter {
 
     private long writeMessageDelivery(AmqpMessageData message, ContentHeaderBody contentHeaderBody, int channelId,
         AMQBody deliverBody) {
+        return writeMessageDelivery(message, contentHeaderBody, channelId, deliverBody, true);
+    }
+
+    private long writeMessageDelivery(AmqpMessageData message, ContentHeaderBody contentHeaderBody, int channelId,
+        AMQBody deliverBody, boolean flush) {
 
         int bodySize = (int) message.getContentHeaderBody().getBodySize();
         boolean msgCompressed = isCompressed(contentHeaderBody);
@@ -79,7 +96,7 @@ public class AmqpOutputConverter {
                 new BasicContentHeaderProperties(contentHeaderBody.getProperties());
             modifiedProps.setEncoding((String) null);
 
-            length = writeMessageDeliveryModified(modifiedContent, channelId, deliverBody, modifiedProps);
+            length = writeMessageDeliveryModified(modifiedContent, channelId, deliverBody, modifiedProps, flush);
         } else if (!msgCompressed
             && compressionSupported
             && contentHeaderBody.getProperties().getEncoding() == null
@@ -89,10 +106,10 @@ public class AmqpOutputConverter {
                 new BasicContentHeaderProperties(contentHeaderBody.getProperties());
             modifiedProps.setEncoding(GZIP_ENCODING);
 
-            length = writeMessageDeliveryModified(modifiedContent, channelId, deliverBody, modifiedProps);
+            length = writeMessageDeliveryModified(modifiedContent, channelId, deliverBody, modifiedProps, flush);
         } else {
             writeMessageDeliveryUnchanged(new ModifiedContentSource(message.getContentBody().getPayload()),
-                channelId, deliverBody, contentHeaderBody, bodySize);
+                channelId, deliverBody, contentHeaderBody, bodySize, flush);
 
             length = bodySize;
         }
@@ -124,22 +141,22 @@ public class AmqpOutputConverter {
 
     private int writeMessageDeliveryModified(final MessageContentSource content, final int channelId,
         final AMQBody deliverBody,
-        final BasicContentHeaderProperties modifiedProps) {
+        final BasicContentHeaderProperties modifiedProps, boolean flush) {
         final int bodySize = (int) content.getSize();
         ContentHeaderBody modifiedHeaderBody = new ContentHeaderBody(modifiedProps, bodySize);
-        writeMessageDeliveryUnchanged(content, channelId, deliverBody, modifiedHeaderBody, bodySize);
+        writeMessageDeliveryUnchanged(content, channelId, deliverBody, modifiedHeaderBody, bodySize, flush);
         return bodySize;
     }
 
     private void writeMessageDeliveryUnchanged(MessageContentSource content,
         int channelId, AMQBody deliverBody, ContentHeaderBody contentHeaderBody,
-        int bodySize) {
+        int bodySize, boolean flush) {
         if (bodySize == 0) {
             ProtocolOutputConverterImpl.SmallCompositeAMQBodyBlock compositeBlock =
                 new ProtocolOutputConverterImpl.SmallCompositeAMQBodyBlock(channelId, deliverBody,
                 contentHeaderBody);
 
-            writeFrame(compositeBlock);
+            writeFrame(compositeBlock, flush);
         } else {
             int maxFrameBodySize = (int) connection.getMaxFrameSize() - AMQFrame.getFrameOverhead();
             try (QpidByteBuffer contentByteBuffer = content.getContent()) {
@@ -148,7 +165,7 @@ public class AmqpOutputConverter {
                 writeFrame(new CompositeAMQBodyBlock(channelId,
                     deliverBody,
                     contentHeaderBody,
-                    new MessageContentSourceBody(chunk)));
+                    new MessageContentSourceBody(chunk)), flush);
 
                 int writtenSize = contentChunkSize;
                 while (writtenSize < bodySize) {
@@ -156,7 +173,7 @@ public class AmqpOutputConverter {
                         (bodySize - writtenSize) > maxFrameBodySize ? maxFrameBodySize : bodySize - writtenSize;
                     QpidByteBuffer chunkElement = contentByteBuffer.view(writtenSize, contentChunkSize);
                     writtenSize += contentChunkSize;
-                    writeFrame(new AMQFrame(channelId, new MessageContentSourceBody(chunkElement)));
+                    writeFrame(new AMQFrame(channelId, new MessageContentSourceBody(chunkElement)), flush);
 
                 }
             }
@@ -329,6 +346,14 @@ public class AmqpOutputConverter {
         connection.writeFrame(block);
     }
 
+    private void writeFrame(AMQDataBlock block, boolean flush) {
+        if (flush) {
+            connection.writeFrame(block);
+        } else {
+            connection.writeFrameNoFlush(block);
+        }
+    }
+
     public void confirmConsumerAutoClose(int channelId, AMQShortString consumerTag) {
 
         BasicCancelOkBody basicCancelOkBody = connection.getMethodRegistry().createBasicCancelOkBody(consumerTag);
@@ -423,6 +448,67 @@ public class AmqpOutputConverter {
         }
     }
 
+    public void writeConnectionBlocked(String reason) {
+        writeFrame(new AMQFrame(0, new ConnectionBlockBody(ConnectionBlockBody.BLOCKED_METHOD_ID, reason)));
+    }
+
+    public void writeConnectionUnblocked() {
+        writeFrame(new AMQFrame(0, new ConnectionBlockBody(ConnectionBlockBody.UNBLOCKED_METHOD_ID, null)));
+    }
+
+    /**
+     * The connection.blocked and connection.unblocked extension methods, they're not part of the 0-9-1 registry.
+     */
+    private static class ConnectionBlockBody implements AMQBody {
+        private static final int CONNECTION_CLASS_ID = 10;
+        private static final int BLOCKED_METHOD_ID = 60;
+        private static final int UNBLOCKED_METHOD_ID = 61;
+
+        private final byte[] payload;
+
+        private ConnectionBlockBody(int methodId, String reason) {
+            byte[] reasonBytes = reason == null ? null : reason.getBytes(StandardCharsets.UTF_8);
+            int reasonLength = reasonBytes == null ? 0 : Math.min(reasonBytes.length, 255);
+            payload = new byte[reasonBytes == null ? 4 : 5 + reasonLength];
+            payload[0] = (byte) (CONNECTION_CLASS_ID >> 8);
+            payload[1] = (byte) CONNECTION_CLASS_ID;
+            payload[2] = (byte) (methodId >> 8);
+            payload[3] = (byte) methodId;
+            if (reasonBytes != null) {
+                payload[4] = (byte) reasonLength;
+                System.arraycopy(reasonBytes, 0, payload, 5, reasonLength);
+            }
+        }
+
+        @Override
+        public byte getFrameType() {
+            return AMQMethodBody.TYPE;
+        }
+
+        @Override
+        public int getSize() {
+            return payload.length;
+        }
+
+        @Override
+        public long writePayload(final ByteBufferSender sender) {
+            try (QpidByteBuffer buffer = QpidByteBuffer.wrap(payload)) {
+                sender.send(buffer);
+            }
+            return payload.length;
+        }
+
+        @Override
+        public void handle(int channelId, AMQVersionAwareProtocolSession amqProtocolSession) throws QpidException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return "[" + getClass().getSimpleName() + ", method: " + payload[3] + "]";
+        }
+    }
+
     private static class ModifiedContentSource implements DisposableMessageContentSource {
         private final QpidByteBuffer buffer;
         private final int size;
@@ -14,6 +14,7 @@
 package io.streamnative.pulsar.handlers.amqp;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.mledger.Entry;
@@ -42,6 +43,14 @@ public interface AmqpQueue extends AutoCloseable{
     CompletableFuture<Void> writeIndexMessageAsync(String exchangeName, long ledgerId, long entryId,
                                                    Map<String, Object> properties);
 
+    /**
+     * Write the index message of a message in a batch entry into the queue.
+     */
+    default CompletableFuture<Void> writeIndexMessageAsync(String exchangeName, long ledgerId, long entryId,
+                                                           int batchIndex, Map<String, Object> properties) {
+        return writeIndexMessageAsync(exchangeName, ledgerId, entryId, properties);
+    }
+
     /**
      * Read entry by queue message. Since the queue just store message IDs, so it's need to read the real data from
      * the exchange that the queue bind.
@@ -50,6 +59,15 @@ public interface AmqpQueue extends AutoCloseable{
      */
     CompletableFuture<Entry> readEntryAsync(String exchangeName, long ledgerId, long entryId);
 
+    /**
+     * Read the entries of a range of one ledger from the exchange that the queue bind.
+     *
+     * @return entries of the range in order, without the missing ones
+     */
+    default CompletableFuture<List<Entry>> readEntriesAsync(String exchangeName, ExchangeReadRange range) {
+        return range.readEach(entryId -> readEntryAsync(exchangeName, range.getLedgerId(), entryId));
+    }
+
     /**
      * Acknowledge a message in the queue.
      */
@@ -114,10 +114,34 @@ public class AmqpServiceConfiguration extends ServiceConfiguration {
     @FieldContext(
             category = CATEGORY_AMQP,
             required = false,
-            doc = "Exchange route queue size."
+            doc = "Exchange route queue size. It's the initial number of exchange entries routed at a time, the"
+                    + " number is adapted to the write latency between amqpExchangeRouteQueueMinSize and"
+                    + " amqpExchangeRouteQueueMaxSize."
     )
     private int amqpExchangeRouteQueueSize = 200;
 
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The minimum number of exchange entries routed at a time."
+    )
+    private int amqpExchangeRouteQueueMinSize = 20;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of exchange entries routed at a time."
+    )
+    private int amqpExchangeRouteQueueMaxSize = 2000;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The write latency in milliseconds of routed exchange entries above which the number of entries"
+                    + " routed at a time is reduced."
+    )
+    private long amqpExchangeRouteTargetLatencyMillis = 100;
+
     @FieldContext(
             category = CATEGORY_AMQP,
             required = false,
@@ -125,18 +149,243 @@ public class AmqpServiceConfiguration extends ServiceConfiguration {
     )
     private int amqpExchangeRouteExecutorThreads = 2 * Runtime.getRuntime().availableProcessors();
 
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The number of route threads parsing and matching the messages of one exchange read in parallel,"
+                    + " the messages are still sent to each destination in order."
+    )
+    private int amqpExchangeRouteShards = 1;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of messages an exchange router sends to one destination without receiving their"
+                    + " receipts, the messages over it are parked until the destination catches up."
+    )
+    private int amqpExchangeRouteDestinationMaxInFlight = 1000;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of messages an exchange router keeps parked for one slow or failing"
+                    + " destination. Past it, the next messages of the destination are dropped from memory and read"
+                    + " again from the exchange once the parked ones are sent, the other destinations keep going."
+    )
+    private int amqpExchangeRouteDestinationMaxParkedMessages = 10000;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum size in bytes of the messages an exchange router keeps parked for one slow or failing"
+                    + " destination, the messages past it are read again from the exchange like the ones past"
+                    + " amqpExchangeRouteDestinationMaxParkedMessages."
+    )
+    private long amqpExchangeRouteDestinationMaxParkedBytes = 64 * 1024 * 1024;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of exchange-to-exchange bindings an exchange router follows in memory to deliver"
+                    + " a message straight to the final queues. The messages are written to the exchange topic past"
+                    + " this depth or when the next exchange isn't loaded on this broker, 0 always writes them."
+    )
+    private int amqpExchangeRouteMaxHops = 8;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "Whether the exchange routers forward the messages read from the exchange to each destination as"
+                    + " batch messages. The messages routed from one read are flushed together and the exchange"
+                    + " positions are deleted once all of them are persisted."
+    )
+    private boolean amqpExchangeRouteBatchingEnabled = false;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of messages in one batch forwarded by an exchange router."
+    )
+    private int amqpExchangeRouteBatchingMaxMessages = 1000;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum size in bytes of one batch forwarded by an exchange router."
+    )
+    private int amqpExchangeRouteBatchingMaxBytes = 128 * 1024;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum time in milliseconds a message routed by an exchange router waits for its batch."
+    )
+    private long amqpExchangeRouteBatchingMaxPublishDelayMillis = 1;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of routed exchange messages whose acknowledgements are held before they are"
+                    + " applied to the exchange cursor."
+    )
+    private int amqpExchangeAckMaxPendingPositions = 1000;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The interval in milliseconds the held acknowledgements of routed exchange messages are applied to"
+                    + " the exchange cursor, 0 to apply them only when amqpExchangeAckMaxPendingPositions is reached."
+    )
+    private long amqpExchangeAckFlushIntervalMillis = 100;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "Whether to group concurrent publishes to the same exchange into one batch entry "
+                    + "before writing them to the exchange ledger. When amqpMultiBundleEnable is true, it enables "
+                    + "the batching of the exchange producers with the same limits."
+    )
+    private boolean amqpEntryBatchingEnabled = false;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of messages grouped into one exchange batch entry."
+    )
+    private int amqpEntryBatchingMaxMessages = 128;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum size in bytes of one exchange batch entry."
+    )
+    private int amqpEntryBatchingMaxBytes = 128 * 1024;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum time in milliseconds a publish waits for other publishes before its batch entry "
+                    + "is written."
+    )
+    private long amqpEntryBatchingMaxPublishDelayMillis = 1;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "Whether to store the AMQP content header of published messages as its wire-encoded bytes in one "
+                    + "message property instead of one property per basic property and header. Messages stored "
+                    + "in either format can always be read."
+    )
+    private boolean amqpCompactPropertiesEnabled = false;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum bytes of published messages in flight across all connections of the broker, "
+                    + "connections publishing beyond it stop being read once the messages they are receiving are "
+                    + "complete, until the usage drops. 0 means no limit."
+    )
+    private long amqpMaxPublishMemoryBytes = 0;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The percentage of amqpMaxPublishMemoryBytes below which the blocked connections are resumed."
+    )
+    private int amqpPublishMemoryResumeThresholdPercent = 80;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum body size in bytes of a published message, capped by maxMessageSize and by "
+                    + "amqpMaxPublishMemoryBytes when it is set. The body is kept in broker memory until it is "
+                    + "complete and written as a single entry, it is not streamed nor chunked. Larger messages close "
+                    + "the channel with MESSAGE_TOO_LARGE before their content is received."
+    )
+    private long amqpMaxMessageSize = 10 * 1024 * 1024;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum size in bytes of the messages published in one transaction of a transactional "
+                    + "channel, the channel is closed with PRECONDITION_FAILED when a transaction exceeds it. The "
+                    + "messages are buffered until the commit, which is not atomic: if a message fails to be written, "
+                    + "the messages already written stay published and the channel is closed."
+    )
+    private long amqpMaxTransactionSize = 100 * 1024 * 1024;
+
     @FieldContext(
             category = CATEGORY_AMQP,
             required = false
     )
     private boolean amqpMultiBundleEnable = false;
 
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "Whether messages published to the default, direct and fanout exchanges are written straight to "
+                    + "the topics of the queues they are routed to instead of going through the exchange topic. The "
+                    + "exchanges with exchange bindings or delayed messages still use the exchange topic. Only used "
+                    + "when amqpMultiBundleEnable is true."
+    )
+    private boolean amqpRouteOnPublishEnabled = false;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "How long the bindings of an exchange are cached by a channel routing on publish. The binding "
+                    + "changes made on other brokers take effect after this delay, the messages published meanwhile "
+                    + "are routed with the previous bindings."
+    )
+    private long amqpRouteOnPublishBindingCacheMillis = 1000;
+
     @FieldContext(
             category = CATEGORY_AMQP,
             required = false
     )
     private int amqpPulsarConsumerQueueSize = 10000;
 
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of entries read at once from an exchange ledger by a consumer resolving the"
+                    + " index messages of a dispatch batch in legacy mode, 1 reads each entry on its own."
+    )
+    private int amqpConsumerReadRangeMaxEntries = 100;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of unused exchange entries between two entries a consumer reads in one range,"
+                    + " the entries further apart are read in separate ranges."
+    )
+    private int amqpConsumerReadRangeMaxGap = 8;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum number of acknowledged messages of a consumer whose exchange cursor mark-delete"
+                    + " positions are held before they are applied, 1 to apply them on every acknowledgement."
+    )
+    private int amqpConsumerExchangeAckMaxPendingPositions = 100;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum time in milliseconds the held exchange cursor mark-delete positions of a consumer"
+                    + " wait before they are applied, 0 to apply them once the pending acknowledgements are handled."
+    )
+    private long amqpConsumerExchangeAckFlushIntervalMillis = 100;
+
+    @FieldContext(
+            category = CATEGORY_AMQP,
+            required = false,
+            doc = "The maximum bytes of the broker wide cache of the exchange entries read by several queues in"
+                    + " legacy mode, an entry of a fanout exchange is read once from the exchange ledger for all its"
+                    + " queues. 0 disables the cache."
+    )
+    private long amqpExchangeEntryCacheMaxBytes = 0;
+
     @FieldContext(
             category = CATEGORY_AMQP,
             required = false
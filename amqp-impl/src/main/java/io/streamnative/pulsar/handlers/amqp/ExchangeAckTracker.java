@@ -0,0 +1,199 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.mledger.AsyncCallbacks;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.common.util.SimpleTextOutputStream;
+
+/**
+ * Coalesces the acknowledgements of the entries routed from an exchange cursor.
+ *
+ * <p>The entries are acknowledged in any order, the acknowledgements are applied to the cursor once the number of
+ * pending ones reaches the limit or on the flush interval. The acknowledged positions before the first entry still
+ * being routed advance the mark-delete position in one operation, the others are deleted in one batch.
+ */
+@Slf4j
+public class ExchangeAckTracker implements AsyncCallbacks.MarkDeleteCallback, AsyncCallbacks.DeleteCallback {
+
+    private static final Set<ExchangeAckTracker> TRACKERS = ConcurrentHashMap.newKeySet();
+
+    private final String name;
+    private final ManagedCursor cursor;
+    private final int maxPendingAcks;
+    /**
+     * Positions read and not acknowledged yet, a position dropped by a rewind stays here until it's read again and
+     * acknowledged.
+     */
+    private final NavigableSet<PositionImpl> outstanding = new TreeSet<>();
+    /**
+     * Positions acknowledged and not applied to the cursor yet.
+     */
+    private final NavigableSet<PositionImpl> acked = new TreeSet<>();
+    private ScheduledFuture<?> flushTask;
+    private boolean closed;
+
+    public ExchangeAckTracker(String name, ManagedCursor cursor, int maxPendingAcks) {
+        this.name = name;
+        this.cursor = cursor;
+        this.maxPendingAcks = Math.max(1, maxPendingAcks);
+    }
+
+    public void start(ScheduledExecutorService executor, long flushIntervalMillis) {
+        if (flushIntervalMillis > 0) {
+            flushTask = executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        TRACKERS.add(this);
+    }
+
+    /**
+     * Track an entry read from the cursor, the entries must be tracked in read order before being acknowledged.
+     */
+    public synchronized void read(Position position) {
+        if (closed) {
+            return;
+        }
+        outstanding.add((PositionImpl) position);
+    }
+
+    /**
+     * Acknowledge a routed entry, the acknowledgements of a closed tracker are dropped and their entries are read
+     * again once the cursor is reopened.
+     */
+    public synchronized void ack(Position position) {
+        if (closed) {
+            return;
+        }
+        PositionImpl positionImpl = (PositionImpl) position;
+        outstanding.remove(positionImpl);
+        acked.add(positionImpl);
+        if (acked.size() >= maxPendingAcks) {
+            flush();
+        }
+    }
+
+    public synchronized void ack(List<Position> positions) {
+        if (closed) {
+            return;
+        }
+        for (Position position : positions) {
+            PositionImpl positionImpl = (PositionImpl) position;
+            outstanding.remove(positionImpl);
+            acked.add(positionImpl);
+        }
+        if (acked.size() >= maxPendingAcks) {
+            flush();
+        }
+    }
+
+    /**
+     * Apply the pending acknowledgements to the cursor, it must be called before rewinding the cursor so the
+     * acknowledged entries are not read again.
+     */
+    public synchronized void flush() {
+        if (closed || acked.isEmpty()) {
+            return;
+        }
+        // all the entries before the first outstanding one are acknowledged
+        NavigableSet<PositionImpl> contiguous = outstanding.isEmpty() ? acked : acked.headSet(outstanding.first(),
+                false);
+        if (!contiguous.isEmpty()) {
+            PositionImpl markDeletePosition = contiguous.last();
+            contiguous.clear();
+            cursor.asyncMarkDelete(markDeletePosition, this, markDeletePosition);
+        }
+        if (!acked.isEmpty()) {
+            List<Position> positions = new ArrayList<>(acked);
+            acked.clear();
+            cursor.asyncDelete(positions, this, positions.size());
+        }
+    }
+
+    public void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        synchronized (this) {
+            flush();
+            closed = true;
+        }
+        TRACKERS.remove(this);
+    }
+
+    public synchronized int getOutstandingEntries() {
+        return outstanding.size();
+    }
+
+    public synchronized int getPendingAcks() {
+        return acked.size();
+    }
+
+    @Override
+    public void markDeleteComplete(Object ctx) {
+        if (log.isDebugEnabled()) {
+            log.debug("{} Mark deleted messages up to {}", name, ctx);
+        }
+    }
+
+    @Override
+    public void markDeleteFailed(ManagedLedgerException exception, Object ctx) {
+        log.warn("{} Failed to mark delete messages up to {}", name, ctx, exception);
+    }
+
+    @Override
+    public void deleteComplete(Object ctx) {
+        if (log.isDebugEnabled()) {
+            log.debug("{} Deleted {} messages", name, ctx);
+        }
+    }
+
+    @Override
+    public void deleteFailed(ManagedLedgerException exception, Object ctx) {
+        log.error("{} Failed to delete {} messages", name, ctx, exception);
+    }
+
+    /**
+     * Write the pending acknowledgement state of all the exchange cursors of the broker.
+     */
+    public static void generateMetrics(SimpleTextOutputStream stream, String cluster) {
+        long outstandingEntries = 0;
+        long pendingAcks = 0;
+        for (ExchangeAckTracker tracker : TRACKERS) {
+            outstandingEntries += tracker.getOutstandingEntries();
+            pendingAcks += tracker.getPendingAcks();
+        }
+        writeGauge(stream, cluster, "amqp_exchange_route_outstanding_entries", outstandingEntries);
+        writeGauge(stream, cluster, "amqp_exchange_route_pending_acks", pendingAcks);
+    }
+
+    private static void writeGauge(SimpleTextOutputStream stream, String cluster, String name, long value) {
+        stream.write("# TYPE ").write(name).write(" gauge\n")
+                .write(name).write("{cluster=\"").write(cluster).write("\"} ")
+                .write(value).write('\n');
+    }
+}
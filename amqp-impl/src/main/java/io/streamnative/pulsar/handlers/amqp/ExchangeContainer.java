@@ -56,16 +56,18 @@ public class ExchangeContainer {
     private final AmqpServiceConfiguration config;
     private final AmqpAdmin amqpAdmin;
     private final PulsarClient pulsarClient;
+    private final ExchangeEntryCache entryCache;
 
     protected ExchangeContainer(AmqpTopicManager amqpTopicManager, PulsarService pulsarService,
                                 ExecutorService routeExecutor, AmqpServiceConfiguration config, AmqpAdmin amqpAdmin,
-                                PulsarClient pulsarClient) {
+                                PulsarClient pulsarClient, ExchangeEntryCache entryCache) {
         this.amqpTopicManager = amqpTopicManager;
         this.pulsarService = pulsarService;
         this.routeExecutor = routeExecutor;
         this.config = config;
         this.amqpAdmin = amqpAdmin;
         this.pulsarClient = pulsarClient;
+        this.entryCache = entryCache;
     }
 
     @Getter
@@ -194,7 +196,7 @@ public class ExchangeContainer {
                                     AmqpExchange.Type.value(currentType), persistentTopic, currentDurable,
                                     currentAutoDelete, currentInternal, currentArguments, routeExecutor,
                                     config.getAmqpExchangeRouteQueueSize(), config.isAmqpMultiBundleEnable(),
-                                    amqpAdmin, pulsarClient);
+                                    amqpAdmin, pulsarClient, config);
                         } catch (Exception e) {
                             log.error("Failed to init exchange {} in vhost {}.",
                                     exchangeName, namespaceName.getLocalName(), e);
@@ -204,6 +206,8 @@ public class ExchangeContainer {
                             });
                             return;
                         }
+                        amqpExchange.setExchangeLookup(name -> getLoadedExchange(namespaceName, name));
+                        amqpExchange.setEntryCache(entryCache);
                         amqpExchangeCompletableFuture.complete(amqpExchange);
                     }
                 }
@@ -212,6 +216,25 @@ public class ExchangeContainer {
         return amqpExchangeCompletableFuture;
     }
 
+    /**
+     * Get an exchange already loaded on this broker without loading it.
+     *
+     * @param namespaceName namespace name in pulsar
+     * @param exchangeName  name of exchange
+     * @return the exchange, or null if it's not loaded or still loading
+     */
+    public PersistentExchange getLoadedExchange(NamespaceName namespaceName, String exchangeName) {
+        Map<String, CompletableFuture<AmqpExchange>> exchanges = exchangeMap.get(namespaceName);
+        if (exchanges == null) {
+            return null;
+        }
+        CompletableFuture<AmqpExchange> exchangeFuture = exchanges.get(exchangeName);
+        if (exchangeFuture == null || !exchangeFuture.isDone() || exchangeFuture.isCompletedExceptionally()) {
+            return null;
+        }
+        return exchangeFuture.join() instanceof PersistentExchange persistentExchange ? persistentExchange : null;
+    }
+
     private boolean exchangeDeclareCheck(CompletableFuture<AmqpExchange> exchangeFuture, String vhost,
                                          String exchangeName, String exchangeType, boolean durable, boolean autoDelete,
                                          Map<String, String> properties) {
@@ -0,0 +1,278 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.pulsar.broker.stats.prometheus.PrometheusRawMetricsProvider;
+import org.apache.pulsar.common.util.SimpleTextOutputStream;
+
+/**
+ * Broker wide cache of the exchange entries read by the queues in legacy mode.
+ *
+ * <p>An entry routed to several queues is read once from the exchange ledger and served to the other queues. Each
+ * cached entry counts the reads expected from the other queues bound to the exchange and is evicted after the last
+ * one. Only the entries of the fanout exchanges are cached, they are read by all the bound queues. The entries not
+ * read by all the queues, like the entries of queues lagging behind, are evicted in insertion order once the cache
+ * exceeds its size. The entries served share the cached buffer, they hold a reference of it until they are released.
+ */
+@Slf4j
+public class ExchangeEntryCache implements PrometheusRawMetricsProvider {
+
+    private final String cluster;
+    private final long maxBytes;
+    private final Map<Key, CachedEntry> entries = new ConcurrentHashMap<>();
+    private final Queue<CachedEntry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record Key(String exchange, long ledgerId, long entryId) {
+    }
+
+    private class CachedEntry {
+        private final Key key;
+        private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        private ByteBuf data;
+        private int remainingReads;
+        private boolean evicted;
+
+        private CachedEntry(Key key, int remainingReads) {
+            this.key = key;
+            this.remainingReads = remainingReads;
+        }
+
+        private synchronized boolean load(Entry entry) {
+            if (evicted) {
+                return false;
+            }
+            data = entry.getDataBuffer().retainedDuplicate();
+            sizeBytes.addAndGet(data.readableBytes());
+            return true;
+        }
+
+        /**
+         * Get a view of the cached entry, or null if it's evicted.
+         */
+        private Entry read() {
+            Entry entry;
+            synchronized (this) {
+                if (data == null) {
+                    return null;
+                }
+                entry = EntryImpl.create(key.ledgerId, key.entryId, data.duplicate());
+                if (--remainingReads > 0) {
+                    return entry;
+                }
+            }
+            // all the expected reads are served
+            evict(this);
+            return entry;
+        }
+
+        private synchronized void release() {
+            evicted = true;
+            if (data != null) {
+                sizeBytes.addAndGet(-data.readableBytes());
+                data.release();
+                data = null;
+            }
+        }
+    }
+
+    public ExchangeEntryCache(String cluster, long maxBytes) {
+        this.cluster = cluster;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the reads of an entry expected from the other queues bound to an exchange, 0 if the entry isn't cached. An
+     * entry of the other exchange types is routed to a part of the queues only, it would wait in the cache for reads
+     * that never come.
+     */
+    public static int getOtherReads(AmqpExchange.Type type, int queues) {
+        return type == AmqpExchange.Type.Fanout ? Math.max(0, queues - 1) : 0;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Get an entry from the cache, or load it once for all the queues reading it at the same time.
+     *
+     * @param exchange name of the exchange topic
+     * @param otherReads number of reads of the entry expected from the other queues
+     * @param loader reads the entry from the exchange ledger
+     */
+    public CompletableFuture<Entry> get(String exchange, long ledgerId, long entryId, int otherReads,
+                                        Supplier<CompletableFuture<Entry>> loader) {
+        Key key = new Key(exchange, ledgerId, entryId);
+        CachedEntry cached = entries.get(key);
+        if (cached == null) {
+            CachedEntry newEntry = new CachedEntry(key, otherReads + 1);
+            cached = entries.putIfAbsent(key, newEntry);
+            if (cached == null) {
+                misses.increment();
+                load(newEntry, loader);
+                return newEntry.loaded.thenCompose(__ -> readOrLoad(newEntry, loader));
+            }
+        }
+        hits.increment();
+        CachedEntry hit = cached;
+        return hit.loaded.handle((__, throwable) -> throwable)
+                .thenCompose(throwable -> throwable == null ? readOrLoad(hit, loader) : loader.get());
+    }
+
+    private CompletableFuture<Entry> readOrLoad(CachedEntry cached, Supplier<CompletableFuture<Entry>> loader) {
+        Entry entry = cached.read();
+        return entry != null ? CompletableFuture.completedFuture(entry) : loader.get();
+    }
+
+    private void load(CachedEntry cached, Supplier<CompletableFuture<Entry>> loader) {
+        loader.get().whenComplete((entry, throwable) -> {
+            if (throwable != null || entry == null) {
+                entries.remove(cached.key, cached);
+                cached.release();
+                if (throwable != null) {
+                    cached.loaded.completeExceptionally(throwable);
+                } else {
+                    cached.loaded.complete(null);
+                }
+                return;
+            }
+            try {
+                if (cached.load(entry)) {
+                    insertionOrder.add(cached);
+                    evictIfFull();
+                }
+            } finally {
+                entry.release();
+            }
+            cached.loaded.complete(null);
+        });
+    }
+
+    /**
+     * Get the entries of a range if they are all cached.
+     *
+     * @return entries of the range in order, or null if one of them isn't cached
+     */
+    public List<Entry> getRange(String exchange, long ledgerId, long firstEntryId, long lastEntryId) {
+        List<CachedEntry> range = new ArrayList<>((int) (lastEntryId - firstEntryId + 1));
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            CachedEntry cached = entries.get(new Key(exchange, ledgerId, entryId));
+            if (cached == null || !cached.loaded.isDone()) {
+                misses.increment();
+                return null;
+            }
+            range.add(cached);
+        }
+        List<Entry> rangeEntries = new ArrayList<>(range.size());
+        for (CachedEntry cached : range) {
+            Entry entry = cached.read();
+            if (entry == null) {
+                // evicted in between
+                rangeEntries.forEach(Entry::release);
+                misses.increment();
+                return null;
+            }
+            rangeEntries.add(entry);
+        }
+        hits.increment();
+        return rangeEntries;
+    }
+
+    /**
+     * Cache an entry read by a queue for the other queues.
+     *
+     * @param exchange name of the exchange topic
+     * @param otherReads number of reads of the entry expected from the other queues
+     */
+    public void put(String exchange, Entry entry, int otherReads) {
+        if (otherReads <= 0) {
+            return;
+        }
+        CachedEntry cached = new CachedEntry(new Key(exchange, entry.getLedgerId(), entry.getEntryId()),
+                otherReads);
+        if (entries.putIfAbsent(cached.key, cached) != null) {
+            return;
+        }
+        cached.load(entry);
+        cached.loaded.complete(null);
+        insertionOrder.add(cached);
+        evictIfFull();
+    }
+
+    private void evict(CachedEntry cached) {
+        entries.remove(cached.key, cached);
+        cached.release();
+    }
+
+    private void evictIfFull() {
+        CachedEntry cached;
+        while ((cached = insertionOrder.peek()) != null && (cached.evicted || sizeBytes.get() > maxBytes)) {
+            // the evicted entries are dropped from the head as well, so the queue doesn't grow with them
+            if (insertionOrder.remove(cached) && !cached.evicted) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Evict exchange entry {}, cache size {} exceeds {}", cached.key, sizeBytes.get(),
+                            maxBytes);
+                }
+                evict(cached);
+            }
+        }
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes.get();
+    }
+
+    public int getEntries() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public void generate(SimpleTextOutputStream stream) {
+        writeMetric(stream, "amqp_exchange_entry_cache_size_bytes", "gauge", sizeBytes.get());
+        writeMetric(stream, "amqp_exchange_entry_cache_entries", "gauge", entries.size());
+        writeMetric(stream, "amqp_exchange_entry_cache_hits", "counter", hits.sum());
+        writeMetric(stream, "amqp_exchange_entry_cache_misses", "counter", misses.sum());
+    }
+
+    private void writeMetric(SimpleTextOutputStream stream, String name, String type, long value) {
+        stream.write("# TYPE ").write(name).write(' ').write(type).write('\n')
+                .write(name).write("{cluster=\"").write(cluster).write("\"} ")
+                .write(value).write('\n');
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+
+/**
+ * Tracks the exchange positions of the messages delivered by a consumer to advance the exchange cursors.
+ *
+ * <p>The index messages delivered are kept in index position order. When the mark-delete position of the queue
+ * subscription advances, the index messages up to it are dropped from the head and the exchange position of the last
+ * one of each exchange becomes the pending mark-delete position of the exchange cursor. The pending positions are
+ * applied in one batch once enough index messages are dropped or on the flush interval. It isn't thread safe, it's
+ * only accessed on the event loop of the connection.
+ */
+public class ExchangeMarkDeleteTracker {
+
+    private final int maxPendingPositions;
+    /**
+     * Index position of the delivered messages to their exchange and exchange position.
+     */
+    private final TreeMap<PositionImpl, ExchangePosition> delivered = new TreeMap<>();
+    /**
+     * Exchange name to the mark-delete position not applied to its cursor yet.
+     */
+    private Map<String, PositionImpl> pending = new HashMap<>();
+    private int pendingPositions;
+    private PositionImpl markDeletePosition = PositionImpl.EARLIEST;
+
+    private record ExchangePosition(String exchange, PositionImpl position) {
+    }
+
+    public ExchangeMarkDeleteTracker(int maxPendingPositions) {
+        this.maxPendingPositions = Math.max(1, maxPendingPositions);
+    }
+
+    /**
+     * Track a message delivered from the index position, redelivering an index replaces its exchange position.
+     */
+    public void add(String exchange, PositionImpl index, PositionImpl exchangePosition) {
+        if (index.compareTo(markDeletePosition) <= 0) {
+            return;
+        }
+        delivered.put(index, new ExchangePosition(exchange, exchangePosition));
+    }
+
+    /**
+     * Advance to the new mark-delete position of the queue subscription.
+     *
+     * @return whether the pending positions reached the limit and must be applied now
+     */
+    public boolean advance(PositionImpl newMarkDeletePosition) {
+        if (newMarkDeletePosition.compareTo(markDeletePosition) <= 0) {
+            return false;
+        }
+        markDeletePosition = newMarkDeletePosition;
+        Map.Entry<PositionImpl, ExchangePosition> first;
+        while ((first = delivered.firstEntry()) != null && first.getKey().compareTo(newMarkDeletePosition) <= 0) {
+            delivered.pollFirstEntry();
+            ExchangePosition exchangePosition = first.getValue();
+            pending.put(exchangePosition.exchange(), exchangePosition.position());
+            pendingPositions++;
+        }
+        return pendingPositions >= maxPendingPositions;
+    }
+
+    /**
+     * Take the mark-delete positions to apply to the exchange cursors.
+     */
+    public Map<String, PositionImpl> drain() {
+        if (pending.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, PositionImpl> positions = pending;
+        pending = new HashMap<>();
+        pendingPositions = 0;
+        return positions;
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    public int getDeliveredMessages() {
+        return delivered.size();
+    }
+
+    public int getPendingPositions() {
+        return pendingPositions;
+    }
+}
@@ -21,25 +21,31 @@ import com.google.common.collect.Sets;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.ReferenceCountUtil;
 import io.streamnative.pulsar.handlers.amqp.common.exception.AoPServiceRuntimeException;
-import io.streamnative.pulsar.handlers.amqp.impl.HeadersMessageRouter;
 import io.streamnative.pulsar.handlers.amqp.impl.PersistentExchange;
 import io.streamnative.pulsar.handlers.amqp.impl.PersistentQueue;
 import io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils;
 import io.streamnative.pulsar.handlers.amqp.utils.MessageNotificationUtil;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-import java.util.stream.Collectors;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
@@ -50,24 +56,25 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
-import org.apache.pulsar.client.api.MessageId;
-import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.impl.Backoff;
 import org.apache.pulsar.client.impl.MessageImpl;
 import org.apache.pulsar.client.impl.ProducerBase;
 import org.apache.pulsar.client.impl.ProducerImpl;
 import org.apache.pulsar.common.api.proto.CommandSubscribe;
 import org.apache.pulsar.common.api.proto.KeyValue;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
 import org.apache.pulsar.common.naming.NamespaceName;
 import org.apache.pulsar.common.naming.TopicDomain;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.util.FutureUtil;
-import org.apache.qpid.server.exchange.topic.TopicParser;
 
 @Slf4j
 public abstract class ExchangeMessageRouter {
@@ -76,8 +83,18 @@ public abstract class ExchangeMessageRouter {
     private final ExecutorService routeExecutor;
 
     private ManagedCursorImpl cursor;
+    private ExchangeAckTracker ackTracker;
+    private final AdaptiveRouteWindow routeWindow;
 
-    private final Map<String, ProducerImpl<byte[]>> producerMap = new ConcurrentHashMap<>();
+    private final Map<String, DestinationSender> senders = new ConcurrentHashMap<>();
+    /**
+     * The number of bindings of each destination, the sender of a destination is closed once it has none.
+     */
+    private final Map<Destination, Integer> bindingCounts = new HashMap<>();
+    private final int maxInFlightPerDestination;
+    private final int maxParkedMessagesPerDestination;
+    private final long maxParkedBytesPerDestination;
+    private final int maxHops;
 
     private static final int defaultReadMaxSizeBytes = 5 * 1024 * 1024;
     private static final int replicatorQueueSize = 2000;
@@ -89,6 +106,19 @@ public abstract class ExchangeMessageRouter {
     private volatile int havePendingRead = FALSE;
     private static final AtomicIntegerFieldUpdater<ExchangeMessageRouter> HAVE_PENDING_READ_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(ExchangeMessageRouter.class, "havePendingRead");
+    /**
+     * The batch being routed and the batch read ahead.
+     */
+    private static final int MAX_PENDING_ROUTE_BATCHES = 2;
+    private static final int MIN_ENTRIES_PER_SHARD = 100;
+    private volatile int pendingRouteBatches = 0;
+    private static final AtomicIntegerFieldUpdater<ExchangeMessageRouter> PENDING_ROUTE_BATCHES_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ExchangeMessageRouter.class, "pendingRouteBatches");
+    /**
+     * Increased when the cursor is rewound, the batches read before are dropped.
+     */
+    private volatile int readEpoch = 0;
+    private CompletableFuture<Void> routeFuture = CompletableFuture.completedFuture(null);
     private volatile int isActive = FALSE;
     private static final AtomicIntegerFieldUpdater<ExchangeMessageRouter> ACTIVE_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(ExchangeMessageRouter.class, "isActive");
@@ -99,9 +129,469 @@ public abstract class ExchangeMessageRouter {
         String type;
     }
 
+    private static class RoutedEntry {
+        private final Position position;
+        private final List<RoutedMessage> messages = new ArrayList<>(1);
+
+        private RoutedEntry(Position position) {
+            this.position = position;
+        }
+    }
+
+    private static class RoutedMessage {
+        private final MessageImpl<byte[]> message;
+        private final ByteBuf payload;
+        private final int readerIndex;
+        private final int size;
+        /**
+         * The index of the message in its batch entry, 0 if the entry isn't a batch.
+         */
+        private final int batchIndex;
+        private final List<Destination> destinations;
+        private boolean sent;
+
+        private RoutedMessage(MessageImpl<byte[]> message, ByteBuf payload, int batchIndex,
+                              List<Destination> destinations) {
+            this.message = message;
+            this.payload = payload;
+            this.readerIndex = payload.readerIndex();
+            this.size = payload.readableBytes();
+            this.batchIndex = batchIndex;
+            this.destinations = destinations;
+        }
+    }
+
+    /**
+     * A message waiting to be sent to one destination, it holds one reference of the message payload.
+     */
+    private static class PendingSend {
+        private final Position position;
+        private final RoutedMessage message;
+        private final CompletableFuture<Void> future;
+        /**
+         * The order of the message among the messages sent to the destination.
+         */
+        private long sequence;
+
+        private PendingSend(Position position, RoutedMessage message) {
+            this(position, message, new CompletableFuture<>());
+        }
+
+        private PendingSend(Position position, RoutedMessage message, CompletableFuture<Void> future) {
+            this.position = position;
+            this.message = message;
+            this.future = future;
+        }
+    }
+
+    /**
+     * A message dropped past the parking bounds of its destination, only its place in the exchange is kept.
+     */
+    private static class DroppedSend {
+        private final int batchIndex;
+        private final CompletableFuture<Void> future;
+
+        private DroppedSend(int batchIndex, CompletableFuture<Void> future) {
+            this.batchIndex = batchIndex;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The sends to one destination.
+     *
+     * <p>Each destination has its own window of in-flight messages, so a slow or failing destination doesn't hold the
+     * others. The messages over the window, the messages waiting for the producer and the failed messages are parked
+     * in order. The parked messages are sent on the route thread of the exchange when the window frees up, or after a
+     * backoff when the destination fails. A message is retried until it's persisted.
+     *
+     * <p>The parked messages of a destination are bounded in number and in bytes. Past the bounds, the payloads of
+     * the next messages are released and only their positions are kept, their exchange positions stay unacknowledged.
+     * Once the parked messages are sent, the dropped messages are read again from the exchange in order.
+     */
+    private class DestinationSender {
+        private final Destination destination;
+        private final ArrayDeque<PendingSend> parked = new ArrayDeque<>();
+        private long parkedBytes;
+        private final NavigableMap<PositionImpl, List<DroppedSend>> dropped = new TreeMap<>();
+        private boolean replaying;
+        private long nextSequence;
+        private final Backoff backoff = new Backoff(100, TimeUnit.MILLISECONDS, 1, TimeUnit.MINUTES,
+                0, TimeUnit.MILLISECONDS);
+        private ProducerImpl<byte[]> producer;
+        private boolean creatingProducer;
+        private boolean waitingRetry;
+        private ScheduledFuture<?> retryTask;
+        private boolean drainScheduled;
+        private boolean closed;
+        /**
+         * Whether the destination was unbound, its messages are not delivered and their positions are acknowledged.
+         */
+        private boolean unbound;
+        private int inFlight;
+
+        private DestinationSender(Destination destination) {
+            this.destination = destination;
+        }
+
+        private boolean canSend() {
+            return producer != null && !waitingRetry && inFlight < maxInFlightPerDestination;
+        }
+
+        /**
+         * Whether the dropped messages can be read again, once all the parked messages are sent.
+         */
+        private boolean canReplay() {
+            return parked.isEmpty() && !dropped.isEmpty() && !replaying && canSend();
+        }
+
+        /**
+         * Send a message after the parked ones, it must be called on the route thread of the exchange.
+         */
+        private synchronized void send(PendingSend send) {
+            if (closed) {
+                ReferenceCountUtil.safeRelease(send.message.payload);
+                return;
+            }
+            send.sequence = nextSequence++;
+            if (replaying || !dropped.isEmpty()) {
+                // the messages before it are read again from the exchange
+                drop(send);
+                return;
+            }
+            if (parked.isEmpty() && canSend()) {
+                doSend(send);
+                return;
+            }
+            if (parked.size() >= maxParkedMessagesPerDestination
+                    || parkedBytes + send.message.size > maxParkedBytesPerDestination) {
+                log.warn("Too many messages parked for {} of exchange {}, drop the messages from {} and read them "
+                        + "again once the parked ones are sent.", destination.name, exchange.getName(), send.position);
+                drop(send);
+            } else {
+                parked.add(send);
+                parkedBytes += send.message.size;
+            }
+            createProducerIfNeeded();
+        }
+
+        private void drop(PendingSend send) {
+            ReferenceCountUtil.safeRelease(send.message.payload);
+            dropped.computeIfAbsent((PositionImpl) send.position, k -> new ArrayList<>(1))
+                    .add(new DroppedSend(send.message.batchIndex, send.future));
+        }
+
+        /**
+         * Park a failed message again, the messages in flight may fail in any order.
+         */
+        private void repark(PendingSend send) {
+            ArrayDeque<PendingSend> before = new ArrayDeque<>();
+            while (!parked.isEmpty() && parked.peekFirst().sequence < send.sequence) {
+                before.push(parked.pollFirst());
+            }
+            parked.addFirst(send);
+            while (!before.isEmpty()) {
+                parked.addFirst(before.pop());
+            }
+            parkedBytes += send.message.size;
+        }
+
+        private void doSend(PendingSend send) {
+            inFlight++;
+            RoutedMessage routedMessage = send.message;
+            MessageImpl<byte[]> message = routedMessage.message;
+            message.getMessageBuilder().clearSequenceId();
+            message.getMessageBuilder().clearProducerName();
+            message.getMessageBuilder().clearPublishTime();
+            routedMessage.payload.readerIndex(routedMessage.readerIndex);
+            // the producer releases this reference, the reference of the send is kept to retry it
+            routedMessage.payload.retain();
+            producer.sendAsync(message).whenComplete((messageId, t) -> onSendComplete(send, t));
+        }
+
+        private void onSendComplete(PendingSend send, Throwable t) {
+            boolean drain;
+            synchronized (this) {
+                inFlight--;
+                if (closed) {
+                    ReferenceCountUtil.safeRelease(send.message.payload);
+                    if (unbound) {
+                        send.future.complete(null);
+                    }
+                    return;
+                }
+                if (t == null) {
+                    backoff.reset();
+                    send.message.payload.release();
+                    send.future.complete(null);
+                    drain = (!parked.isEmpty() && canSend()) || canReplay();
+                } else {
+                    log.error("Failed to route message {} to {} for exchange {}, retry it.",
+                            send.position, destination.name, exchange.getName(), t);
+                    if (!waitingRetry) {
+                        MessageNotificationUtil.exchangeRoutingQueueFailed(exchange.getTopic().getName(),
+                                send.position.toString(), t);
+                    }
+                    repark(send);
+                    if (FutureUtil.unwrapCompletionException(t)
+                            instanceof PulsarClientException.AlreadyClosedException) {
+                        producer = null;
+                    }
+                    scheduleRetry();
+                    drain = false;
+                }
+            }
+            if (drain) {
+                scheduleDrain();
+            }
+        }
+
+        private void createProducerIfNeeded() {
+            if (producer != null || creatingProducer || waitingRetry) {
+                return;
+            }
+            creatingProducer = true;
+            createProducer(destination).whenComplete((newProducer, t) -> {
+                synchronized (this) {
+                    creatingProducer = false;
+                    if (t != null) {
+                        log.error("Failed to create producer for {} of exchange {}, retry it.",
+                                destination.name, exchange.getName(), t);
+                        scheduleRetry();
+                        return;
+                    }
+                    if (closed) {
+                        newProducer.closeAsync();
+                        return;
+                    }
+                    producer = newProducer;
+                }
+                scheduleDrain();
+            });
+        }
+
+        private void scheduleRetry() {
+            if (waitingRetry || closed) {
+                return;
+            }
+            waitingRetry = true;
+            retryTask = exchange.getTopic().getBrokerService().getPulsar().getExecutor().schedule(() -> {
+                synchronized (this) {
+                    waitingRetry = false;
+                }
+                scheduleDrain();
+            }, backoff.next(), TimeUnit.MILLISECONDS);
+        }
+
+        private void scheduleDrain() {
+            synchronized (this) {
+                if (drainScheduled) {
+                    return;
+                }
+                drainScheduled = true;
+            }
+            runOnRouteThread(this::drain);
+        }
+
+        private void drain() {
+            NavigableMap<PositionImpl, List<DroppedSend>> replayed = null;
+            synchronized (this) {
+                drainScheduled = false;
+                if (closed) {
+                    return;
+                }
+                if (producer == null) {
+                    createProducerIfNeeded();
+                    return;
+                }
+                while (!parked.isEmpty() && canSend()) {
+                    PendingSend send = parked.poll();
+                    parkedBytes -= send.message.size;
+                    doSend(send);
+                }
+                if (canReplay()) {
+                    replayed = pollDropped();
+                }
+                if (producer != null && exchange.getConfig().isAmqpExchangeRouteBatchingEnabled()) {
+                    producer.flushAsync();
+                }
+            }
+            if (replayed != null) {
+                replay(replayed);
+            }
+        }
+
+        /**
+         * Take the first dropped messages to read them again, as many as can be parked.
+         */
+        private NavigableMap<PositionImpl, List<DroppedSend>> pollDropped() {
+            NavigableMap<PositionImpl, List<DroppedSend>> replayed = new TreeMap<>();
+            int messages = 0;
+            while (!dropped.isEmpty() && (messages == 0 || messages < maxParkedMessagesPerDestination)) {
+                Map.Entry<PositionImpl, List<DroppedSend>> entry = dropped.pollFirstEntry();
+                replayed.put(entry.getKey(), entry.getValue());
+                messages += entry.getValue().size();
+            }
+            replaying = true;
+            return replayed;
+        }
+
+        private void replay(NavigableMap<PositionImpl, List<DroppedSend>> replayed) {
+            cursor.asyncReplayEntries(replayed.keySet(), new AsyncCallbacks.ReadEntriesCallback() {
+                @Override
+                public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                    runOnRouteThread(() -> onReplayed(replayed, entries));
+                }
+
+                @Override
+                public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                    log.error("Failed to read the messages dropped for {} of exchange {} again, retry it.",
+                            destination.name, exchange.getName(), exception);
+                    onReplayFailed(replayed);
+                }
+            }, null, true);
+        }
+
+        private synchronized void onReplayFailed(NavigableMap<PositionImpl, List<DroppedSend>> replayed) {
+            replaying = false;
+            replayed.forEach((position, sends) -> dropped.merge(position, sends, (retried, later) -> {
+                retried.addAll(later);
+                return retried;
+            }));
+            scheduleRetry();
+        }
+
+        /**
+         * Park the messages read again, the messages of the entries not routed to the destination anymore are not
+         * sent and their positions are acknowledged.
+         */
+        private void onReplayed(NavigableMap<PositionImpl, List<DroppedSend>> replayed, List<Entry> entries) {
+            List<RoutedEntry> routedEntries;
+            try {
+                routedEntries = parseEntries(entries, 0, entries.size());
+            } catch (RuntimeException e) {
+                log.error("Failed to route the messages dropped for {} of exchange {} again, retry it.",
+                        destination.name, exchange.getName(), e);
+                onReplayFailed(replayed);
+                return;
+            }
+            synchronized (this) {
+                replaying = false;
+                if (closed) {
+                    releaseMessages(routedEntries);
+                    if (unbound) {
+                        replayed.values().forEach(sends -> sends.forEach(send -> send.future.complete(null)));
+                    }
+                    return;
+                }
+                for (RoutedEntry routedEntry : routedEntries) {
+                    List<DroppedSend> sends = replayed.remove((PositionImpl) routedEntry.position);
+                    for (RoutedMessage routedMessage : routedEntry.messages) {
+                        DroppedSend droppedSend = sends != null ? takeDroppedSend(sends, routedMessage.batchIndex)
+                                : null;
+                        if (droppedSend == null) {
+                            ReferenceCountUtil.safeRelease(routedMessage.payload);
+                            continue;
+                        }
+                        // the message holds one reference of its payload, it's the one of this destination
+                        routedMessage.sent = true;
+                        PendingSend send = new PendingSend(routedEntry.position, routedMessage, droppedSend.future);
+                        send.sequence = nextSequence++;
+                        parked.add(send);
+                        parkedBytes += routedMessage.size;
+                    }
+                    if (sends != null) {
+                        sends.forEach(send -> send.future.complete(null));
+                    }
+                }
+                // the entries not read again are already deleted
+                replayed.values().forEach(sends -> sends.forEach(send -> send.future.complete(null)));
+            }
+            drain();
+        }
+
+        private DroppedSend takeDroppedSend(List<DroppedSend> sends, int batchIndex) {
+            for (int i = 0; i < sends.size(); i++) {
+                if (sends.get(i).batchIndex == batchIndex) {
+                    return sends.remove(i);
+                }
+            }
+            return null;
+        }
+
+        private synchronized void flush() {
+            if (producer != null) {
+                producer.flushAsync();
+            }
+        }
+
+        /**
+         * Close the sender, its parked messages are released.
+         *
+         * @param unbound whether the destination was unbound, the positions of its messages are acknowledged
+         */
+        private synchronized void close(boolean unbound) {
+            closed = true;
+            this.unbound = unbound;
+            if (retryTask != null) {
+                retryTask.cancel(false);
+            }
+            if (producer != null) {
+                producer.closeAsync();
+                producer = null;
+            }
+            PendingSend send;
+            while ((send = parked.poll()) != null) {
+                ReferenceCountUtil.safeRelease(send.message.payload);
+                if (unbound) {
+                    send.future.complete(null);
+                }
+            }
+            parkedBytes = 0;
+            if (unbound) {
+                dropped.values().forEach(sends -> sends.forEach(droppedSend -> droppedSend.future.complete(null)));
+            }
+            dropped.clear();
+        }
+    }
+
+    /**
+     * A range of the entries read, parsed by the first route thread taking it.
+     */
+    private class ParseShard implements Runnable {
+        private final List<Entry> entries;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CompletableFuture<List<RoutedEntry>> result = new CompletableFuture<>();
+
+        private ParseShard(List<Entry> entries, int from, int to) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                result.complete(parseEntries(entries, from, to));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+    }
+
     public ExchangeMessageRouter(PersistentExchange exchange, ExecutorService routeExecutor) {
         this.exchange = exchange;
         this.routeExecutor = routeExecutor;
+        this.routeWindow = AdaptiveRouteWindow.create(exchange.getName(), replicatorQueueSize, exchange.getConfig());
+        this.maxInFlightPerDestination = Math.max(1, exchange.getConfig().getAmqpExchangeRouteDestinationMaxInFlight());
+        this.maxParkedMessagesPerDestination = exchange.getConfig().getAmqpExchangeRouteDestinationMaxParkedMessages();
+        this.maxParkedBytesPerDestination = exchange.getConfig().getAmqpExchangeRouteDestinationMaxParkedBytes();
+        this.maxHops = exchange.getConfig().getAmqpExchangeRouteMaxHops();
     }
 
     public abstract void addBinding(String des, String desType, String routingKey, Map<String, Object> arguments);
@@ -110,7 +600,40 @@ public abstract class ExchangeMessageRouter {
 
     abstract Set<Destination> getDestinations(String routingKey, Map<String, Object> headers);
 
+    /**
+     * Count a new binding of a destination, it must be called holding the lock of the router.
+     */
+    void onBindingAdded(Destination des) {
+        bindingCounts.merge(des, 1, Integer::sum);
+    }
+
+    /**
+     * Count a binding removed from a destination, the sender of the destination is closed with its last binding.
+     * It must be called holding the lock of the router.
+     */
+    void onBindingRemoved(Destination des) {
+        if (bindingCounts.computeIfPresent(des, (k, count) -> count > 1 ? count - 1 : null) == null) {
+            // closed after the messages routed before, which may still be sent to the destination
+            runOnRouteThread(() -> closeSender(des));
+        }
+    }
+
+    private void closeSender(Destination des) {
+        synchronized (this) {
+            if (bindingCounts.containsKey(des)) {
+                // bound again meanwhile
+                return;
+            }
+        }
+        DestinationSender sender = senders.get(des.name);
+        if (sender != null && sender.destination.equals(des) && senders.remove(des.name, sender)) {
+            // the parked messages are dropped and the sender stops retrying
+            sender.close(true);
+        }
+    }
+
     public void start() {
+        routeWindow.register();
         start0((ManagedLedgerImpl) ((PersistentTopic) exchange.getTopic()).getManagedLedger());
     }
 
@@ -121,6 +644,11 @@ public abstract class ExchangeMessageRouter {
                     public void openCursorComplete(ManagedCursor cursor, Object ctx) {
                         log.info("Start to route messages for exchange {}", exchange.getName());
                         ExchangeMessageRouter.this.cursor = (ManagedCursorImpl) cursor;
+                        AmqpServiceConfiguration config = exchange.getConfig();
+                        ackTracker = new ExchangeAckTracker(exchange.getName(), cursor,
+                                config.getAmqpExchangeAckMaxPendingPositions());
+                        ackTracker.start(exchange.getTopic().getBrokerService().getPulsar().getExecutor(),
+                                config.getAmqpExchangeAckFlushIntervalMillis());
                         if (ACTIVE_UPDATER.compareAndSet(ExchangeMessageRouter.this, FALSE, TRUE)) {
                             readMoreEntries();
                         }
@@ -134,41 +662,26 @@ public abstract class ExchangeMessageRouter {
         }, null);
     }
 
-    private void readMoreEntries() {
+    private synchronized void readMoreEntries() {
         if (isActive == FALSE) {
             return;
         }
+        if (PENDING_ROUTE_BATCHES_UPDATER.get(this) >= MAX_PENDING_ROUTE_BATCHES) {
+            // the next read is issued when a batch is routed
+            return;
+        }
         if (HAVE_PENDING_READ_UPDATER.compareAndSet(this, FALSE, TRUE)) {
-            cursor.asyncReadEntriesOrWait(replicatorQueueSize, defaultReadMaxSizeBytes,
+            final int epoch = readEpoch;
+            final int readSize = routeWindow.getSize();
+            cursor.asyncReadEntriesOrWait(readSize, defaultReadMaxSizeBytes,
                     new AsyncCallbacks.ReadEntriesCallback() {
                         @Override
                         public void readEntriesComplete(List<Entry> entries, Object ctx) {
-                            if (entries.size() == 0) {
-                                HAVE_PENDING_READ_UPDATER.set(ExchangeMessageRouter.this, FALSE);
-                                log.warn("read empty entries, scheduled to read again.");
-                                exchange.getTopic().getBrokerService().getPulsar().getExecutor()
-                                        .schedule(ExchangeMessageRouter.this::readMoreEntries, 1,
-                                                TimeUnit.MILLISECONDS);
-                                return;
+                            if (entries.size() >= readSize) {
+                                // there are more entries to read than the window allows
+                                routeWindow.onLimited();
                             }
-                            routeExecutor.submit(() -> {
-                                try {
-                                    routeMessages(entries);
-                                    entries.clear();
-                                } catch (Exception e) {
-                                    log.error("Failed to route messages.", e);
-                                    if (e instanceof AoPServiceRuntimeException.ProducerCreationRuntimeException) {
-                                        producerMap.values().forEach(ProducerImpl::closeAsync);
-                                        producerMap.clear();
-                                    }
-                                    cursor.rewind();
-                                    for (Entry entry : entries) {
-                                        ReferenceCountUtil.safeRelease(entry);
-                                    }
-                                }
-                                HAVE_PENDING_READ_UPDATER.set(ExchangeMessageRouter.this, FALSE);
-                                ExchangeMessageRouter.this.readMoreEntries();
-                            });
+                            onEntriesRead(entries, epoch);
                         }
 
                         @Override
@@ -177,14 +690,84 @@ public abstract class ExchangeMessageRouter {
                             log.error("Failed to read entries from exchange {}", exchange.getName(), exception);
                             exchange.getTopic().getBrokerService().getPulsar().getExecutor()
                                     .schedule(() -> {
-                                        cursor.rewind();
+                                        rewind();
                                         readMoreEntries();
                                     }, MESSAGE_RATE_BACKOFF_MS, TimeUnit.MILLISECONDS);
                         }
                     }, null, null);
-        } else {
-            log.warn("{} Not schedule read due to pending read.",
-                    exchange.getName());
+        } else if (log.isDebugEnabled()) {
+            log.debug("{} Not schedule read due to pending read.", exchange.getName());
+        }
+    }
+
+    private synchronized void onEntriesRead(List<Entry> entries, int epoch) {
+        HAVE_PENDING_READ_UPDATER.set(this, FALSE);
+        if (epoch != readEpoch) {
+            // the cursor was rewound while the entries were read, read them again
+            releaseEntries(entries);
+            ackTracker.flush();
+            cursor.rewind();
+            readMoreEntries();
+            return;
+        }
+        if (entries.size() == 0) {
+            log.warn("read empty entries, scheduled to read again.");
+            exchange.getTopic().getBrokerService().getPulsar().getExecutor()
+                    .schedule(this::readMoreEntries, 1, TimeUnit.MILLISECONDS);
+            return;
+        }
+        for (Entry entry : entries) {
+            ackTracker.read(entry.getPosition());
+        }
+        PENDING_ROUTE_BATCHES_UPDATER.incrementAndGet(this);
+        // the batches are routed one after another, the next batch is read while this one is routed
+        runOnRouteThread(() -> routeBatch(entries, epoch));
+        readMoreEntries();
+    }
+
+    /**
+     * Run a task after the routing tasks of the exchange scheduled before, the sends to the destinations are ordered.
+     */
+    private synchronized void runOnRouteThread(Runnable task) {
+        routeFuture = routeFuture.handleAsync((__, ignore) -> {
+            task.run();
+            return null;
+        }, routeExecutor);
+    }
+
+    private void routeBatch(List<Entry> entries, int epoch) {
+        try {
+            if (epoch != readEpoch) {
+                // a previous batch failed and rewound the cursor, the entries are read again
+                releaseEntries(entries);
+                return;
+            }
+            routeMessages(entries);
+            entries.clear();
+        } catch (Exception e) {
+            log.error("Failed to route messages.", e);
+            rewind();
+        } finally {
+            PENDING_ROUTE_BATCHES_UPDATER.decrementAndGet(this);
+            readMoreEntries();
+        }
+    }
+
+    /**
+     * Read again from the first message not routed, the batches read before are dropped.
+     */
+    private synchronized void rewind() {
+        readEpoch++;
+        // a pending read would move the read position, the cursor is rewound when it completes
+        if (havePendingRead == FALSE) {
+            ackTracker.flush();
+            cursor.rewind();
+        }
+    }
+
+    private static void releaseEntries(List<Entry> entries) {
+        for (Entry entry : entries) {
+            ReferenceCountUtil.safeRelease(entry);
         }
     }
 
@@ -203,86 +786,277 @@ public abstract class ExchangeMessageRouter {
     }
 
     private void routeMessages(List<Entry> entries) {
-        List<Position> positions = new ArrayList<>(entries.size());
+        final long startNanos = System.nanoTime();
+        final int numEntries = entries.size();
+        List<RoutedEntry> routedEntries = parseEntries(entries);
+        List<CompletableFuture<Void>> batchFutures = new ArrayList<>(routedEntries.size());
+        Set<DestinationSender> batchSenders = exchange.getConfig().isAmqpExchangeRouteBatchingEnabled()
+                ? new HashSet<>() : null;
         try {
-            for (Entry entry : entries) {
-                final Position position = entry.getPosition();
-                ByteBuf dataBuffer = entry.getDataBuffer();
-                Map<String, String> props;
-                MessageImpl<byte[]> message;
-                try {
-                    message = MessageImpl.create(null, null, Commands.parseMessageMetadata(dataBuffer), dataBuffer,
-                            Optional.empty(), null, Schema.BYTES, 0, true, -1L);
-                    props = message.getMessageBuilder().getPropertiesList().stream()
-                            .collect(Collectors.toMap(KeyValue::getKey, KeyValue::getValue));
-                } catch (Exception e) {
-                    log.error("Deserialize entry dataBuffer failed for exchange {}, skip it first.", exchange.getName(), e);
-                    entry.release();
-                    dataBuffer.release();
-                    continue;
+            for (RoutedEntry routedEntry : routedEntries) {
+                final Position position = routedEntry.position;
+                List<CompletableFuture<Void>> futures = new ArrayList<>();
+                for (RoutedMessage routedMessage : routedEntry.messages) {
+                    sendMessage(position, routedMessage, futures, batchSenders);
                 }
+                // each position is acknowledged once its messages are persisted to all destinations, a parked
+                // destination only holds the positions of its own messages
+                CompletableFuture<Void> future = FutureUtil.waitForAll(futures);
+                future.thenRun(() -> ackTracker.ack(position));
+                batchFutures.add(future);
+            }
+        } catch (RuntimeException e) {
+            releaseMessages(routedEntries);
+            throw e;
+        } finally {
+            if (batchSenders != null) {
+                // send the partial batches of this read instead of waiting for the batching delay
+                batchSenders.forEach(DestinationSender::flush);
+            }
+            if (batchFutures.size() != 0) {
+                FutureUtil.waitForAll(batchFutures).thenRun(
+                        () -> routeWindow.record(System.nanoTime() - startNanos, numEntries));
+            }
+        }
+    }
 
-                Set<Destination> destinations = getDestinations(
-                        props.getOrDefault(MessageConvertUtils.PROP_ROUTING_KEY, ""), getMessageHeaders());
-                boolean notNull = destinations != null;
-                List<CompletableFuture<MessageId>> futures = notNull ?
-                        new ArrayList<>(destinations.size()) : Collections.emptyList();
+    /**
+     * Parse the entries and match their messages against the bindings, the entries are released.
+     *
+     * <p>With route shards configured, large batches are split into contiguous ranges parsed by several route
+     * threads. The results are joined in the read order, so the messages are still sent one by one in order.
+     */
+    private List<RoutedEntry> parseEntries(List<Entry> entries) {
+        int shards = Math.min(exchange.getRouteShards(), entries.size() / MIN_ENTRIES_PER_SHARD);
+        if (shards <= 1) {
+            return parseEntries(entries, 0, entries.size());
+        }
+        int shardSize = (entries.size() + shards - 1) / shards;
+        List<ParseShard> parseShards = new ArrayList<>(shards - 1);
+        for (int from = shardSize; from < entries.size(); from += shardSize) {
+            ParseShard shard = new ParseShard(entries, from, Math.min(from + shardSize, entries.size()));
+            parseShards.add(shard);
+            try {
+                routeExecutor.execute(shard);
+            } catch (RejectedExecutionException e) {
+                // the shard is parsed by this thread
+            }
+        }
+        List<RoutedEntry> routedEntries = new ArrayList<>(entries.size());
+        RuntimeException failure = null;
+        try {
+            routedEntries.addAll(parseEntries(entries, 0, shardSize));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (ParseShard shard : parseShards) {
+            // a shard not started by another route thread yet is parsed by this thread, so it's never waited for
+            // while queued behind busy route threads
+            shard.run();
+            try {
+                routedEntries.addAll(shard.result.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            releaseMessages(routedEntries);
+            throw failure;
+        }
+        return routedEntries;
+    }
+
+    private List<RoutedEntry> parseEntries(List<Entry> entries, int from, int to) {
+        List<RoutedEntry> routedEntries = new ArrayList<>(to - from);
+        int i = from;
+        try {
+            for (; i < to; i++) {
+                Entry entry = entries.get(i);
+                RoutedEntry routedEntry = new RoutedEntry(entry.getPosition());
+                ByteBuf dataBuffer = entry.getDataBuffer();
                 try {
-                    if (notNull && !destinations.isEmpty()) {
-                        initProducerIfNeeded(destinations);
-                        String xDelay;
-                        int delay;
-                        if (exchange.isExistDelayedType()
-                                && StringUtils.isNotBlank(xDelay = props.get(MessageConvertUtils.BASIC_PROP_HEADER_X_DELAY))
-                                && NumberUtils.isNumber(xDelay)
-                                && (delay = Integer.parseInt(xDelay)) > 0) {
-                            message.getMessageBuilder().setDeliverAtTime(System.currentTimeMillis() + delay);
-                        }
-                        if (destinations.size() > 1) {
-                            dataBuffer.retain(destinations.size() - 1);
-                        }
-                        final int readerIndex = dataBuffer.readerIndex();
-                        for (Destination des : destinations) {
-                            ProducerImpl<byte[]> producer = producerMap.get(des.name);
-                            message.getMessageBuilder().clearSequenceId();
-                            message.getMessageBuilder().clearProducerName();
-                            message.getMessageBuilder().clearPublishTime();
-                            dataBuffer.readerIndex(readerIndex);
-                            futures.add(producer.sendAsync(message));
-                        }
+                    MessageMetadata metadata;
+                    try {
+                        metadata = Commands.parseMessageMetadata(dataBuffer);
+                    } catch (Exception e) {
+                        log.error("Deserialize entry dataBuffer failed for exchange {}, skip it first.",
+                                exchange.getName(), e);
+                        continue;
+                    }
+                    if (!metadata.hasNumMessagesInBatch()) {
+                        // the reference of the entry is released below, the message holds its own
+                        parseMessage(metadata, dataBuffer.retain(), 0, routedEntry.messages);
                     } else {
-                        dataBuffer.release();
+                        // the entry is a batch written by a batching producer, route each message of it
+                        int numMessages = metadata.getNumMessagesInBatch();
+                        SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+                        for (int j = 0; j < numMessages; j++) {
+                            ByteBuf singleMessagePayload = Commands.deSerializeSingleMessageInBatch(
+                                    dataBuffer, singleMessageMetadata, j, numMessages);
+                            // the retained payload of the message is released by parseMessage or once it's sent
+                            parseMessage(MessageConvertUtils.toMessageMetadata(metadata, singleMessageMetadata),
+                                    singleMessagePayload, j, routedEntry.messages);
+                        }
                     }
+                } catch (IOException e) {
+                    log.error("Deserialize batch entry {} failed for exchange {}, skip it.",
+                            routedEntry.position, exchange.getName(), e);
                 } finally {
                     entry.release();
                 }
-                // If the producer creates an exception, add is not executed
-                positions.add(position);
-                FutureUtil.waitForAll(futures).exceptionally((t) -> {
-                    if (t != null) {
-                        log.error("Failed to route message {} for exchange {}.", position, exchange.exchangeName, t);
-                        MessageNotificationUtil.exchangeRoutingQueueFailed(exchange.getTopic().getName(),
-                                position.toString(), t);
-                    }
-                    return null;
-                });
+                routedEntries.add(routedEntry);
             }
-        } finally {
-            if (positions.size() != 0) {
-                cursor.asyncDelete(positions, new AsyncCallbacks.DeleteCallback() {
-                    @Override
-                    public void deleteComplete(Object ctx) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("{} Deleted message at {}", exchange.getName(), ctx);
-                        }
-                    }
+        } catch (RuntimeException e) {
+            for (int j = i + 1; j < to; j++) {
+                entries.get(j).release();
+            }
+            releaseMessages(routedEntries);
+            throw e;
+        }
+        return routedEntries;
+    }
 
-                    @Override
-                    public void deleteFailed(ManagedLedgerException exception, Object ctx) {
-                        log.error("{} Failed to delete message at {}", exchange.getName(), ctx, exception);
-                    }
-                }, null);
-                positions.clear();
+    /**
+     * Match one message against the bindings, the message is kept if it has destinations. The reference of the
+     * payload is taken over, it's released if the message is not kept.
+     *
+     * <p>Only the properties used for routing are read from the metadata, the message is not created for the
+     * messages without destinations.
+     */
+    private void parseMessage(MessageMetadata metadata, ByteBuf dataBuffer, int batchIndex,
+                              List<RoutedMessage> messages) {
+        String routingKey = "";
+        String xDelay = null;
+        for (int i = 0; i < metadata.getPropertiesCount(); i++) {
+            KeyValue property = metadata.getPropertyAt(i);
+            if (MessageConvertUtils.PROP_ROUTING_KEY.equals(property.getKey())) {
+                routingKey = property.getValue();
+            } else if (MessageConvertUtils.BASIC_PROP_HEADER_X_DELAY.equals(property.getKey())) {
+                xDelay = property.getValue();
+            }
+        }
+        Set<Destination> destinations = getDestinations(routingKey, getMessageHeaders(metadata));
+        if (destinations == null || destinations.isEmpty()) {
+            dataBuffer.release();
+            return;
+        }
+        destinations = resolveExchangeChains(routingKey, metadata, destinations);
+        if (destinations.isEmpty()) {
+            dataBuffer.release();
+            return;
+        }
+
+        MessageImpl<byte[]> message;
+        try {
+            message = MessageImpl.create(null, null, metadata, dataBuffer,
+                    Optional.empty(), null, Schema.BYTES, 0, true, -1L);
+        } catch (Exception e) {
+            log.error("Deserialize entry dataBuffer failed for exchange {}, skip it first.", exchange.getName(), e);
+            dataBuffer.release();
+            return;
+        }
+        // the message retains the payload, its reference is the one kept
+        dataBuffer.release();
+        int delay;
+        if (exchange.isExistDelayedType()
+                && StringUtils.isNotBlank(xDelay)
+                && NumberUtils.isNumber(xDelay)
+                && (delay = Integer.parseInt(xDelay)) > 0) {
+            message.getMessageBuilder().setDeliverAtTime(System.currentTimeMillis() + delay);
+        }
+        messages.add(new RoutedMessage(message, dataBuffer, batchIndex, new ArrayList<>(destinations)));
+    }
+
+    /**
+     * Replace the exchanges bound to this exchange by the destinations they route the message to, so the message is
+     * written once to the final queues instead of being written to and read from each exchange topic on the way.
+     *
+     * <p>An exchange is still written to when it's not loaded on this broker, when it delays messages or past the
+     * maximum hops. An exchange reached again through a cycle is skipped, a message reaches each destination once.
+     */
+    private Set<Destination> resolveExchangeChains(String routingKey, MessageMetadata metadata,
+                                                   Set<Destination> destinations) {
+        if (maxHops <= 0 || exchange.getExchangeLookup() == null
+                || destinations.stream().noneMatch(des -> "exchange".equals(des.type))) {
+            return destinations;
+        }
+        Set<String> visited = new HashSet<>();
+        visited.add(exchange.getName());
+        Set<Destination> resolved = new LinkedHashSet<>();
+        resolveExchangeChains(routingKey, metadata, destinations, 1, visited, resolved);
+        return resolved;
+    }
+
+    private void resolveExchangeChains(String routingKey, MessageMetadata metadata, Set<Destination> destinations,
+                                       int hops, Set<String> visited, Set<Destination> resolved) {
+        for (Destination des : destinations) {
+            if (!"exchange".equals(des.type)) {
+                resolved.add(des);
+                continue;
+            }
+            if (!visited.add(des.name)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("{} Skip exchange {} already routed, the bindings have a cycle.",
+                            exchange.getName(), des.name);
+                }
+                continue;
+            }
+            ExchangeMessageRouter router = hops <= maxHops ? getLocalRouter(des.name) : null;
+            if (router == null) {
+                resolved.add(des);
+                continue;
+            }
+            Set<Destination> next = router.getDestinations(routingKey, router.getMessageHeaders(metadata));
+            if (next != null && !next.isEmpty()) {
+                resolveExchangeChains(routingKey, metadata, next, hops + 1, visited, resolved);
+            }
+        }
+    }
+
+    /**
+     * Get the router of an exchange routing on this broker, if the exchange routes the messages as soon as written.
+     */
+    private ExchangeMessageRouter getLocalRouter(String exchangeName) {
+        PersistentExchange downstream = exchange.getExchangeLookup().apply(exchangeName);
+        if (downstream == null || downstream.isExistDelayedType()) {
+            return null;
+        }
+        ExchangeMessageRouter router = downstream.getExchangeMessageRouter();
+        // a closed router may hold stale bindings
+        return router != null && router.isActive == TRUE ? router : null;
+    }
+
+    /**
+     * Send one message to the destinations bound to its routing key.
+     */
+    private void sendMessage(Position position, RoutedMessage routedMessage, List<CompletableFuture<Void>> futures,
+                             Set<DestinationSender> batchSenders) {
+        List<Destination> destinations = routedMessage.destinations;
+        routedMessage.sent = true;
+        // one reference of the payload for each destination
+        if (destinations.size() > 1) {
+            routedMessage.payload.retain(destinations.size() - 1);
+        }
+        for (Destination des : destinations) {
+            DestinationSender sender = senders.computeIfAbsent(des.name, k -> new DestinationSender(des));
+            if (batchSenders != null) {
+                batchSenders.add(sender);
+            }
+            PendingSend send = new PendingSend(position, routedMessage);
+            futures.add(send.future);
+            sender.send(send);
+        }
+    }
+
+    private static void releaseMessages(List<RoutedEntry> routedEntries) {
+        for (RoutedEntry routedEntry : routedEntries) {
+            for (RoutedMessage routedMessage : routedEntry.messages) {
+                if (!routedMessage.sent) {
+                    ReferenceCountUtil.safeRelease(routedMessage.payload);
+                }
             }
         }
     }
@@ -294,24 +1068,20 @@ public abstract class ExchangeMessageRouter {
         }
     }
 
-    private void initProducerIfNeeded(Set<Destination> destinations) {
-        PulsarClient pulsarClient = exchange.getPulsarClient();
-        for (Destination des : destinations) {
-            producerMap.computeIfAbsent(des.name, k -> {
-                String topic = getTopic(des.name, des.type);
-                try {
-                    return (ProducerImpl<byte[]>) pulsarClient.newProducer()
-                            .topic(topic)
-                            .enableBatching(false)
-                            .blockIfQueueFull(true)
-                            .maxPendingMessages(20000)
-                            .sendTimeout(0, TimeUnit.MILLISECONDS)
-                            .create();
-                } catch (PulsarClientException e) {
-                    throw new AoPServiceRuntimeException.ProducerCreationRuntimeException(e);
-                }
-            });
-        }
+    private CompletableFuture<ProducerImpl<byte[]>> createProducer(Destination des) {
+        AmqpServiceConfiguration config = exchange.getConfig();
+        return exchange.getPulsarClient().newProducer()
+                .topic(getTopic(des.name, des.type))
+                .enableBatching(config.isAmqpExchangeRouteBatchingEnabled())
+                .batchingMaxMessages(config.getAmqpExchangeRouteBatchingMaxMessages())
+                .batchingMaxBytes(config.getAmqpExchangeRouteBatchingMaxBytes())
+                .batchingMaxPublishDelay(config.getAmqpExchangeRouteBatchingMaxPublishDelayMillis(),
+                        TimeUnit.MILLISECONDS)
+                .blockIfQueueFull(true)
+                .maxPendingMessages(Math.max(20000, maxInFlightPerDestination))
+                .sendTimeout(0, TimeUnit.MILLISECONDS)
+                .createAsync()
+                .thenApply(producer -> (ProducerImpl<byte[]>) producer);
     }
 
     private String getTopic(String des, String desType) {
@@ -320,7 +1090,10 @@ public abstract class ExchangeMessageRouter {
         return TopicName.get(TopicDomain.persistent.toString(), namespaceName, prefix + des).toString();
     }
 
-    protected Map<String, Object> getMessageHeaders() {
+    /**
+     * Get the headers of the message, only the exchanges routing on headers extract them.
+     */
+    protected Map<String, Object> getMessageHeaders(MessageMetadata metadata) {
         return null;
     }
 
@@ -347,13 +1120,19 @@ public abstract class ExchangeMessageRouter {
         @Override
         public synchronized void addBinding(String des, String desType, String routingKey,
                                             Map<String, Object> arguments) {
-            destinationSet.add(new Destination(des, desType));
+            Destination destination = new Destination(des, desType);
+            if (destinationSet.add(destination)) {
+                onBindingAdded(destination);
+            }
         }
 
         @Override
         public synchronized void removeBinding(String des, String desType, String routingKey,
                                                Map<String, Object> arguments) {
-            destinationSet.remove(new Destination(des, desType));
+            Destination destination = new Destination(des, desType);
+            if (destinationSet.remove(destination)) {
+                onBindingRemoved(destination);
+            }
         }
 
         @Override
@@ -375,20 +1154,24 @@ public abstract class ExchangeMessageRouter {
         @Override
         public synchronized void addBinding(String des, String desType, String routingKey,
                                             Map<String, Object> arguments) {
-            destinationMap.computeIfAbsent(routingKey, k -> Sets.newConcurrentHashSet())
-                    .add(new Destination(des, desType));
+            Destination destination = new Destination(des, desType);
+            if (destinationMap.computeIfAbsent(routingKey, k -> Sets.newConcurrentHashSet()).add(destination)) {
+                onBindingAdded(destination);
+            }
         }
 
         @Override
         public synchronized void removeBinding(String des, String desType, String routingKey,
                                                Map<String, Object> arguments) {
-            destinationMap.computeIfPresent(routingKey, (k, v) -> {
-                v.remove(new Destination(des, desType));
-                if (v.isEmpty()) {
-                    return null;
-                }
-                return v;
-            });
+            Set<Destination> destinations = destinationMap.get(routingKey);
+            Destination destination = new Destination(des, desType);
+            if (destinations == null || !destinations.remove(destination)) {
+                return;
+            }
+            if (destinations.isEmpty()) {
+                destinationMap.remove(routingKey);
+            }
+            onBindingRemoved(destination);
         }
 
         @Override
@@ -399,108 +1182,85 @@ public abstract class ExchangeMessageRouter {
 
     static class TopicExchangeMessageRouter extends ExchangeMessageRouter {
 
-        private final Map<Destination, TopicRoutingKeyParser> destinationMap;
+        private static final int ROUTING_CACHE_SIZE = 10000;
+
+        private final TopicBindingTrie<Destination> bindingTrie;
 
         public TopicExchangeMessageRouter(PersistentExchange exchange, ExecutorService routeExecutor) {
             super(exchange, routeExecutor);
-            destinationMap = new ConcurrentHashMap<>();
-        }
-
-        static class TopicRoutingKeyParser {
-
-            final Set<String> bindingKeys;
-            TopicParser topicParser;
-
-            TopicRoutingKeyParser() {
-                this.bindingKeys = new HashSet<>();
-            }
-
-            void addBinding(String routingKey) {
-                if (bindingKeys.add(routingKey)) {
-                    topicParser = new TopicParser();
-                    topicParser.addBinding(routingKey, null);
-                }
-            }
-
-            void unbind(String routingKey) {
-                bindingKeys.remove(routingKey);
-                topicParser = new TopicParser();
-                for (String bindingKey : bindingKeys) {
-                    topicParser.addBinding(bindingKey, null);
-                }
-            }
-
+            bindingTrie = new TopicBindingTrie<>(ROUTING_CACHE_SIZE);
         }
 
         @Override
         public synchronized void addBinding(String des, String desType, String routingKey,
                                             Map<String, Object> arguments) {
-            destinationMap.computeIfAbsent(new Destination(des, desType), k -> new TopicRoutingKeyParser())
-                    .addBinding(routingKey);
+            Destination destination = new Destination(des, desType);
+            if (bindingTrie.add(routingKey, destination)) {
+                onBindingAdded(destination);
+            }
         }
 
         @Override
         public synchronized void removeBinding(String des, String desType, String routingKey,
                                                Map<String, Object> arguments) {
-            destinationMap.computeIfPresent(new Destination(des, desType), (k, v) -> {
-                v.unbind(routingKey);
-                if (v.bindingKeys.isEmpty()) {
-                    return null;
-                }
-                return v;
-            });
+            Destination destination = new Destination(des, desType);
+            if (bindingTrie.remove(routingKey, destination)) {
+                onBindingRemoved(destination);
+            }
         }
 
         @Override
         Set<Destination> getDestinations(String routingKey, Map<String, Object> headers) {
-            Set<Destination> destinations = new HashSet<>();
-            for (Map.Entry<Destination, TopicRoutingKeyParser> entry : destinationMap.entrySet()) {
-                if (!entry.getValue().topicParser.parse(routingKey).isEmpty()) {
-                    destinations.add(entry.getKey());
-                }
-            }
-            return destinations;
+            return bindingTrie.match(routingKey);
         }
     }
 
     static class HeadersExchangeMessageRouter extends ExchangeMessageRouter {
 
-        private final Map<Destination, HeadersMessageRouter> messageRouterMap;
+        private final HeadersBindingIndex<Destination> bindingIndex;
 
         public HeadersExchangeMessageRouter(PersistentExchange exchange, ExecutorService routeExecutor) {
             super(exchange, routeExecutor);
-            messageRouterMap = new ConcurrentHashMap<>();
+            bindingIndex = new HeadersBindingIndex<>();
         }
 
         @Override
         public synchronized void addBinding(String des, String desType, String routingKey,
                                             Map<String, Object> arguments) {
-            messageRouterMap.computeIfAbsent(new Destination(des, desType), k -> new HeadersMessageRouter())
-                    .getArguments().putAll(arguments);
+            Destination destination = new Destination(des, desType);
+            if (bindingIndex.add(destination, routingKey, arguments)) {
+                onBindingAdded(destination);
+            }
         }
 
         @Override
         public synchronized void removeBinding(String des, String desType, String routingKey,
                                                Map<String, Object> arguments) {
-            messageRouterMap.remove(new Destination(des, desType));
+            Destination destination = new Destination(des, desType);
+            if (bindingIndex.remove(destination, routingKey)) {
+                onBindingRemoved(destination);
+            }
+        }
+
+        @Override
+        protected Map<String, Object> getMessageHeaders(MessageMetadata metadata) {
+            return MessageConvertUtils.getHeaders(metadata.getPropertiesList());
         }
 
         @Override
         Set<Destination> getDestinations(String routingKey, Map<String, Object> headers) {
-            Set<Destination> destinations = new HashSet<>();
-            for (Map.Entry<Destination, HeadersMessageRouter> entry : messageRouterMap.entrySet()) {
-                if (entry.getValue().isMatch(headers)) {
-                    destinations.add(entry.getKey());
-                }
-            }
-            return destinations;
+            return bindingIndex.match(headers);
         }
 
     }
 
     public void close() {
         ACTIVE_UPDATER.set(this, FALSE);
-        producerMap.values().forEach(ProducerImpl::closeAsync);
-        producerMap.clear();
+        routeWindow.close();
+        senders.values().forEach(sender -> sender.close(false));
+        senders.clear();
+        if (ackTracker != null) {
+            ackTracker.close();
+        }
     }
 }
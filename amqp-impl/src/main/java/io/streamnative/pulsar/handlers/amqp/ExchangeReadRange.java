@@ -0,0 +1,116 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongFunction;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.common.util.FutureUtil;
+
+/**
+ * A range of entries of one exchange ledger read at once.
+ *
+ * <p>The entries close to each other are read in one range, the entries in the gaps are read and dropped, which is
+ * cheaper than one random read per entry once the entries are out of the managed ledger cache. An exchange that
+ * can't read the range in one request reads only the wanted entries of the range, one by one.
+ */
+@Slf4j
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class ExchangeReadRange {
+
+    private final long ledgerId;
+    private final long firstEntryId;
+    private final long lastEntryId;
+    /**
+     * The wanted entries of the range, in order.
+     */
+    private final List<Long> entryIds;
+
+    /**
+     * Group the positions into ranges.
+     *
+     * @param positions positions to read, in order
+     * @param maxEntries maximum number of entries of a range
+     * @param maxGap maximum number of entries not to read between two positions of a range
+     * @return ranges covering the positions, in order
+     */
+    public static List<ExchangeReadRange> coalesce(NavigableSet<PositionImpl> positions, int maxEntries, int maxGap) {
+        List<ExchangeReadRange> ranges = new ArrayList<>();
+        PositionImpl first = null;
+        PositionImpl last = null;
+        List<Long> entryIds = new ArrayList<>();
+        for (PositionImpl position : positions) {
+            if (first != null && position.getLedgerId() == first.getLedgerId()
+                    && position.getEntryId() - last.getEntryId() - 1 <= maxGap
+                    && position.getEntryId() - first.getEntryId() < maxEntries) {
+                last = position;
+                entryIds.add(position.getEntryId());
+                continue;
+            }
+            if (first != null) {
+                ranges.add(new ExchangeReadRange(first.getLedgerId(), first.getEntryId(), last.getEntryId(),
+                        entryIds));
+                entryIds = new ArrayList<>();
+            }
+            first = position;
+            last = position;
+            entryIds.add(position.getEntryId());
+        }
+        if (first != null) {
+            ranges.add(new ExchangeReadRange(first.getLedgerId(), first.getEntryId(), last.getEntryId(), entryIds));
+        }
+        return ranges;
+    }
+
+    /**
+     * Read the wanted entries of the range one by one, for the exchanges without range reads. The entries in the gaps
+     * are not read. The missing entries and the entries failing to be read are skipped, the caller fails only the
+     * messages of these entries.
+     */
+    public CompletableFuture<List<Entry>> readEach(LongFunction<CompletableFuture<Entry>> reader) {
+        List<CompletableFuture<Entry>> futures = new ArrayList<>(entryIds.size());
+        for (long entryId : entryIds) {
+            futures.add(reader.apply(entryId));
+        }
+        return FutureUtil.waitForAll(futures).handle((__, ignore) -> {
+            List<Entry> entries = new ArrayList<>(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                Entry entry;
+                try {
+                    entry = futures.get(i).join();
+                } catch (CompletionException e) {
+                    log.warn("Failed to read entry {}:{}.", ledgerId, entryIds.get(i), e.getCause());
+                    continue;
+                }
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        });
+    }
+}
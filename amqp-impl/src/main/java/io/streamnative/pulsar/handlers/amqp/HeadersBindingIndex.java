@@ -0,0 +1,204 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import com.google.common.collect.Sets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Inverted index over the bindings of a headers exchange.
+ *
+ * <p>Each binding is indexed by the header names it requires and the (header, value) pairs it matches, so a message
+ * only visits the bindings sharing a header with it. A binding with x-match=all matches when all its conditions are
+ * met, a binding with x-match=any when one of them is. Header values are compared as strings. Bindings are updated
+ * by one thread at a time, matching is thread safe.
+ *
+ * <p>Like the bindings of the exchange, a binding is identified by its destination and binding key.
+ *
+ * @param <T> the type of the binding destinations
+ */
+@Slf4j
+public class HeadersBindingIndex<T> {
+
+    private static final String X_MATCH = "x-match";
+
+    private final Map<Binding<T>, Binding<T>> bindings = new ConcurrentHashMap<>();
+    /**
+     * Bindings without conditions, they match all messages.
+     */
+    private final Set<Binding<T>> unconditional = Sets.newConcurrentHashSet();
+    private final Map<String, Set<Binding<T>>> requiredIndex = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Set<Binding<T>>>> matchIndex = new ConcurrentHashMap<>();
+
+    private static class Binding<T> {
+        private final T destination;
+        private final String bindingKey;
+        private boolean matchAny;
+        private final Set<String> required = new HashSet<>();
+        private final Map<String, String> matches = new HashMap<>();
+
+        private Binding(T destination, String bindingKey) {
+            this.destination = destination;
+            this.bindingKey = bindingKey == null ? "" : bindingKey;
+        }
+
+        private int conditions() {
+            return required.size() + matches.size();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Binding<?> binding)) {
+                return false;
+            }
+            return destination.equals(binding.destination) && bindingKey.equals(binding.bindingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(destination, bindingKey);
+        }
+    }
+
+    /**
+     * Bind a destination with the binding arguments.
+     *
+     * @return false if the destination is already bound with the binding key
+     */
+    public boolean add(T destination, String bindingKey, Map<String, Object> arguments) {
+        Binding<T> binding = compile(destination, bindingKey, arguments);
+        if (bindings.putIfAbsent(binding, binding) != null) {
+            return false;
+        }
+        if (binding.conditions() == 0) {
+            unconditional.add(binding);
+        }
+        for (String name : binding.required) {
+            requiredIndex.computeIfAbsent(name, k -> Sets.newConcurrentHashSet()).add(binding);
+        }
+        for (Map.Entry<String, String> match : binding.matches.entrySet()) {
+            matchIndex.computeIfAbsent(match.getKey(), k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(match.getValue(), k -> Sets.newConcurrentHashSet()).add(binding);
+        }
+        return true;
+    }
+
+    /**
+     * Unbind a destination from a binding key.
+     *
+     * @return false if the destination is not bound with the binding key
+     */
+    public boolean remove(T destination, String bindingKey) {
+        Binding<T> binding = bindings.remove(new Binding<>(destination, bindingKey));
+        if (binding == null) {
+            return false;
+        }
+        unindex(binding);
+        return true;
+    }
+
+    private void unindex(Binding<T> binding) {
+        unconditional.remove(binding);
+        for (String name : binding.required) {
+            requiredIndex.computeIfPresent(name, (k, v) -> {
+                v.remove(binding);
+                return v.isEmpty() ? null : v;
+            });
+        }
+        for (Map.Entry<String, String> match : binding.matches.entrySet()) {
+            matchIndex.computeIfPresent(match.getKey(), (k, values) -> {
+                values.computeIfPresent(match.getValue(), (value, v) -> {
+                    v.remove(binding);
+                    return v.isEmpty() ? null : v;
+                });
+                return values.isEmpty() ? null : values;
+            });
+        }
+    }
+
+    /**
+     * Get the destinations whose bindings match the message headers.
+     */
+    public Set<T> match(Map<String, Object> headers) {
+        Set<T> destinations = new HashSet<>();
+        for (Binding<T> binding : unconditional) {
+            destinations.add(binding.destination);
+        }
+        if (headers == null || headers.isEmpty()) {
+            return destinations;
+        }
+        // the number of conditions met by each binding sharing a header with the message
+        Map<Binding<T>, int[]> metConditions = new IdentityHashMap<>();
+        for (Map.Entry<String, Object> header : headers.entrySet()) {
+            Set<Binding<T>> requiredBindings = requiredIndex.get(header.getKey());
+            if (requiredBindings != null) {
+                for (Binding<T> binding : requiredBindings) {
+                    metConditions.computeIfAbsent(binding, k -> new int[1])[0]++;
+                }
+            }
+            Map<String, Set<Binding<T>>> values = matchIndex.get(header.getKey());
+            if (values != null && header.getValue() != null) {
+                Set<Binding<T>> matchBindings = values.get(String.valueOf(header.getValue()));
+                if (matchBindings != null) {
+                    for (Binding<T> binding : matchBindings) {
+                        metConditions.computeIfAbsent(binding, k -> new int[1])[0]++;
+                    }
+                }
+            }
+        }
+        metConditions.forEach((binding, met) -> {
+            if (binding.matchAny || met[0] == binding.conditions()) {
+                destinations.add(binding.destination);
+            }
+        });
+        return destinations;
+    }
+
+    public boolean isEmpty() {
+        return bindings.isEmpty();
+    }
+
+    private static <T> Binding<T> compile(T destination, String bindingKey, Map<String, Object> arguments) {
+        Binding<T> binding = new Binding<>(destination, bindingKey);
+        if (arguments == null) {
+            return binding;
+        }
+        for (Map.Entry<String, Object> entry : arguments.entrySet()) {
+            String name = entry.getKey();
+            Object value = entry.getValue();
+            if (name.startsWith("X-") || name.startsWith("x-")) {
+                if (X_MATCH.equalsIgnoreCase(name)) {
+                    binding.matchAny = "any".equalsIgnoreCase(String.valueOf(value));
+                } else {
+                    log.warn("Ignoring special header: {}", name);
+                }
+            } else if (value == null || "".equals(value)) {
+                binding.required.add(name);
+            } else {
+                binding.matches.put(name, String.valueOf(value));
+            }
+        }
+        return binding;
+    }
+}
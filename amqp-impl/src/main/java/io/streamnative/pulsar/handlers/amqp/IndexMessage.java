@@ -16,6 +16,7 @@ package io.streamnative.pulsar.handlers.amqp;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.util.Recycler;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Objects;
@@ -30,6 +31,11 @@ public class IndexMessage {
 
     private static final String X_DELAY = "_bph_.x-delay";
 
+    /**
+     * Ledger IDs are never negative, the sign bit of the encoded ledger ID marks an index of a batched message.
+     */
+    private static final long BATCH_INDEX_FLAG = Long.MIN_VALUE;
+
     /**
      * Name of the exchange that the message data from.
      */
@@ -45,6 +51,11 @@ public class IndexMessage {
      */
     private long entryId;
 
+    /**
+     * Index of the message in the batch entry, -1 if the entry is not a batch entry.
+     */
+    private int batchIndex;
+
     /**
      * Properties of the message.
      */
@@ -52,20 +63,36 @@ public class IndexMessage {
 
     public static IndexMessage create(String exchangeName, long ledgerId, long entryId,
                                       Map<String, Object> properties) {
+        return create(exchangeName, ledgerId, entryId, -1, properties);
+    }
+
+    public static IndexMessage create(String exchangeName, long ledgerId, long entryId, int batchIndex,
+                                      Map<String, Object> properties) {
         IndexMessage instance = RECYCLER.get();
         instance.exchangeName = exchangeName;
         instance.ledgerId = ledgerId;
         instance.entryId = entryId;
+        instance.batchIndex = batchIndex;
         instance.properties = properties;
         return instance;
     }
 
     public static IndexMessage create(byte[] bytes) {
+        return decode(Unpooled.wrappedBuffer(bytes), StandardCharsets.UTF_8);
+    }
+
+    public static IndexMessage create(ByteBuf byteBuf) {
+        return decode(byteBuf, StandardCharsets.ISO_8859_1);
+    }
+
+    private static IndexMessage decode(ByteBuf byteBuf, Charset charset) {
         IndexMessage instance = RECYCLER.get();
-        ByteBuf byteBuf = Unpooled.wrappedBuffer(bytes);
-        instance.ledgerId = byteBuf.readLong();
+        long ledgerId = byteBuf.readLong();
+        instance.ledgerId = ledgerId & ~BATCH_INDEX_FLAG;
         instance.entryId = byteBuf.readLong();
-        instance.exchangeName = byteBuf.readCharSequence(byteBuf.readableBytes(), StandardCharsets.UTF_8).toString();
+        instance.batchIndex = (ledgerId & BATCH_INDEX_FLAG) != 0 ? byteBuf.readInt() : -1;
+        instance.exchangeName = byteBuf.readCharSequence(byteBuf.readableBytes(), charset).toString();
+        instance.properties = null;
         return instance;
     }
 
@@ -98,11 +125,22 @@ public class IndexMessage {
         return entryId;
     }
 
+    public int getBatchIndex() {
+        return batchIndex;
+    }
+
     public byte[] encode() {
-        int size = 16 + exchangeName.getBytes(StandardCharsets.ISO_8859_1).length;
+        boolean batched = batchIndex >= 0;
+        int size = (batched ? 20 : 16) + exchangeName.getBytes(StandardCharsets.ISO_8859_1).length;
         ByteBuf byteBuf = Unpooled.buffer(size);
-        byteBuf.writeLong(ledgerId);
-        byteBuf.writeLong(entryId);
+        if (batched) {
+            byteBuf.writeLong(ledgerId | BATCH_INDEX_FLAG);
+            byteBuf.writeLong(entryId);
+            byteBuf.writeInt(batchIndex);
+        } else {
+            byteBuf.writeLong(ledgerId);
+            byteBuf.writeLong(entryId);
+        }
         byteBuf.writeCharSequence(exchangeName, StandardCharsets.ISO_8859_1);
         return byteBuf.array();
     }
@@ -129,11 +167,12 @@ public class IndexMessage {
             return false;
         }
         IndexMessage that = (IndexMessage) o;
-        return ledgerId == that.ledgerId && entryId == that.entryId && exchangeName.equals(that.exchangeName);
+        return ledgerId == that.ledgerId && entryId == that.entryId && batchIndex == that.batchIndex
+                && exchangeName.equals(that.exchangeName);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(exchangeName, ledgerId, entryId);
+        return Objects.hash(exchangeName, ledgerId, entryId, batchIndex);
     }
 }
@@ -107,14 +107,17 @@ public final class MessageFetchContext {
                         indexMessage.getExchangeName(), indexMessage.getLedgerId(), indexMessage.getEntryId())
                         .whenComplete((msg, ex) -> {
                             if (ex == null) {
+                                // tracked before the message is acknowledged in auto ack mode
+                                consumer.addUnAckMessages(indexMessage.getExchangeName(),
+                                        (PositionImpl) index.getPosition(),
+                                        MessageConvertUtils.getMarkDeletePosition(msg, indexMessage.getBatchIndex()));
                                 try {
                                     message.complete(Pair.of(index.getPosition(),
-                                            MessageConvertUtils.entryToAmqpBody(msg)));
+                                            MessageConvertUtils.entryToAmqpBody(msg,
+                                                    indexMessage.getBatchIndex())));
                                 } catch (UnsupportedEncodingException e) {
                                     log.error("Failed to convert entry to AMQP body", e);
                                 }
-                                consumer.addUnAckMessages(indexMessage.getExchangeName(),
-                                        (PositionImpl) index.getPosition(), (PositionImpl) msg.getPosition());
                             } else {
                                 message.complete(Pair.of(index.getPosition(), null));
                             }
@@ -0,0 +1,120 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.log4j.Log4j2;
+import org.apache.pulsar.broker.stats.prometheus.PrometheusRawMetricsProvider;
+import org.apache.pulsar.common.util.SimpleTextOutputStream;
+
+/**
+ * Broker wide limit of the memory used by published messages that are not written yet.
+ *
+ * <p>A connection publishing while the usage is over the limit is blocked, it's resumed once the usage drops below
+ * the resume threshold.
+ */
+@Log4j2
+public class PublishMemoryLimiter implements PrometheusRawMetricsProvider {
+
+    private final String cluster;
+    private final long maxBytes;
+    private final long resumeBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Set<AmqpConnection> blockedConnections = ConcurrentHashMap.newKeySet();
+
+    public PublishMemoryLimiter(String cluster, long maxBytes, int resumeThresholdPercent) {
+        this.cluster = cluster;
+        this.maxBytes = maxBytes;
+        this.resumeBytes = maxBytes * resumeThresholdPercent / 100;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public void acquire(AmqpConnection connection, long bytes) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (usedBytes.addAndGet(bytes) <= maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            // add the connection before checking the usage, a concurrent release either sees it or is seen here
+            if (!blockedConnections.add(connection)) {
+                return;
+            }
+            if (usedBytes.get() > resumeBytes) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Block connection {}, publish memory usage {} exceeds {}",
+                            connection.getConnectionId(), usedBytes.get(), maxBytes);
+                }
+                connection.block();
+            } else {
+                blockedConnections.remove(connection);
+            }
+        }
+    }
+
+    public void release(long bytes) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (usedBytes.addAndGet(-bytes) > resumeBytes || blockedConnections.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (usedBytes.get() > resumeBytes) {
+                return;
+            }
+            Iterator<AmqpConnection> iterator = blockedConnections.iterator();
+            while (iterator.hasNext()) {
+                AmqpConnection connection = iterator.next();
+                iterator.remove();
+                connection.unblock();
+            }
+        }
+    }
+
+    /**
+     * Forget a closed connection.
+     */
+    public void remove(AmqpConnection connection) {
+        blockedConnections.remove(connection);
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public int getBlockedConnections() {
+        return blockedConnections.size();
+    }
+
+    @Override
+    public void generate(SimpleTextOutputStream stream) {
+        writeGauge(stream, "amqp_publish_memory_used_bytes", usedBytes.get());
+        writeGauge(stream, "amqp_publish_memory_max_bytes", maxBytes);
+        writeGauge(stream, "amqp_publish_blocked_connections", blockedConnections.size());
+    }
+
+    private void writeGauge(SimpleTextOutputStream stream, String name, long value) {
+        stream.write("# TYPE ").write(name).write(" gauge\n")
+                .write(name).write("{cluster=\"").write(cluster).write("\"} ")
+                .write(value).write('\n');
+    }
+}
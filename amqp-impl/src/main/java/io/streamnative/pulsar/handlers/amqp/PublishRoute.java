@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import io.streamnative.pulsar.handlers.amqp.admin.model.rabbitmq.ExchangeDetail;
+import io.streamnative.pulsar.handlers.amqp.admin.model.rabbitmq.ExchangeSource;
+import io.streamnative.pulsar.handlers.amqp.impl.PersistentExchange;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The queues a channel writes the messages published to an exchange to when routing on publish.
+ *
+ * <p>Only the direct and fanout exchanges bound to queues only are routed on publish, the messages of the exchanges
+ * with exchange bindings or delayed messages are written to the exchange topic and routed by the exchange.
+ */
+@ToString
+public class PublishRoute {
+
+    private static final String QUEUE_DESTINATION = "queue";
+
+    @Getter
+    private final String exchange;
+    private final AmqpExchange.Type type;
+    private final Map<String, Set<String>> queuesByRoutingKey;
+    private final Set<String> queues;
+    private final long expireTimeMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private PublishRoute(String exchange, AmqpExchange.Type type, Map<String, Set<String>> queuesByRoutingKey,
+                         Set<String> queues, long expireTimeMillis) {
+        this.exchange = exchange;
+        this.type = type;
+        this.queuesByRoutingKey = queuesByRoutingKey;
+        this.queues = queues;
+        this.expireTimeMillis = expireTimeMillis;
+    }
+
+    /**
+     * The route of an exchange whose messages are written to the exchange topic.
+     */
+    public static PublishRoute viaExchange(String exchange, long expireTimeMillis) {
+        return new PublishRoute(exchange, null, Collections.emptyMap(), Collections.emptySet(), expireTimeMillis);
+    }
+
+    /**
+     * Build the route of an exchange from its detail and its bindings.
+     *
+     * @param exchange name of the exchange
+     * @param detail detail of the exchange
+     * @param bindings bindings whose source is the exchange
+     * @param expireTimeMillis time after which the route is resolved again
+     * @return the route, routed through the exchange topic if the exchange can not be routed on publish
+     */
+    public static PublishRoute of(String exchange, ExchangeDetail detail, List<ExchangeSource> bindings,
+                                  long expireTimeMillis) {
+        AmqpExchange.Type type = AmqpExchange.Type.value(detail.getType());
+        if (type != AmqpExchange.Type.Direct && type != AmqpExchange.Type.Fanout
+                || detail.getArguments() != null
+                && detail.getArguments().containsKey(PersistentExchange.X_DELAYED_TYPE)) {
+            return viaExchange(exchange, expireTimeMillis);
+        }
+        Map<String, Set<String>> queuesByRoutingKey = new HashMap<>();
+        Set<String> queues = new LinkedHashSet<>();
+        for (ExchangeSource binding : bindings) {
+            if (!QUEUE_DESTINATION.equals(binding.getDestination_type())) {
+                return viaExchange(exchange, expireTimeMillis);
+            }
+            String routingKey = binding.getRouting_key() == null ? "" : binding.getRouting_key();
+            queuesByRoutingKey.computeIfAbsent(routingKey, k -> new LinkedHashSet<>()).add(binding.getDestination());
+            queues.add(binding.getDestination());
+        }
+        return new PublishRoute(exchange, type, queuesByRoutingKey, queues, expireTimeMillis);
+    }
+
+    /**
+     * Whether the messages are written to the queue topics by the channel.
+     */
+    public boolean isRoutedOnPublish() {
+        return type != null;
+    }
+
+    /**
+     * The queues a message is routed to, empty if the message is unroutable.
+     */
+    public Set<String> getQueues(String routingKey) {
+        if (type == AmqpExchange.Type.Fanout) {
+            return queues;
+        }
+        return queuesByRoutingKey.getOrDefault(routingKey == null ? "" : routingKey, Collections.emptySet());
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expireTimeMillis;
+    }
+
+    /**
+     * Mark the route as being resolved again.
+     *
+     * @return false if it is already being resolved
+     */
+    public boolean startRefresh() {
+        return refreshing.compareAndSet(false, true);
+    }
+}
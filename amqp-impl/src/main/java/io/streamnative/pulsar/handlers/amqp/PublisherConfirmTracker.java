@@ -0,0 +1,127 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.qpid.server.protocol.v0_8.transport.AMQMethodBody;
+import org.apache.qpid.server.protocol.v0_8.transport.BasicNackBody;
+
+/**
+ * Tracks the publisher confirms of a channel.
+ *
+ * <p>Publish results may complete in any order, the confirms are sent in delivery tag order. Contiguous tags with
+ * the same outcome completed in the same event loop tick are collapsed into one confirm with multiple=true.
+ */
+@Log4j2
+public class PublisherConfirmTracker {
+
+    private final AmqpConnection connection;
+    private final int channelId;
+
+    /**
+     * The next delivery tag to assign, delivery tags of publisher confirms start from 1.
+     */
+    private long nextDeliveryTag = 1;
+
+    /**
+     * The lowest delivery tag that is not confirmed yet.
+     */
+    private long unconfirmedDeliveryTag = 1;
+
+    /**
+     * Completed delivery tags that are waiting for the lower ones, true means the message was written.
+     */
+    private final Map<Long, Boolean> completed = new HashMap<>();
+
+    private boolean flushScheduled;
+
+    public PublisherConfirmTracker(AmqpConnection connection, int channelId) {
+        this.connection = connection;
+        this.channelId = channelId;
+    }
+
+    /**
+     * Assign the delivery tag of the next published message.
+     */
+    public synchronized long nextDeliveryTag() {
+        return nextDeliveryTag++;
+    }
+
+    public void ack(long deliveryTag) {
+        complete(deliveryTag, true);
+    }
+
+    public void nack(long deliveryTag) {
+        complete(deliveryTag, false);
+    }
+
+    private void complete(long deliveryTag, boolean success) {
+        synchronized (this) {
+            completed.put(deliveryTag, success);
+            if (deliveryTag != unconfirmedDeliveryTag || flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        executor().execute(this::flush);
+    }
+
+    private void flush() {
+        List<AMQMethodBody> confirms = new ArrayList<>(2);
+        synchronized (this) {
+            flushScheduled = false;
+            Boolean outcome;
+            Boolean lastOutcome = null;
+            int count = 0;
+            while ((outcome = completed.remove(unconfirmedDeliveryTag)) != null) {
+                if (lastOutcome != null && !lastOutcome.equals(outcome)) {
+                    confirms.add(confirmBody(lastOutcome, unconfirmedDeliveryTag - 1, count > 1));
+                    count = 0;
+                }
+                lastOutcome = outcome;
+                count++;
+                unconfirmedDeliveryTag++;
+            }
+            if (lastOutcome != null) {
+                confirms.add(confirmBody(lastOutcome, unconfirmedDeliveryTag - 1, count > 1));
+            }
+        }
+        for (AMQMethodBody confirm : confirms) {
+            connection.writeFrame(confirm.generateFrame(channelId));
+        }
+    }
+
+    private AMQMethodBody confirmBody(boolean success, long deliveryTag, boolean multiple) {
+        if (success) {
+            return connection.getMethodRegistry().createBasicAckBody(deliveryTag, multiple);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Nack published message, channel {} deliveryTag {} multiple {}",
+                    channelId, deliveryTag, multiple);
+        }
+        return new BasicNackBody(deliveryTag, multiple, false);
+    }
+
+    private Executor executor() {
+        if (connection.getCtx() == null) {
+            return Runnable::run;
+        }
+        return connection.getCtx().channel().eventLoop();
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import com.google.common.collect.Sets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Word trie over the binding keys of a topic exchange.
+ *
+ * <p>A routing key is matched against all the binding keys in one walk of the trie, the result of a routing key is
+ * cached until the bindings change. Bindings are updated by one thread at a time, matching is thread safe.
+ *
+ * @param <T> the type of the binding destinations
+ */
+public class TopicBindingTrie<T> {
+
+    private static final String STAR = "*";
+    private static final String HASH = "#";
+
+    private final Node<T> root = new Node<>();
+    private final int maxCacheSize;
+    /**
+     * Replaced on every binding change, so a result computed against the old bindings is never cached in the new map.
+     */
+    private volatile Map<String, Set<T>> cache = new ConcurrentHashMap<>();
+
+    public TopicBindingTrie(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    private static class Node<T> {
+        private final Map<String, Node<T>> children = new ConcurrentHashMap<>();
+        private volatile Node<T> star;
+        private volatile Node<T> hash;
+        private final Set<T> destinations = Sets.newConcurrentHashSet();
+
+        private Node<T> child(String word) {
+            return switch (word) {
+                case STAR -> star;
+                case HASH -> hash;
+                default -> children.get(word);
+            };
+        }
+
+        private Node<T> getOrCreateChild(String word) {
+            switch (word) {
+                case STAR:
+                    if (star == null) {
+                        star = new Node<>();
+                    }
+                    return star;
+                case HASH:
+                    if (hash == null) {
+                        hash = new Node<>();
+                    }
+                    return hash;
+                default:
+                    return children.computeIfAbsent(word, k -> new Node<>());
+            }
+        }
+
+        private void removeChild(String word) {
+            switch (word) {
+                case STAR -> star = null;
+                case HASH -> hash = null;
+                default -> children.remove(word);
+            }
+        }
+
+        private boolean isEmpty() {
+            return destinations.isEmpty() && children.isEmpty() && star == null && hash == null;
+        }
+    }
+
+    /**
+     * Bind a destination with a binding key.
+     *
+     * @return false if the destination is already bound with the binding key
+     */
+    public boolean add(String bindingKey, T destination) {
+        Node<T> node = root;
+        for (String word : split(bindingKey)) {
+            node = node.getOrCreateChild(word);
+        }
+        boolean added = node.destinations.add(destination);
+        if (added) {
+            cache = new ConcurrentHashMap<>();
+        }
+        return added;
+    }
+
+    /**
+     * Unbind a destination from a binding key.
+     *
+     * @return false if the destination is not bound with the binding key
+     */
+    public boolean remove(String bindingKey, T destination) {
+        String[] words = split(bindingKey);
+        boolean removed = remove(root, words, 0, destination);
+        if (removed) {
+            cache = new ConcurrentHashMap<>();
+        }
+        return removed;
+    }
+
+    private boolean remove(Node<T> node, String[] words, int index, T destination) {
+        if (index == words.length) {
+            return node.destinations.remove(destination);
+        }
+        Node<T> child = node.child(words[index]);
+        if (child == null || !remove(child, words, index + 1, destination)) {
+            return false;
+        }
+        // prune the branches without bindings
+        if (child.isEmpty()) {
+            node.removeChild(words[index]);
+        }
+        return true;
+    }
+
+    /**
+     * Get the destinations whose binding keys match the routing key, the returned set is not modifiable.
+     */
+    public Set<T> match(String routingKey) {
+        Map<String, Set<T>> currentCache = cache;
+        Set<T> result = currentCache.get(routingKey);
+        if (result != null) {
+            return result;
+        }
+        Set<T> destinations = new HashSet<>();
+        match(root, split(routingKey), 0, destinations);
+        result = destinations.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(destinations);
+        if (currentCache.size() >= maxCacheSize) {
+            currentCache.clear();
+        }
+        currentCache.put(routingKey, result);
+        return result;
+    }
+
+    private void match(Node<T> node, String[] words, int index, Set<T> destinations) {
+        Node<T> hash = node.hash;
+        if (hash != null) {
+            // '#' matches zero or more words
+            for (int i = index; i <= words.length; i++) {
+                match(hash, words, i, destinations);
+            }
+        }
+        if (index == words.length) {
+            destinations.addAll(node.destinations);
+            return;
+        }
+        Node<T> child = node.children.get(words[index]);
+        if (child != null) {
+            match(child, words, index + 1, destinations);
+        }
+        Node<T> star = node.star;
+        if (star != null) {
+            match(star, words, index + 1, destinations);
+        }
+    }
+
+    public boolean isEmpty() {
+        return root.isEmpty();
+    }
+
+    private static String[] split(String key) {
+        // an empty key has no words, an empty word between two dots is kept
+        return StringUtils.splitPreserveAllTokens(key == null ? "" : key, '.');
+    }
+}
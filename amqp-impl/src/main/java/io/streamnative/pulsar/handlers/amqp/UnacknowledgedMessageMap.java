@@ -16,25 +16,30 @@ package io.streamnative.pulsar.handlers.amqp;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 
 
 /**
  * unack message map.
+ *
+ * <p>The messages are kept in delivery tag order, acknowledging multiple messages costs the number of messages
+ * acknowledged rather than the number of messages not acknowledged.
  */
 public class UnacknowledgedMessageMap {
 
     public interface MessageProcessor {
         void messageAck(Position position);
+        default void messagesAck(List<Position> positions) {
+            positions.forEach(this::messageAck);
+        }
         void requeue(List<PositionImpl> positions);
         default void discardMessage(List<PositionImpl> positions){}
     }
@@ -66,22 +71,47 @@ public class UnacknowledgedMessageMap {
         }
     }
 
-    private final Map<Long, MessageConsumerAssociation> map = new ConcurrentHashMap<>();
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The delivery tags and their messages in tag order, in a ring starting at {@link #head}. The slots of the removed
+     * messages are left empty and dropped when they reach the head or the tail, or compacted once they are too many.
+     * The delivery tags of a channel increase, so a message is almost always added at the tail.
+     */
+    private long[] tags = new long[INITIAL_CAPACITY];
+    private MessageConsumerAssociation[] associations = new MessageConsumerAssociation[INITIAL_CAPACITY];
+    private int head;
+    /**
+     * The number of slots used, including the empty ones.
+     */
+    private int length;
+    private int size;
     private final AmqpChannel channel;
     public UnacknowledgedMessageMap(AmqpChannel channel) {
         this.channel = channel;
     }
 
     public Collection<MessageConsumerAssociation> acknowledge(long deliveryTag, boolean multiple) {
+        if (multiple && deliveryTag == 0) {
+            // a multiple ack with the tag 0 acknowledges all the outstanding messages
+            return acknowledgeAll();
+        }
         if (multiple) {
-            Map<Long, MessageConsumerAssociation> acks = new HashMap<>();
-            map.entrySet().stream().forEach(entry -> {
-                if (entry.getKey() <= deliveryTag) {
-                    acks.put(entry.getKey(), entry.getValue());
+            List<MessageConsumerAssociation> acks = new ArrayList<>();
+            synchronized (this) {
+                int count = 0;
+                while (count < length && tags[slot(count)] <= deliveryTag) {
+                    int slot = slot(count++);
+                    if (associations[slot] != null) {
+                        acks.add(associations[slot]);
+                        associations[slot] = null;
+                    }
                 }
-            });
-            remove(acks.keySet());
-            return acks.values();
+                dropFirst(count);
+                size -= acks.size();
+            }
+            restoreCredit(acks);
+            return acks;
         } else {
             MessageConsumerAssociation association = remove(deliveryTag);
             if (association != null) {
@@ -92,41 +122,214 @@ public class UnacknowledgedMessageMap {
     }
 
     public Collection<MessageConsumerAssociation> acknowledgeAll() {
-        Set<MessageConsumerAssociation> associations = new HashSet<>();
-        associations.addAll(map.values());
-        remove(map.keySet());
-        return associations;
+        List<MessageConsumerAssociation> acks;
+        synchronized (this) {
+            acks = new ArrayList<>(size);
+            for (int i = 0; i < length; i++) {
+                int slot = slot(i);
+                if (associations[slot] != null) {
+                    acks.add(associations[slot]);
+                    associations[slot] = null;
+                }
+            }
+            head = 0;
+            length = 0;
+            size = 0;
+        }
+        restoreCredit(acks);
+        return acks;
+    }
+
+    /**
+     * Acknowledge all the messages whose delivery tag is not kept.
+     *
+     * @param keep the delivery tags left unacknowledged
+     * @return the acknowledged messages
+     */
+    public Collection<MessageConsumerAssociation> acknowledgeAllExcept(LongPredicate keep) {
+        List<MessageConsumerAssociation> acks = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < length; i++) {
+                int slot = slot(i);
+                if (associations[slot] != null && !keep.test(tags[slot])) {
+                    acks.add(associations[slot]);
+                    associations[slot] = null;
+                }
+            }
+            size -= acks.size();
+            trim();
+        }
+        restoreCredit(acks);
+        return acks;
     }
 
     public void add(long deliveryTag, Position position, MessageProcessor consumer, int size) {
         checkNotNull(position);
         checkNotNull(consumer);
-        map.put(deliveryTag, new MessageConsumerAssociation(position, consumer, size));
+        MessageConsumerAssociation association = new MessageConsumerAssociation(position, consumer, size);
+        synchronized (this) {
+            if (length == 0 || deliveryTag > tags[slot(length - 1)]) {
+                ensureCapacity();
+                int slot = slot(length++);
+                tags[slot] = deliveryTag;
+                associations[slot] = association;
+                this.size++;
+                return;
+            }
+            int index = indexOf(deliveryTag);
+            if (index >= 0) {
+                int slot = slot(index);
+                if (associations[slot] == null) {
+                    this.size++;
+                }
+                associations[slot] = association;
+                return;
+            }
+            // a delivery tag taken before the last one added, shift the following messages
+            if (length == tags.length) {
+                ensureCapacity();
+                index = indexOf(deliveryTag);
+            }
+            index = -index - 1;
+            for (int i = length; i > index; i--) {
+                tags[slot(i)] = tags[slot(i - 1)];
+                associations[slot(i)] = associations[slot(i - 1)];
+            }
+            length++;
+            tags[slot(index)] = deliveryTag;
+            associations[slot(index)] = association;
+            this.size++;
+        }
     }
 
     public void remove(Collection<Long> deliveryTag) {
-        deliveryTag.stream().forEach(tag -> {
-            MessageConsumerAssociation entry = map.remove(tag);
-            if (entry != null) {
-                channel.restoreCredit(1, entry.getSize());
-            }
-        });
+        deliveryTag.forEach(this::remove);
     }
 
     public MessageConsumerAssociation remove(long deliveryTag) {
-        MessageConsumerAssociation entry = map.remove(deliveryTag);
-        if (entry != null) {
-            channel.restoreCredit(1, entry.getSize());
+        MessageConsumerAssociation entry;
+        synchronized (this) {
+            int index = indexOf(deliveryTag);
+            if (index < 0) {
+                return null;
+            }
+            int slot = slot(index);
+            entry = associations[slot];
+            if (entry == null) {
+                return null;
+            }
+            associations[slot] = null;
+            size--;
+            trim();
         }
+        channel.restoreCredit(1, entry.getSize());
         return entry;
     }
 
-    public int size() {
-        return map.size();
+    public synchronized boolean contains(long deliveryTag) {
+        int index = indexOf(deliveryTag);
+        return index >= 0 && associations[slot(index)] != null;
+    }
+
+    public synchronized int size() {
+        return size;
     }
 
     @VisibleForTesting
-    public Map<Long, MessageConsumerAssociation> getMap() {
+    public synchronized Map<Long, MessageConsumerAssociation> getMap() {
+        Map<Long, MessageConsumerAssociation> map = new LinkedHashMap<>();
+        for (int i = 0; i < length; i++) {
+            int slot = slot(i);
+            if (associations[slot] != null) {
+                map.put(tags[slot], associations[slot]);
+            }
+        }
         return map;
     }
+
+    private void restoreCredit(List<MessageConsumerAssociation> acks) {
+        if (acks.isEmpty()) {
+            return;
+        }
+        long bytes = 0;
+        for (MessageConsumerAssociation association : acks) {
+            bytes += association.getSize();
+        }
+        channel.restoreCredit(acks.size(), bytes);
+    }
+
+    private int slot(int index) {
+        return (head + index) & (tags.length - 1);
+    }
+
+    /**
+     * Binary search of a delivery tag.
+     *
+     * @return the index of the tag, or (-(insertion index) - 1) if it's not found
+     */
+    private int indexOf(long deliveryTag) {
+        int low = 0;
+        int high = length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long tag = tags[slot(mid)];
+            if (tag < deliveryTag) {
+                low = mid + 1;
+            } else if (tag > deliveryTag) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void dropFirst(int count) {
+        head = slot(count);
+        length -= count;
+        trim();
+    }
+
+    /**
+     * Drop the empty slots at both ends and compact the ring once most of the slots are empty.
+     */
+    private void trim() {
+        while (length > 0 && associations[head] == null) {
+            head = slot(1);
+            length--;
+        }
+        while (length > 0 && associations[slot(length - 1)] == null) {
+            length--;
+        }
+        if (length == 0) {
+            head = 0;
+        } else if (length - size > Math.max(INITIAL_CAPACITY, size)) {
+            resize(tags.length);
+        }
+    }
+
+    private void ensureCapacity() {
+        if (length < tags.length) {
+            return;
+        }
+        // double the ring unless compacting it frees enough slots
+        resize(size < tags.length / 2 ? tags.length : tags.length * 2);
+    }
+
+    private void resize(int capacity) {
+        long[] newTags = new long[capacity];
+        MessageConsumerAssociation[] newAssociations = new MessageConsumerAssociation[capacity];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            int slot = slot(i);
+            if (associations[slot] != null) {
+                newTags[count] = tags[slot];
+                newAssociations[count++] = associations[slot];
+            }
+        }
+        tags = newTags;
+        associations = newAssociations;
+        head = 0;
+        length = count;
+    }
 }
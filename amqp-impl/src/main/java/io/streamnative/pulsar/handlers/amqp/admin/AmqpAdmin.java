@@ -18,6 +18,8 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import io.streamnative.pulsar.handlers.amqp.admin.model.BindingParams;
 import io.streamnative.pulsar.handlers.amqp.admin.model.ExchangeDeclareParams;
 import io.streamnative.pulsar.handlers.amqp.admin.model.QueueDeclareParams;
+import io.streamnative.pulsar.handlers.amqp.admin.model.rabbitmq.ExchangeDetail;
+import io.streamnative.pulsar.handlers.amqp.admin.model.rabbitmq.ExchangeSource;
 import io.streamnative.pulsar.handlers.amqp.admin.model.rabbitmq.QueueBinds;
 import io.streamnative.pulsar.handlers.amqp.impl.PersistentExchange;
 import io.streamnative.pulsar.handlers.amqp.utils.HttpUtil;
@@ -117,6 +119,19 @@ public class AmqpAdmin {
         });
     }
 
+    public CompletableFuture<ExchangeDetail> getExchange(NamespaceName namespaceName, String exchange) {
+        String url = String.format("%s/exchanges/%s/%s", baseUrl, namespaceName.getLocalName(), exchange);
+        return HttpUtil.getAsync(url, Map.of("tenant", namespaceName.getTenant()), ExchangeDetail.class);
+    }
+
+    public CompletableFuture<List<ExchangeSource>> getExchangeBindings(NamespaceName namespaceName, String exchange) {
+        String url = String.format("%s/exchanges/%s/%s/bindings/source", baseUrl, namespaceName.getLocalName(),
+                exchange);
+        return HttpUtil.getAsync(url, Map.of("tenant", namespaceName.getTenant()),
+                new TypeReference<List<ExchangeSource>>() {
+                });
+    }
+
     public CompletableFuture<Void> queueBindExchange(NamespaceName namespaceName,
                                                      String exchange,
                                                      String queue,
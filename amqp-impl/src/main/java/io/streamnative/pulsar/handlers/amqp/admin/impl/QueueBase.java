@@ -348,7 +348,7 @@ public class QueueBase extends BaseResources {
         } else {
             messageBean.setPayload(new String(message.getValue()));
         }
-        Map<String, String> properties = message.getProperties();
+        Map<String, String> properties = MessageConvertUtils.expandCompactProperties(message.getProperties());
         messageBean.setPayload_bytes(message.getData().length);
         messageBean.setRedelivered(false);
         messageBean.setPayload_encoding("string");
@@ -379,11 +379,13 @@ public class QueueBase extends BaseResources {
         }
         return aop().getBrokerService()
                 .getTopic(TopicUtil.getTopicName(PersistentQueue.TOPIC_PREFIX, tenant, vhost, queue), false)
-                .thenAccept(topicOptional -> topicOptional.ifPresent(topic -> {
-                    if (topic instanceof PersistentTopic persistentTopic) {
-                        persistentTopic.clearBacklog();
+                .thenCompose(topicOptional -> {
+                    // the purge completes once the backlog is cleared, the queue is empty for the next reads
+                    if (topicOptional.isPresent() && topicOptional.get() instanceof PersistentTopic persistentTopic) {
+                        return persistentTopic.clearBacklog();
                     }
-                }))
+                    return CompletableFuture.completedFuture(null);
+                })
                 .thenCompose(__ -> queueContainer().asyncGetQueue(getNamespaceName(vhost), queue, false)
                         .thenAccept(amqpQueue -> {
                             if (amqpQueue instanceof PersistentQueue persistentQueue) {
@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.impl;
+
+import io.streamnative.pulsar.handlers.amqp.AbstractAmqpMessageRouter;
+import io.streamnative.pulsar.handlers.amqp.AmqpExchange;
+import io.streamnative.pulsar.handlers.amqp.AmqpMessageRouter;
+import io.streamnative.pulsar.handlers.amqp.AmqpQueue;
+import io.streamnative.pulsar.handlers.amqp.TopicBindingTrie;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routing index of the queues bound to an exchange.
+ *
+ * <p>The index is built from the bindings once and not modified afterwards, the exchange builds a new one and swaps
+ * it on every binding change.
+ */
+class ExchangeBindingIndex {
+
+    private static final int TOPIC_ROUTING_CACHE_SIZE = 10000;
+
+    private final AmqpExchange.Type type;
+    private final List<AmqpQueue> queues = new ArrayList<>();
+    private final Map<String, List<AmqpQueue>> directQueues = new HashMap<>();
+    private final TopicBindingTrie<AmqpQueue> topicQueues;
+    private final List<AbstractAmqpMessageRouter> headersRouters = new ArrayList<>();
+
+    private ExchangeBindingIndex(AmqpExchange.Type type) {
+        this.type = type;
+        this.topicQueues = type == AmqpExchange.Type.Topic ? new TopicBindingTrie<>(TOPIC_ROUTING_CACHE_SIZE) : null;
+    }
+
+    static ExchangeBindingIndex build(String exchangeName, AmqpExchange.Type type, Collection<AmqpQueue> queues) {
+        ExchangeBindingIndex index = new ExchangeBindingIndex(type);
+        for (AmqpQueue queue : queues) {
+            AmqpMessageRouter router = queue.getRouter(exchangeName);
+            if (router == null) {
+                continue;
+            }
+            switch (type) {
+                case Direct:
+                    for (String bindingKey : router.getBindingKey()) {
+                        index.directQueues.computeIfAbsent(bindingKey, k -> new ArrayList<>()).add(queue);
+                    }
+                    break;
+                case Fanout:
+                    index.queues.add(queue);
+                    break;
+                case Topic:
+                    for (String bindingKey : router.getBindingKey()) {
+                        index.topicQueues.add(bindingKey, queue);
+                    }
+                    break;
+                case Headers:
+                    index.headersRouters.add((AbstractAmqpMessageRouter) router);
+                    break;
+                default:
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get the queues a message is routed to.
+     */
+    Collection<AmqpQueue> getQueues(String routingKey, Map<String, Object> properties) {
+        switch (type) {
+            case Direct:
+                return directQueues.getOrDefault(routingKey, Collections.emptyList());
+            case Fanout:
+                return queues;
+            case Topic:
+                return topicQueues.match(routingKey);
+            case Headers:
+                List<AmqpQueue> matchedQueues = new ArrayList<>();
+                for (AbstractAmqpMessageRouter router : headersRouters) {
+                    if (router.isMatch(properties)) {
+                        matchedQueues.add(router.getQueue());
+                    }
+                }
+                return matchedQueues;
+            default:
+                return Collections.emptyList();
+        }
+    }
+}
@@ -27,27 +27,40 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class HeadersMessageRouter extends AbstractAmqpMessageRouter {
 
-    private boolean matchAny;
-    private final Set<String> required = new HashSet<>();
-    private final Map<String, Object> matches = new HashMap<>();
+    /**
+     * The mappings compiled from the binding arguments, recompiled when the arguments are replaced.
+     */
+    private volatile Mappings mappings;
 
     public HeadersMessageRouter() {
         super(Type.Headers);
     }
 
+    private static class Mappings {
+        private boolean matchAny;
+        private final Set<String> required = new HashSet<>();
+        private final Map<String, Object> matches = new HashMap<>();
+    }
+
+    @Override
+    public void setArguments(Map<String, Object> arguments) {
+        super.setArguments(arguments);
+        mappings = null;
+    }
+
     @Override
     public boolean isMatch(Map<String, Object> headers) {
-        initMappings();
+        Mappings mappings = getMappings();
         if (headers == null) {
-            return required.isEmpty() && matches.isEmpty();
+            return mappings.required.isEmpty() && mappings.matches.isEmpty();
         } else {
-            return matchAny ? or(headers) : and(headers);
+            return mappings.matchAny ? or(mappings, headers) : and(mappings, headers);
         }
     }
 
-    private boolean and(Map<String, Object> headers) {
-        if (headers.keySet().containsAll(required)) {
-            for (Map.Entry<String, Object> e : matches.entrySet()) {
+    private boolean and(Mappings mappings, Map<String, Object> headers) {
+        if (headers.keySet().containsAll(mappings.required)) {
+            for (Map.Entry<String, Object> e : mappings.matches.entrySet()) {
                 if (!e.getValue().equals(headers.get(e.getKey()))) {
                     return false;
                 }
@@ -58,12 +71,12 @@ public class HeadersMessageRouter extends AbstractAmqpMessageRouter {
         }
     }
 
-    private boolean or(Map<String, Object> headers) {
-        if (required.isEmpty()) {
-            return matches.isEmpty() || passesMatchesOr(headers);
+    private boolean or(Mappings mappings, Map<String, Object> headers) {
+        if (mappings.required.isEmpty()) {
+            return mappings.matches.isEmpty() || passesMatchesOr(mappings, headers);
         } else {
-            if (!passesRequiredOr(headers)) {
-                return !matches.isEmpty() && passesMatchesOr(headers);
+            if (!passesRequiredOr(mappings, headers)) {
+                return !mappings.matches.isEmpty() && passesMatchesOr(mappings, headers);
             } else {
                 return true;
             }
@@ -71,22 +84,33 @@ public class HeadersMessageRouter extends AbstractAmqpMessageRouter {
         }
     }
 
-    private void initMappings() {
+    private Mappings getMappings() {
+        Mappings mappings = this.mappings;
+        if (mappings == null) {
+            mappings = initMappings();
+            this.mappings = mappings;
+        }
+        return mappings;
+    }
+
+    private Mappings initMappings() {
+        Mappings mappings = new Mappings();
         for (Map.Entry<String, Object> entry : arguments.entrySet()) {
             String propertyName = entry.getKey();
             Object value = entry.getValue();
             if (isSpecial(propertyName)) {
-                processSpecial(propertyName, value);
+                processSpecial(mappings, propertyName, value);
             } else if (value == null || "".equals(value)) {
-                required.add(propertyName);
+                mappings.required.add(propertyName);
             } else {
-                matches.put(propertyName, value);
+                mappings.matches.put(propertyName, value);
             }
         }
+        return mappings;
     }
 
-    private boolean passesMatchesOr(Map<String, Object> headers) {
-        for (Map.Entry<String, Object> entry : matches.entrySet()) {
+    private boolean passesMatchesOr(Mappings mappings, Map<String, Object> headers) {
+        for (Map.Entry<String, Object> entry : mappings.matches.entrySet()) {
             if (headers.containsKey(entry.getKey())
                     && ((entry.getValue() == null && headers.get(entry.getKey()) == null)
                     || (entry.getValue().equals(headers.get(entry.getKey()))))) {
@@ -96,8 +120,8 @@ public class HeadersMessageRouter extends AbstractAmqpMessageRouter {
         return false;
     }
 
-    private boolean passesRequiredOr(Map<String, Object> headers) {
-        for (String name : required) {
+    private boolean passesRequiredOr(Mappings mappings, Map<String, Object> headers) {
+        for (String name : mappings.required) {
             if (headers.containsKey(name)) {
                 return true;
             }
@@ -109,9 +133,9 @@ public class HeadersMessageRouter extends AbstractAmqpMessageRouter {
         return key.startsWith("X-") || key.startsWith("x-");
     }
 
-    private void processSpecial(String key, Object value) {
+    private void processSpecial(Mappings mappings, String key, Object value) {
         if ("X-match".equalsIgnoreCase(key)) {
-            matchAny = isAny(value);
+            mappings.matchAny = isAny(value);
         } else {
             log.warn("Ignoring special header: {}", key);
         }
@@ -24,42 +24,48 @@ import io.streamnative.pulsar.handlers.amqp.AbstractAmqpExchange;
 import io.streamnative.pulsar.handlers.amqp.AmqpEntryWriter;
 import io.streamnative.pulsar.handlers.amqp.AmqpExchangeReplicator;
 import io.streamnative.pulsar.handlers.amqp.AmqpQueue;
+import io.streamnative.pulsar.handlers.amqp.AmqpServiceConfiguration;
+import io.streamnative.pulsar.handlers.amqp.ExchangeEntryCache;
 import io.streamnative.pulsar.handlers.amqp.ExchangeMessageRouter;
+import io.streamnative.pulsar.handlers.amqp.ExchangeReadRange;
 import io.streamnative.pulsar.handlers.amqp.admin.AmqpAdmin;
 import io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils;
 import io.streamnative.pulsar.handlers.amqp.utils.PulsarTopicMetadataUtils;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.service.Topic;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.api.Message;
 import org.apache.pulsar.client.api.PulsarClient;
-import org.apache.pulsar.client.impl.MessageImpl;
 import org.apache.pulsar.common.api.proto.CommandSubscribe;
-import org.apache.pulsar.common.api.proto.KeyValue;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
 import org.apache.pulsar.common.naming.NamespaceName;
 import org.apache.pulsar.common.naming.TopicDomain;
 import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.util.FutureUtil;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
 
@@ -80,13 +86,36 @@ public class PersistentExchange extends AbstractAmqpExchange {
     public static final String X_DELAYED_TYPE = "x-delayed-type";
     @Getter
     private final boolean existDelayedType;
+    /**
+     * The number of threads routing one batch of the exchange messages in multi-bundle mode.
+     */
+    @Getter
+    private final int routeShards;
+    @Getter
+    private final AmqpServiceConfiguration config;
 
     private PersistentTopic persistentTopic;
     private ConcurrentOpenHashMap<String, CompletableFuture<ManagedCursor>> cursors;
     private AmqpExchangeReplicator messageReplicator;
     private AmqpEntryWriter amqpEntryWriter;
 
+    @Getter
     private ExchangeMessageRouter exchangeMessageRouter;
+    /**
+     * Looks up the exchanges of the vhost loaded on this broker, for the exchange-to-exchange bindings.
+     */
+    @Getter
+    @Setter
+    private volatile Function<String, PersistentExchange> exchangeLookup;
+    /**
+     * The broker wide cache of the entries read by several queues in legacy mode.
+     */
+    @Setter
+    private volatile ExchangeEntryCache entryCache;
+    /**
+     * The routing index of the bound queues in legacy mode, swapped on every binding change.
+     */
+    private volatile ExchangeBindingIndex bindingIndex;
     @Getter
     private Set<Binding> bindings;
 
@@ -111,10 +140,23 @@ public class PersistentExchange extends AbstractAmqpExchange {
                               ExecutorService routeExecutor, int routeQueueSize, boolean amqpMultiBundleEnable,
                               AmqpAdmin amqpAdmin, PulsarClient pulsarClient)
             throws JsonProcessingException {
+        this(exchangeName, properties, type, persistentTopic, durable, autoDelete, internal, arguments,
+                routeExecutor, routeQueueSize, amqpMultiBundleEnable, amqpAdmin, pulsarClient,
+                new AmqpServiceConfiguration());
+    }
+
+    public PersistentExchange(String exchangeName, Map<String, String> properties, Type type,
+                              PersistentTopic persistentTopic,
+                              boolean durable, boolean autoDelete, boolean internal, Map<String, Object> arguments,
+                              ExecutorService routeExecutor, int routeQueueSize, boolean amqpMultiBundleEnable,
+                              AmqpAdmin amqpAdmin, PulsarClient pulsarClient, AmqpServiceConfiguration config)
+            throws JsonProcessingException {
         super(exchangeName, type, Sets.newConcurrentHashSet(), durable, autoDelete, internal, arguments, properties);
         this.pulsarClient = pulsarClient;
         this.persistentTopic = persistentTopic;
         this.existDelayedType = arguments != null && arguments.containsKey(X_DELAYED_TYPE);
+        this.config = config;
+        this.routeShards = Math.max(1, config.getAmqpExchangeRouteShards());
         topicNameValidate();
 
         if (amqpMultiBundleEnable) {
@@ -144,56 +186,49 @@ public class PersistentExchange extends AbstractAmqpExchange {
             return;
         }
 
+        this.bindingIndex = ExchangeBindingIndex.build(exchangeName, exchangeType, queues);
         if (messageReplicator == null) {
             messageReplicator = new AmqpExchangeReplicator(this, routeExecutor, routeQueueSize) {
                 @Override
                 public CompletableFuture<Void> readProcess(ByteBuf data, Position position) {
-                    Map<String, Object> props;
+                    List<Map<String, Object>> propsList;
+                    boolean batched;
                     try {
-                        MessageImpl<byte[]> message = MessageImpl.deserialize(data);
-                        props = message.getMessageBuilder().getPropertiesList().stream()
-                                .collect(Collectors.toMap(KeyValue::getKey, KeyValue::getValue));
+                        MessageMetadata metadata = Commands.parseMessageMetadata(data);
+                        batched = metadata.hasNumMessagesInBatch();
+                        propsList = MessageConvertUtils.getPropertiesFromEntry(metadata, data,
+                                exchangeType == Type.Headers);
                     } catch (Exception e) {
                         log.error("Failed to deserialize entry dataBuffer. exchangeName: {}", exchangeName, e);
                         return FutureUtil.failedFuture(e);
                     }
 
                     List<CompletableFuture<Void>> routeFutureList = new ArrayList<>();
-                    if (exchangeType == Type.Direct) {
-                        String bindingKey = props.getOrDefault(MessageConvertUtils.PROP_ROUTING_KEY, "").toString();
-                        Set<AmqpQueue> queueSet = bindingKeyQueueMap.get(bindingKey);
-                        if (queueSet == null) {
-                            if (log.isDebugEnabled()) {
-                                log.debug("The queue set of the bindingKey {} is not exist.", bindingKey);
-                            }
-                        } else {
-                            for (AmqpQueue queue : queueSet) {
-                                routeFutureList.add(
-                                        queue.writeIndexMessageAsync(
-                                                exchangeName, position.getLedgerId(), position.getEntryId(), props));
-                            }
-                        }
-                    } else if (exchangeType == Type.Fanout) {
-                        for (AmqpQueue queue : queues) {
-                            routeFutureList.add(
-                                    queue.writeIndexMessageAsync(
-                                            exchangeName, position.getLedgerId(), position.getEntryId(), props));
-                        }
-                    } else {
-                        for (AmqpQueue queue : queues) {
-                            CompletableFuture<Void> routeFuture = queue.getRouter(exchangeName).routingMessage(
-                                    position.getLedgerId(), position.getEntryId(),
-                                    props.getOrDefault(MessageConvertUtils.PROP_ROUTING_KEY, "").toString(),
-                                    props);
-                            routeFutureList.add(routeFuture);
-                        }
+                    for (int i = 0; i < propsList.size(); i++) {
+                        route(position, batched ? i : -1, propsList.get(i), routeFutureList);
                     }
                     return FutureUtil.waitForAll(routeFutureList);
                 }
+
+                private void route(Position position, int batchIndex, Map<String, Object> props,
+                                   List<CompletableFuture<Void>> routeFutureList) {
+                    String routingKey = props.getOrDefault(MessageConvertUtils.PROP_ROUTING_KEY, "").toString();
+                    Collection<AmqpQueue> queues = bindingIndex.getQueues(routingKey, props);
+                    if (queues.isEmpty() && log.isDebugEnabled()) {
+                        log.debug("No queue is bound to the routingKey {} of exchange {}.", routingKey, exchangeName);
+                    }
+                    for (AmqpQueue queue : queues) {
+                        routeFutureList.add(
+                                queue.writeIndexMessageAsync(exchangeName, position.getLedgerId(),
+                                        position.getEntryId(), batchIndex, props));
+                    }
+                }
             };
             messageReplicator.startReplicate();
         }
-        this.amqpEntryWriter = new AmqpEntryWriter(persistentTopic);
+        this.amqpEntryWriter = new AmqpEntryWriter(persistentTopic, config.isAmqpEntryBatchingEnabled(),
+                config.getAmqpEntryBatchingMaxMessages(), config.getAmqpEntryBatchingMaxBytes(),
+                config.getAmqpEntryBatchingMaxPublishDelayMillis());
     }
 
     @Override
@@ -208,6 +243,17 @@ public class PersistentExchange extends AbstractAmqpExchange {
 
     @Override
     public CompletableFuture<Entry> readEntryAsync(String queueName, Position position) {
+        ExchangeEntryCache cache = entryCache;
+        int otherReads = ExchangeEntryCache.getOtherReads(exchangeType, queues.size());
+        if (cache == null || !cache.isEnabled() || otherReads <= 0) {
+            return readEntryFromLedger(position);
+        }
+        // the entry is read once from the ledger for all the queues
+        return cache.get(persistentTopic.getName(), position.getLedgerId(), position.getEntryId(), otherReads,
+                () -> readEntryFromLedger(position));
+    }
+
+    private CompletableFuture<Entry> readEntryFromLedger(Position position) {
         // TODO Temporarily put the creation operation here, and later put the operation in router
         CompletableFuture<Entry> future = new CompletableFuture<>();
         ((ManagedLedgerImpl) persistentTopic.getManagedLedger())
@@ -225,6 +271,48 @@ public class PersistentExchange extends AbstractAmqpExchange {
         return future;
     }
 
+    /**
+     * Read a range of entries, the entries of the ledgers before the current one are read from the ledger in one
+     * request with the entries in the gaps. The entries of the current ledger are likely in the managed ledger cache,
+     * only the wanted ones are read one by one from it.
+     */
+    @Override
+    public CompletableFuture<List<Entry>> readEntriesAsync(String queueName, ExchangeReadRange range) {
+        ManagedLedgerImpl managedLedger = (ManagedLedgerImpl) persistentTopic.getManagedLedger();
+        long ledgerId = range.getLedgerId();
+        long firstEntryId = range.getFirstEntryId();
+        long lastEntryId = range.getLastEntryId();
+        if (firstEntryId == lastEntryId || ledgerId >= managedLedger.getLastPosition().getLedgerId()) {
+            return super.readEntriesAsync(queueName, range);
+        }
+        ExchangeEntryCache cache = entryCache;
+        int otherReads = ExchangeEntryCache.getOtherReads(exchangeType, queues.size());
+        boolean cached = cache != null && cache.isEnabled() && otherReads > 0;
+        if (cached) {
+            List<Entry> entries = cache.getRange(persistentTopic.getName(), ledgerId, firstEntryId, lastEntryId);
+            if (entries != null) {
+                return CompletableFuture.completedFuture(entries);
+            }
+        }
+        return managedLedger.getLedgerHandle(ledgerId)
+                .thenCompose(ledger -> ledger.readAsync(firstEntryId, lastEntryId))
+                .thenApply(ledgerEntries -> {
+                    try {
+                        List<Entry> entries = new ArrayList<>((int) (lastEntryId - firstEntryId + 1));
+                        for (LedgerEntry ledgerEntry : ledgerEntries) {
+                            Entry entry = EntryImpl.create(ledgerEntry);
+                            if (cached) {
+                                cache.put(persistentTopic.getName(), entry, otherReads);
+                            }
+                            entries.add(entry);
+                        }
+                        return entries;
+                    } finally {
+                        ledgerEntries.close();
+                    }
+                });
+    }
+
     @Override
     public CompletableFuture<Void> markDeleteAsync(String queueName, long ledgerId, long entryId) {
         return markDeleteAsync(queueName, PositionImpl.get(ledgerId, entryId));
@@ -286,20 +374,7 @@ public class PersistentExchange extends AbstractAmqpExchange {
     @Override
     public CompletableFuture<Void> addQueue(AmqpQueue queue) {
         queues.add(queue);
-        if (exchangeType == Type.Direct) {
-            for (String bindingKey : queue.getRouter(exchangeName).getBindingKey()) {
-                bindingKeyQueueMap.compute(bindingKey, (k, v) -> {
-                    if (v == null) {
-                        Set<AmqpQueue> set = new HashSet<>();
-                        set.add(queue);
-                        return set;
-                    } else {
-                        v.add(queue);
-                        return v;
-                    }
-                });
-            }
-        }
+        updateBindingIndex();
         updateExchangeProperties();
         return createCursorIfNotExists(queue.getName()).thenApply(__ -> null);
     }
@@ -307,17 +382,7 @@ public class PersistentExchange extends AbstractAmqpExchange {
     @Override
     public void removeQueue(AmqpQueue queue) {
         queues.remove(queue);
-        if (exchangeType == Type.Direct) {
-            for (Map.Entry<String, Set<AmqpQueue>> entry : bindingKeyQueueMap.entrySet()) {
-                bindingKeyQueueMap.computeIfPresent(entry.getKey(), (k, v) -> {
-                    v.remove(queue);
-                    if (v.isEmpty()) {
-                        return null;
-                    }
-                    return v;
-                });
-            }
-        }
+        updateBindingIndex();
         updateExchangeProperties();
         deleteCursor(queue.getName());
     }
@@ -327,6 +392,14 @@ public class PersistentExchange extends AbstractAmqpExchange {
         return persistentTopic;
     }
 
+    private synchronized void updateBindingIndex() {
+        if (bindingIndex == null) {
+            // the bindings of multi-bundle mode are routed by the exchange message router
+            return;
+        }
+        bindingIndex = ExchangeBindingIndex.build(exchangeName, exchangeType, queues);
+    }
+
     private void updateExchangeProperties() {
         Map<String, String> properties = this.persistentTopic.getManagedLedger().getProperties();
         try {
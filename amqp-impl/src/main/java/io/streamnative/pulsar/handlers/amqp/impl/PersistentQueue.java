@@ -30,6 +30,7 @@ import io.streamnative.pulsar.handlers.amqp.AmqpMessageRouter;
 import io.streamnative.pulsar.handlers.amqp.AmqpProtocolHandler;
 import io.streamnative.pulsar.handlers.amqp.AmqpQueueProperties;
 import io.streamnative.pulsar.handlers.amqp.ExchangeContainer;
+import io.streamnative.pulsar.handlers.amqp.ExchangeReadRange;
 import io.streamnative.pulsar.handlers.amqp.IndexMessage;
 import io.streamnative.pulsar.handlers.amqp.common.exception.AoPServiceRuntimeException;
 import io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils;
@@ -415,8 +416,14 @@ public class PersistentQueue extends AbstractAmqpQueue {
     @Override
     public CompletableFuture<Void> writeIndexMessageAsync(String exchangeName, long ledgerId, long entryId,
                                                           Map<String, Object> properties) {
+        return writeIndexMessageAsync(exchangeName, ledgerId, entryId, -1, properties);
+    }
+
+    @Override
+    public CompletableFuture<Void> writeIndexMessageAsync(String exchangeName, long ledgerId, long entryId,
+                                                          int batchIndex, Map<String, Object> properties) {
         try {
-            IndexMessage indexMessage = IndexMessage.create(exchangeName, ledgerId, entryId, properties);
+            IndexMessage indexMessage = IndexMessage.create(exchangeName, ledgerId, entryId, batchIndex, properties);
             MessageImpl<byte[]> message = MessageConvertUtils.toPulsarMessage(indexMessage);
             return amqpEntryWriter.publishMessage(message).thenApply(__ -> null);
         } catch (Exception e) {
@@ -431,6 +438,11 @@ public class PersistentQueue extends AbstractAmqpQueue {
         return getRouter(exchangeName).getExchange().readEntryAsync(getName(), ledgerId, entryId);
     }
 
+    @Override
+    public CompletableFuture<List<Entry>> readEntriesAsync(String exchangeName, ExchangeReadRange range) {
+        return getRouter(exchangeName).getExchange().readEntriesAsync(getName(), range);
+    }
+
     @Override
     public CompletableFuture<Void> acknowledgeAsync(String exchangeName, long ledgerId, long entryId) {
         return getRouter(exchangeName).getExchange().markDeleteAsync(getName(), ledgerId, entryId);
@@ -482,7 +494,9 @@ public class PersistentQueue extends AbstractAmqpQueue {
                 messageRouter.setExchange(amqpExchange);
                 messageRouter.setArguments(arguments);
                 messageRouter.setBindingKeys(bindingKeys);
-                amqpExchange.addQueue(this).thenAccept(__ -> routers.put(exchangeName, messageRouter));
+                // the router is set before the queue is added, the exchange indexes the binding keys of it
+                routers.put(exchangeName, messageRouter);
+                amqpExchange.addQueue(this);
             });
         });
     }
@@ -16,8 +16,8 @@ package io.streamnative.pulsar.handlers.amqp.impl;
 import io.streamnative.pulsar.handlers.amqp.AbstractAmqpMessageRouter;
 import io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import org.apache.qpid.server.exchange.topic.TopicMatcherResult;
 import org.apache.qpid.server.exchange.topic.TopicParser;
 
@@ -26,10 +26,27 @@ import org.apache.qpid.server.exchange.topic.TopicParser;
  */
 public class TopicMessageRouter extends AbstractAmqpMessageRouter {
 
+    /**
+     * The parser of the binding keys, rebuilt when the binding keys change.
+     */
+    private volatile TopicParser parser;
+
     public TopicMessageRouter() {
         super(Type.Topic);
     }
 
+    @Override
+    public void addBindingKey(String bindingKey) {
+        super.addBindingKey(bindingKey);
+        parser = null;
+    }
+
+    @Override
+    public void setBindingKeys(Set<String> bindingKeys) {
+        super.setBindingKeys(bindingKeys);
+        parser = null;
+    }
+
     /**
      * Use Qpid.
      *
@@ -37,17 +54,16 @@ public class TopicMessageRouter extends AbstractAmqpMessageRouter {
      * @return
      */
     public boolean isMatch(String routingKey) {
-        TopicParser parser = new TopicParser();
-        Iterator iterator = this.bindingKeys.iterator();
-        while (iterator.hasNext()) {
-            parser.addBinding((String) iterator.next(), null);
+        TopicParser parser = this.parser;
+        if (parser == null) {
+            parser = new TopicParser();
+            for (String bindingKey : this.bindingKeys) {
+                parser.addBinding(bindingKey, null);
+            }
+            this.parser = parser;
         }
         Collection<TopicMatcherResult> results = parser.parse(routingKey);
-        if (results.size() > 0) {
-            return true;
-        } else {
-            return false;
-        }
+        return results.size() > 0;
     }
 
     /**
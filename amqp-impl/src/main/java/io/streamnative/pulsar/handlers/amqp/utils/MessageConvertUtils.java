@@ -16,16 +16,21 @@ package io.streamnative.pulsar.handlers.amqp.utils;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import com.google.common.collect.ImmutableList;
+import com.scurrilous.circe.checksum.Crc32cIntChecksum;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.streamnative.pulsar.handlers.amqp.AmqpMessageData;
 import io.streamnative.pulsar.handlers.amqp.IndexMessage;
 import io.streamnative.pulsar.handlers.amqp.admin.model.PublishParams;
 import io.streamnative.pulsar.handlers.amqp.common.exception.AoPServiceRuntimeException;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +39,7 @@ import java.util.concurrent.TimeUnit;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.client.api.CompressionType;
@@ -45,10 +51,10 @@ import org.apache.pulsar.client.impl.TypedMessageBuilderImpl;
 import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
 import org.apache.pulsar.common.api.proto.KeyValue;
 import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
 import org.apache.pulsar.common.compression.CompressionCodecProvider;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.qpid.server.bytebuffer.QpidByteBuffer;
-import org.apache.qpid.server.bytebuffer.SingleQpidByteBuffer;
 import org.apache.qpid.server.protocol.v0_8.AMQShortString;
 import org.apache.qpid.server.protocol.v0_8.FieldTable;
 import org.apache.qpid.server.protocol.v0_8.FieldTableFactory;
@@ -57,6 +63,7 @@ import org.apache.qpid.server.protocol.v0_8.transport.BasicContentHeaderProperti
 import org.apache.qpid.server.protocol.v0_8.transport.ContentBody;
 import org.apache.qpid.server.protocol.v0_8.transport.ContentHeaderBody;
 import org.apache.qpid.server.protocol.v0_8.transport.MessagePublishInfo;
+import org.apache.qpid.server.transport.ByteBufferSender;
 
 /**
  * Util for convert message between Pulsar and AMQP.
@@ -92,20 +99,65 @@ public final class MessageConvertUtils {
     private static final String PROP_MANDATORY = BASIC_PUBLISH_INFO_PRE + "mandatory";
     public static final String PROP_ROUTING_KEY = BASIC_PUBLISH_INFO_PRE + "routingKey";
     public static final String BASIC_PROP_HEADER_X_DELAY = BASIC_PROP_HEADER_PRE + "x-delay";
+    // wire-encoded content header of the compact format, the bytes are stored as an ISO-8859-1 string
+    public static final String PROP_CONTENT_HEADER = "_ch_";
 
     private static final Clock clock = Clock.systemDefaultZone();
 
     // convert qpid IncomingMessage to Pulsar MessageImpl
     public static MessageImpl<byte[]> toPulsarMessage(IncomingMessage incomingMessage)
             throws UnsupportedEncodingException {
+        return toPulsarMessage(incomingMessage, false);
+    }
+
+    /**
+     * Convert qpid IncomingMessage to Pulsar MessageImpl.
+     *
+     * @param incomingMessage the received AMQP message
+     * @param compactProperties store the content header as its wire-encoded bytes in one property, only the
+     *                          publish info, the expiration and the x-delay header are kept as plain properties
+     * @return the Pulsar message
+     */
+    public static MessageImpl<byte[]> toPulsarMessage(IncomingMessage incomingMessage, boolean compactProperties)
+            throws UnsupportedEncodingException {
+        return toPulsarMessage(incomingMessage, compactProperties, false);
+    }
+
+    /**
+     * Convert qpid IncomingMessage to Pulsar MessageImpl.
+     *
+     * @param incomingMessage the received AMQP message
+     * @param compactProperties store the content header as its wire-encoded bytes in one property
+     * @param copyContent copy the content body to a heap buffer and dispose the chunks right away, for producers
+     *                    that copy the payload anyway such as batching producers
+     * @return the Pulsar message
+     */
+    public static MessageImpl<byte[]> toPulsarMessage(IncomingMessage incomingMessage, boolean compactProperties,
+                                                      boolean copyContent)
+            throws UnsupportedEncodingException {
         MessageImpl<byte[]> message;
         // value
-        if (incomingMessage.getBodyCount() > 0) {
-            ByteBuf byteBuf = PulsarByteBufAllocator.DEFAULT.buffer((int)incomingMessage.getContentHeader().getBodySize());
+        if (incomingMessage.getBodyCount() > 0 && copyContent) {
+            int size = 0;
+            for (int i = 0; i < incomingMessage.getBodyCount(); i++) {
+                size += incomingMessage.getContentChunk(i).getPayload().remaining();
+            }
+            byte[] data = new byte[size];
+            int offset = 0;
             for (int i = 0; i < incomingMessage.getBodyCount(); i++) {
-                SingleQpidByteBuffer payload = (SingleQpidByteBuffer) incomingMessage.getContentChunk(i).getPayload();
-                byteBuf.writeBytes(payload.getUnderlyingBuffer());
-                payload.dispose();
+                QpidByteBuffer chunk = incomingMessage.getContentChunk(i).getPayload();
+                int length = chunk.remaining();
+                chunk.get(data, offset, length);
+                chunk.dispose();
+                offset += length;
+            }
+            message = MessageImpl.create(null, null, new MessageMetadata(), Unpooled.wrappedBuffer(data),
+                    Optional.empty(), null, Schema.BYTES, 0, false, -1L);
+        } else if (incomingMessage.getBodyCount() > 0) {
+            // keep the content body chunks as they are, they are disposed when the payload is released
+            QpidContentByteBuf byteBuf = new QpidContentByteBuf(incomingMessage.getBodyCount());
+            for (int i = 0; i < incomingMessage.getBodyCount(); i++) {
+                byteBuf.addChunk(incomingMessage.getContentChunk(i).getPayload());
             }
             message = MessageImpl.create(null, null, new MessageMetadata(), byteBuf,
                     Optional.empty(), null, Schema.BYTES, 0, true, -1L);
@@ -119,7 +171,11 @@ public final class MessageConvertUtils {
         ContentHeaderBody contentHeaderBody = incomingMessage.getContentHeader();
         BasicContentHeaderProperties props = contentHeaderBody.getProperties();
         try {
-            setProp(metadata, props);
+            if (compactProperties) {
+                setCompactProp(metadata, contentHeaderBody);
+            } else {
+                setProp(metadata, props);
+            }
             setProp(metadata, PROP_EXCHANGE, incomingMessage.getMessagePublishInfo().getExchange());
             setProp(metadata, PROP_IMMEDIATE, incomingMessage.getMessagePublishInfo().isImmediate());
             setProp(metadata, PROP_MANDATORY, incomingMessage.getMessagePublishInfo().isMandatory());
@@ -189,6 +245,87 @@ public final class MessageConvertUtils {
         }
     }
 
+    private static void setCompactProp(MessageMetadata msgMetadata, ContentHeaderBody contentHeaderBody)
+            throws UnsupportedEncodingException {
+        BasicContentHeaderProperties props = contentHeaderBody.getProperties();
+        if (props == null) {
+            return;
+        }
+        if (props.getTimestamp() > 0) {
+            msgMetadata.setEventTime(props.getTimestamp());
+        }
+        msgMetadata.addProperty().setKey(PROP_CONTENT_HEADER).setValue(encodeContentHeader(contentHeaderBody));
+        // the properties used by the broker itself stay readable without decoding the content header
+        if (props.getExpiration() > 0) {
+            setProp(msgMetadata, PROP_EXPIRATION, props.getExpiration());
+        }
+        if (props.getHeaders() != null) {
+            Object delay = props.getHeadersAsMap().get(BASIC_PROP_HEADER_X_DELAY.substring(
+                    BASIC_PROP_HEADER_PRE.length()));
+            setProp(msgMetadata, BASIC_PROP_HEADER_X_DELAY, delay);
+        }
+    }
+
+    private static String encodeContentHeader(ContentHeaderBody contentHeaderBody) {
+        byte[] bytes = new byte[contentHeaderBody.getSize()];
+        QpidByteBuffer buffer = QpidByteBuffer.wrap(bytes);
+        contentHeaderBody.writePayload(new ByteBufferSender() {
+            @Override
+            public boolean isDirectBufferPreferred() {
+                return false;
+            }
+
+            @Override
+            public void send(QpidByteBuffer msg) {
+                try (QpidByteBuffer duplicate = msg.duplicate()) {
+                    buffer.put(duplicate);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        buffer.dispose();
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static BasicContentHeaderProperties decodeContentHeader(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        try (QpidByteBuffer buffer = QpidByteBuffer.wrap(bytes)) {
+            return ContentHeaderBody.createFromBuffer(buffer, bytes.length).getProperties();
+        } catch (Exception e) {
+            throw new AoPServiceRuntimeException.GetMessageException(e);
+        }
+    }
+
+    /**
+     * Expand the compact content header of the message properties into the plain basic property and header
+     * properties, the properties are returned as they are if they are not in the compact format.
+     */
+    public static Map<String, String> expandCompactProperties(Map<String, String> properties) {
+        String contentHeader = properties.get(PROP_CONTENT_HEADER);
+        if (contentHeader == null) {
+            return properties;
+        }
+        MessageMetadata msgMetadata = new MessageMetadata();
+        try {
+            setProp(msgMetadata, decodeContentHeader(contentHeader));
+        } catch (UnsupportedEncodingException e) {
+            throw new AoPServiceRuntimeException.GetMessageException(e);
+        }
+        Map<String, String> expanded = new HashMap<>(properties);
+        expanded.remove(PROP_CONTENT_HEADER);
+        for (KeyValue keyValue : msgMetadata.getPropertiesList()) {
+            expanded.putIfAbsent(keyValue.getKey(), keyValue.getValue());
+        }
+        return expanded;
+    }
+
     public static MessageImpl<byte[]> toPulsarMessage(PublishParams params) {
         TypedMessageBuilderImpl<byte[]> builder = new TypedMessageBuilderImpl<>(null, Schema.BYTES);
         BasicContentHeaderProperties properties = new BasicContentHeaderProperties();
@@ -249,8 +386,7 @@ public final class MessageConvertUtils {
     }
 
     // convert message to ByteBuf payload for ledger.addEntry.
-    // parameter message is converted from passed in Kafka record.
-    // called when publish received Kafka Record into Pulsar.
+    // the payload of the message is moved into the returned buffer without copying it.
     public static ByteBuf messageToByteBuf(Message<byte[]> message) {
         checkArgument(message instanceof MessageImpl);
 
@@ -273,17 +409,153 @@ public final class MessageConvertUtils {
                 CompressionCodecProvider.convertToWireProtocol(CompressionType.NONE));
         msgMetadata.setUncompressedSize(payload.readableBytes());
 
-        ByteBuf buf = Commands.serializeMetadataAndPayload(Commands.ChecksumType.Crc32c, msgMetadata, payload);
+        ByteBuf buf = serializeMetadataAndPayload(msgMetadata, payload);
         msgMetadata.clear();
         return buf;
     }
 
+    // same wire format as Commands.serializeMetadataAndPayload with Crc32c checksum,
+    // but the payload is appended as a component instead of being copied.
+    private static ByteBuf serializeMetadataAndPayload(MessageMetadata msgMetadata, ByteBuf payload) {
+        int msgMetadataSize = msgMetadata.getSerializedSize();
+        // magic + checksum + metadata size + metadata
+        int headerSize = 2 + 4 + 4 + msgMetadataSize;
+        ByteBuf headers = PulsarByteBufAllocator.DEFAULT.buffer(headerSize, headerSize);
+        headers.writeShort(Commands.magicCrc32c);
+        int checksumIndex = headers.writerIndex();
+        headers.writerIndex(checksumIndex + 4);
+        headers.writeInt(msgMetadataSize);
+        msgMetadata.writeTo(headers);
+
+        int checksum = Crc32cIntChecksum.computeChecksum(
+                headers.slice(checksumIndex + 4, headers.writerIndex() - checksumIndex - 4));
+        for (ByteBuffer buffer : payload.nioBuffers()) {
+            checksum = Crc32cIntChecksum.resumeChecksum(checksum, Unpooled.wrappedBuffer(buffer));
+        }
+        headers.setInt(checksumIndex, checksum);
+
+        CompositeByteBuf metadataAndPayload = PulsarByteBufAllocator.DEFAULT.compositeBuffer(2);
+        metadataAndPayload.addComponents(true, headers, payload);
+        return metadataAndPayload;
+    }
+
+    // append the message to the payload of a batch entry, the payload of the message is released.
+    public static void addMessageToBatch(Message<byte[]> message, ByteBuf batchBuffer) {
+        checkArgument(message instanceof MessageImpl);
+
+        MessageImpl<byte[]> msg = (MessageImpl<byte[]>) message;
+        MessageMetadata msgMetadata = msg.getMessageBuilder();
+        ByteBuf payload = msg.getDataBuffer();
+        try {
+            Commands.serializeSingleMessageInBatchWithPayload(msgMetadata, payload, batchBuffer);
+        } finally {
+            payload.release();
+            msgMetadata.clear();
+        }
+    }
+
+    // convert the payload of a batch entry to ByteBuf for ledger.addEntry, the batch payload is released.
+    public static ByteBuf batchToByteBuf(ByteBuf batchBuffer, int numMessages) {
+        MessageMetadata msgMetadata = new MessageMetadata()
+                .setSequenceId(-1)
+                .setPublishTime(clock.millis())
+                .setProducerName(FAKE_AMQP_PRODUCER_NAME)
+                .setNumMessagesInBatch(numMessages)
+                .setCompression(CompressionCodecProvider.convertToWireProtocol(CompressionType.NONE))
+                .setUncompressedSize(batchBuffer.readableBytes());
+        try {
+            return Commands.serializeMetadataAndPayload(Commands.ChecksumType.Crc32c, msgMetadata, batchBuffer);
+        } finally {
+            batchBuffer.release();
+        }
+    }
+
+    // the metadata of a message of a batch entry, as the metadata of a non-batch message.
+    public static MessageMetadata toMessageMetadata(MessageMetadata batchMetadata,
+                                                    SingleMessageMetadata singleMessageMetadata) {
+        MessageMetadata msgMetadata = new MessageMetadata()
+                .setProducerName(batchMetadata.getProducerName())
+                .setSequenceId(singleMessageMetadata.hasSequenceId()
+                        ? singleMessageMetadata.getSequenceId() : batchMetadata.getSequenceId())
+                .setPublishTime(batchMetadata.getPublishTime());
+        for (KeyValue keyValue : singleMessageMetadata.getPropertiesList()) {
+            msgMetadata.addProperty().setKey(keyValue.getKey()).setValue(keyValue.getValue());
+        }
+        if (singleMessageMetadata.hasPartitionKey()) {
+            msgMetadata.setPartitionKey(singleMessageMetadata.getPartitionKey());
+        }
+        if (singleMessageMetadata.hasEventTime()) {
+            msgMetadata.setEventTime(singleMessageMetadata.getEventTime());
+        }
+        return msgMetadata;
+    }
+
+    // get the properties of each message in the entry, a non-batch entry has only one message.
+    public static List<Map<String, Object>> getPropertiesFromEntry(MessageMetadata msgMetadata, ByteBuf payload)
+            throws IOException {
+        return getPropertiesFromEntry(msgMetadata, payload, false);
+    }
+
+    /**
+     * Get the properties of each message in the entry, a non-batch entry has only one message.
+     *
+     * @param msgMetadata metadata of the entry
+     * @param payload payload of the entry
+     * @param includeHeaders whether the headers of a compact content header are needed, the content header is
+     *                       only decoded in this case
+     * @return the properties of each message
+     */
+    public static List<Map<String, Object>> getPropertiesFromEntry(MessageMetadata msgMetadata, ByteBuf payload,
+                                                                   boolean includeHeaders) throws IOException {
+        if (!msgMetadata.hasNumMessagesInBatch()) {
+            return Collections.singletonList(toPropertiesMap(msgMetadata.getPropertiesList(), includeHeaders));
+        }
+        int numMessages = msgMetadata.getNumMessagesInBatch();
+        List<Map<String, Object>> propertiesList = new ArrayList<>(numMessages);
+        SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+        for (int i = 0; i < numMessages; i++) {
+            Commands.deSerializeSingleMessageInBatch(payload, singleMessageMetadata, i, numMessages).release();
+            propertiesList.add(toPropertiesMap(singleMessageMetadata.getPropertiesList(), includeHeaders));
+        }
+        return propertiesList;
+    }
+
+    private static Map<String, Object> toPropertiesMap(List<KeyValue> keyValues, boolean includeHeaders) {
+        Map<String, Object> properties = new HashMap<>(keyValues.size());
+        for (KeyValue keyValue : keyValues) {
+            if (PROP_CONTENT_HEADER.equals(keyValue.getKey())) {
+                if (includeHeaders) {
+                    BasicContentHeaderProperties props = decodeContentHeader(keyValue.getValue());
+                    if (props.getHeaders() != null) {
+                        props.getHeadersAsMap().forEach((key, value) ->
+                                properties.putIfAbsent(BASIC_PROP_HEADER_PRE + key, String.valueOf(value)));
+                    }
+                }
+                continue;
+            }
+            properties.put(keyValue.getKey(), keyValue.getValue());
+        }
+        return properties;
+    }
+
     public static Pair<BasicContentHeaderProperties, MessagePublishInfo> getPropertiesFromMetadata(
             List<KeyValue> propertiesList) throws UnsupportedEncodingException {
-        BasicContentHeaderProperties props = new BasicContentHeaderProperties();
+        BasicContentHeaderProperties props = null;
         Map<String, Object> headers = new HashMap<>();
         MessagePublishInfo messagePublishInfo = new MessagePublishInfo();
 
+        for (KeyValue keyValue : propertiesList) {
+            if (PROP_CONTENT_HEADER.equals(keyValue.getKey())) {
+                props = decodeContentHeader(keyValue.getValue());
+                break;
+            }
+        }
+        if (props == null) {
+            props = new BasicContentHeaderProperties();
+        } else if (props.getHeaders() != null) {
+            headers.putAll(props.getHeadersAsMap());
+        }
+
         for (KeyValue keyValue : propertiesList) {
             switch (keyValue.getKey()) {
                 case PROP_CONTENT_TYPE:
@@ -340,6 +612,8 @@ public final class MessageConvertUtils {
                 case PROP_ROUTING_KEY:
                     messagePublishInfo.setRoutingKey(AMQShortString.createAMQShortString(keyValue.getValue()));
                     break;
+                case PROP_CONTENT_HEADER:
+                    break;
                 default:
                     headers.put(keyValue.getKey().substring(BASIC_PROP_HEADER_PRE.length()), keyValue.getValue());
             }
@@ -350,10 +624,20 @@ public final class MessageConvertUtils {
 
     public static Pair<BasicContentHeaderProperties, MessagePublishInfo> getPropertiesFromMetadata(
             Map<String, String> messageProperties) throws UnsupportedEncodingException {
-        BasicContentHeaderProperties props = new BasicContentHeaderProperties();
+        BasicContentHeaderProperties props = null;
         Map<String, Object> headers = new HashMap<>();
         MessagePublishInfo messagePublishInfo = new MessagePublishInfo();
 
+        String contentHeader = messageProperties.get(PROP_CONTENT_HEADER);
+        if (contentHeader == null) {
+            props = new BasicContentHeaderProperties();
+        } else {
+            props = decodeContentHeader(contentHeader);
+            if (props.getHeaders() != null) {
+                headers.putAll(props.getHeadersAsMap());
+            }
+        }
+
         for (Map.Entry<String, String> keyValue : messageProperties.entrySet()) {
             switch (keyValue.getKey()) {
                 case PROP_CONTENT_TYPE:
@@ -410,6 +694,8 @@ public final class MessageConvertUtils {
                 case PROP_ROUTING_KEY:
                     messagePublishInfo.setRoutingKey(AMQShortString.createAMQShortString(keyValue.getValue()));
                     break;
+                case PROP_CONTENT_HEADER:
+                    break;
                 default:
                     headers.put(keyValue.getKey().substring(BASIC_PROP_HEADER_PRE.length()), keyValue.getValue());
             }
@@ -441,19 +727,28 @@ public final class MessageConvertUtils {
             // need handle encryption
             checkState(msgMetadata.getEncryptionKeysCount() == 0);
 
-            if (notBatchMessage) {
-                Pair<BasicContentHeaderProperties, MessagePublishInfo> metaData =
-                        getPropertiesFromMetadata(msgMetadata.getPropertiesList());
-
-                byte[] data = new byte[payload.readableBytes()];
-                payload.readBytes(data);
-                builder.add(AmqpMessageData.builder()
-                        .messagePublishInfo(metaData.getRight())
-                        .contentHeaderBody(new ContentHeaderBody(metaData.getLeft()))
-                        .contentBody(new ContentBody(QpidByteBuffer.wrap(data)))
-                        .build());
-            } else {
-                // currently, no consider for batch
+            try {
+                if (notBatchMessage) {
+                    builder.add(toAmqpMessageData(msgMetadata.getPropertiesList(), payload));
+                } else {
+                    SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+                    for (int i = 0; i < numMessages; i++) {
+                        ByteBuf singleMessagePayload = Commands.deSerializeSingleMessageInBatch(
+                                payload, singleMessageMetadata, i, numMessages);
+                        try {
+                            builder.add(toAmqpMessageData(singleMessageMetadata.getPropertiesList(),
+                                    singleMessagePayload));
+                        } finally {
+                            singleMessagePayload.release();
+                        }
+                    }
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new AoPServiceRuntimeException.GetMessageException(e);
+            } finally {
+                payload.release();
             }
         }
         return builder.build();
@@ -461,6 +756,18 @@ public final class MessageConvertUtils {
 
     public static AmqpMessageData entryToAmqpBody(Entry entry)
             throws UnsupportedEncodingException {
+        return entryToAmqpBody(entry, -1);
+    }
+
+    /**
+     * Convert the entry to AMQP message data.
+     *
+     * @param entry entry read from the exchange
+     * @param batchIndex index of the message in the batch entry, -1 if the entry is not a batch entry
+     * @return AMQP message data, or null if the batch index does not match the entry
+     */
+    public static AmqpMessageData entryToAmqpBody(Entry entry, int batchIndex)
+            throws UnsupportedEncodingException {
         AmqpMessageData amqpMessage = null;
         // TODO convert bk entries to amqpbody,
         //  then assemble deliver body with ContentHeaderBody and ContentBody
@@ -472,9 +779,9 @@ public final class MessageConvertUtils {
         ByteBuf payload = metadataAndPayload.retain();
         try {
             if (log.isDebugEnabled()) {
-                log.debug("entryToRecord.  NumMessagesInBatch: {}, isBatchMessage: {}."
+                log.debug("entryToRecord.  NumMessagesInBatch: {}, isBatchMessage: {}, batchIndex: {}."
                                 + " new entryId {}:{}, readerIndex: {},  writerIndex: {}",
-                        numMessages, !notBatchMessage, entry.getLedgerId(),
+                        numMessages, !notBatchMessage, batchIndex, entry.getLedgerId(),
                         entry.getEntryId(), payload.readerIndex(), payload.writerIndex());
             }
 
@@ -482,28 +789,52 @@ public final class MessageConvertUtils {
             checkState(msgMetadata.getEncryptionKeysCount() == 0);
 
             if (notBatchMessage) {
-                Pair<BasicContentHeaderProperties, MessagePublishInfo> metaData =
-                        getPropertiesFromMetadata(msgMetadata.getPropertiesList());
-
-                ContentHeaderBody contentHeaderBody = new ContentHeaderBody(metaData.getLeft());
-                contentHeaderBody.setBodySize(payload.readableBytes());
-
-                byte[] data = new byte[payload.readableBytes()];
-                payload.readBytes(data);
-                amqpMessage = AmqpMessageData.builder()
-                        .messagePublishInfo(metaData.getRight())
-                        .contentHeaderBody(contentHeaderBody)
-                        .contentBody(new ContentBody(QpidByteBuffer.wrap(data)))
-                        .build();
+                amqpMessage = toAmqpMessageData(msgMetadata.getPropertiesList(), payload);
+            } else if (batchIndex >= 0 && batchIndex < numMessages) {
+                SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+                for (int i = 0; i <= batchIndex; i++) {
+                    ByteBuf singleMessagePayload = Commands.deSerializeSingleMessageInBatch(
+                            payload, singleMessageMetadata, i, numMessages);
+                    try {
+                        if (i == batchIndex) {
+                            amqpMessage = toAmqpMessageData(singleMessageMetadata.getPropertiesList(),
+                                    singleMessagePayload);
+                        }
+                    } finally {
+                        singleMessagePayload.release();
+                    }
+                }
             } else {
-                // currently, no consider for batch
+                log.warn("Invalid batch index {} for entry {}:{} with {} messages.",
+                        batchIndex, entry.getLedgerId(), entry.getEntryId(), numMessages);
             }
             return amqpMessage;
+        } catch (UnsupportedEncodingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new AoPServiceRuntimeException.GetMessageException(e);
         } finally {
             payload.release();
         }
     }
 
+    private static AmqpMessageData toAmqpMessageData(List<KeyValue> propertiesList, ByteBuf payload)
+            throws UnsupportedEncodingException {
+        Pair<BasicContentHeaderProperties, MessagePublishInfo> metaData =
+                getPropertiesFromMetadata(propertiesList);
+
+        ContentHeaderBody contentHeaderBody = new ContentHeaderBody(metaData.getLeft());
+        contentHeaderBody.setBodySize(payload.readableBytes());
+
+        byte[] data = new byte[payload.readableBytes()];
+        payload.readBytes(data);
+        return AmqpMessageData.builder()
+                .messagePublishInfo(metaData.getRight())
+                .contentHeaderBody(contentHeaderBody)
+                .contentBody(new ContentBody(QpidByteBuffer.wrap(data)))
+                .build();
+    }
+
     public static AmqpMessageData messageToAmqpBody(Message<byte[]> message)
             throws UnsupportedEncodingException {
         AmqpMessageData amqpMessage;
@@ -568,20 +899,44 @@ public final class MessageConvertUtils {
         ByteBuf payload = metadataAndPayload.retain();
 
         try {
-            long ledgerId = payload.readLong();
-            long entryId = payload.readLong();
-            String exchangeName = payload.readCharSequence(payload.readableBytes(), StandardCharsets.ISO_8859_1)
-                    .toString();
-            return IndexMessage.create(exchangeName, ledgerId, entryId, null);
+            return IndexMessage.create(payload);
         } finally {
             payload.release();
         }
     }
 
+    // the exchange entry of a batch can only be mark deleted after its last message is acknowledged,
+    // so the previous entry is used for the other messages of the batch.
+    public static PositionImpl getMarkDeletePosition(Entry entry, int batchIndex) {
+        if (batchIndex >= 0
+                && batchIndex < Commands.getNumberOfMessagesInBatch(entry.getDataBuffer(), "", -1) - 1) {
+            return PositionImpl.get(entry.getLedgerId(), entry.getEntryId() - 1);
+        }
+        return PositionImpl.get(entry.getLedgerId(), entry.getEntryId());
+    }
+
+    /**
+     * Get the headers of a message from the properties of its metadata, the header values are strings.
+     */
+    public static Map<String, Object> getHeaders(List<KeyValue> properties) {
+        Map<String, Object> headers = new HashMap<>();
+        for (KeyValue keyValue : properties) {
+            if (keyValue.getKey().startsWith(BASIC_PROP_HEADER_PRE)) {
+                headers.put(keyValue.getKey().substring(BASIC_PROP_HEADER_PRE.length()), keyValue.getValue());
+            } else if (PROP_CONTENT_HEADER.equals(keyValue.getKey())) {
+                BasicContentHeaderProperties props = decodeContentHeader(keyValue.getValue());
+                if (props.getHeaders() != null) {
+                    props.getHeadersAsMap().forEach((key, value) -> headers.putIfAbsent(key, String.valueOf(value)));
+                }
+            }
+        }
+        return headers;
+    }
+
     public static Map<String, Object> getHeaders(Message<byte[]> message) {
         Map<String, Object> headers = new HashMap<>();
 
-        for (Map.Entry<String, String> entry : message.getProperties().entrySet()) {
+        for (Map.Entry<String, String> entry : expandCompactProperties(message.getProperties()).entrySet()) {
             if (entry.getKey().startsWith(BASIC_PROP_HEADER_PRE)) {
                 headers.put(entry.getKey().replaceFirst(BASIC_PROP_HEADER_PRE, ""), entry.getValue());
             }
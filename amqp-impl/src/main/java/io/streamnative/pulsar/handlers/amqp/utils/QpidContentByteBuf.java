@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.utils;
+
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.apache.qpid.server.bytebuffer.MultiQpidByteBuffer;
+import org.apache.qpid.server.bytebuffer.QpidByteBuffer;
+import org.apache.qpid.server.bytebuffer.SingleQpidByteBuffer;
+
+/**
+ * Composite buffer over the content body chunks of an AMQP message without copying them.
+ *
+ * <p>The chunks are owned by this buffer, they are disposed when the buffer is deallocated.
+ */
+public class QpidContentByteBuf extends CompositeByteBuf {
+
+    private final List<QpidByteBuffer> chunks;
+
+    public QpidContentByteBuf(int maxNumComponents) {
+        super(PulsarByteBufAllocator.DEFAULT, true, maxNumComponents);
+        this.chunks = new ArrayList<>(maxNumComponents);
+    }
+
+    public QpidContentByteBuf addChunk(QpidByteBuffer chunk) {
+        chunks.add(chunk);
+        if (chunk instanceof SingleQpidByteBuffer) {
+            addBuffer(((SingleQpidByteBuffer) chunk).getUnderlyingBuffer());
+        } else if (chunk instanceof MultiQpidByteBuffer) {
+            for (ByteBuffer buffer : ((MultiQpidByteBuffer) chunk).getUnderlyingBuffers()) {
+                addBuffer(buffer);
+            }
+        } else {
+            byte[] data = new byte[chunk.remaining()];
+            chunk.duplicate().get(data);
+            addComponent(true, Unpooled.wrappedBuffer(data));
+        }
+        return this;
+    }
+
+    private void addBuffer(ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            // the wrapped buffer never frees the memory, it's returned to the Qpid pool by QpidByteBuffer#dispose
+            addComponent(true, Unpooled.wrappedBuffer(buffer));
+        }
+    }
+
+    @Override
+    protected void deallocate() {
+        super.deallocate();
+        for (QpidByteBuffer chunk : chunks) {
+            chunk.dispose();
+        }
+        chunks.clear();
+    }
+}
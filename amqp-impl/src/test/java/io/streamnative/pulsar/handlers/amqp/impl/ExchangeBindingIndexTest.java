@@ -0,0 +1,136 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.amqp.AbstractAmqpMessageRouter;
+import io.streamnative.pulsar.handlers.amqp.AmqpExchange;
+import io.streamnative.pulsar.handlers.amqp.AmqpQueue;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.testng.annotations.Test;
+
+/**
+ * Exchange binding index test.
+ */
+public class ExchangeBindingIndexTest {
+
+    @Test
+    private void directIndex() {
+        TestExchange exchange = new TestExchange(AmqpExchange.Type.Direct);
+        AmqpQueue q1 = exchange.bind("q1", "a", null);
+        exchange.bind("q1", "b", null);
+        exchange.bind("q2", "a", null);
+
+        assertEquals(exchange.route("a", null), Set.of("q1", "q2"));
+        assertEquals(exchange.route("b", null), Set.of("q1"));
+        assertTrue(exchange.route("c", null).isEmpty());
+
+        // the index is rebuilt when a queue is removed, the previous one is left unchanged
+        ExchangeBindingIndex previous = exchange.index;
+        exchange.unbind(q1);
+        assertEquals(exchange.route("a", null), Set.of("q2"));
+        assertTrue(exchange.route("b", null).isEmpty());
+        assertEquals(names(previous.getQueues("b", null)), Set.of("q1"));
+    }
+
+    @Test
+    private void fanoutIndex() {
+        TestExchange exchange = new TestExchange(AmqpExchange.Type.Fanout);
+        assertTrue(exchange.route("a", null).isEmpty());
+        AmqpQueue q1 = exchange.bind("q1", "a", null);
+        exchange.bind("q2", "", null);
+
+        assertEquals(exchange.route("b", null), Set.of("q1", "q2"));
+        exchange.unbind(q1);
+        assertEquals(exchange.route("a", null), Set.of("q2"));
+    }
+
+    @Test
+    private void topicIndex() {
+        TestExchange exchange = new TestExchange(AmqpExchange.Type.Topic);
+        exchange.bind("q1", "a.*", null);
+        AmqpQueue q2 = exchange.bind("q2", "a.#", null);
+        exchange.bind("q3", "#", null);
+
+        assertEquals(exchange.route("a.b", null), Set.of("q1", "q2", "q3"));
+        assertEquals(exchange.route("a.b.c", null), Set.of("q2", "q3"));
+        assertEquals(exchange.route("b", null), Set.of("q3"));
+
+        // a new binding key of a bound queue is routed once the index is rebuilt
+        exchange.bind("q1", "b", null);
+        assertEquals(exchange.route("b", null), Set.of("q1", "q3"));
+        exchange.unbind(q2);
+        assertEquals(exchange.route("a.b.c", null), Set.of("q3"));
+    }
+
+    @Test
+    private void headersIndex() {
+        TestExchange exchange = new TestExchange(AmqpExchange.Type.Headers);
+        exchange.bind("all", "", Map.of("x-match", "all", "format", "pdf", "type", "report"));
+        AmqpQueue any = exchange.bind("any", "", Map.of("x-match", "any", "format", "zip", "type", "log"));
+
+        assertEquals(exchange.route("", Map.of("format", "pdf", "type", "report")), Set.of("all"));
+        assertEquals(exchange.route("", Map.of("format", "pdf", "type", "log")), Set.of("any"));
+        assertEquals(exchange.route("", Map.of("format", "zip")), Set.of("any"));
+        assertTrue(exchange.route("", Map.of("format", "doc")).isEmpty());
+
+        exchange.unbind(any);
+        assertTrue(exchange.route("", Map.of("format", "zip")).isEmpty());
+        assertEquals(exchange.route("", Map.of("format", "pdf", "type", "report")), Set.of("all"));
+    }
+
+    private static Set<String> names(Collection<AmqpQueue> queues) {
+        return queues.stream().map(AmqpQueue::getName).collect(Collectors.toSet());
+    }
+
+    /**
+     * An exchange whose binding index is rebuilt on every queue added or removed, as the persistent exchange does.
+     */
+    private static class TestExchange {
+        private final AmqpExchange exchange;
+        private final Set<AmqpQueue> queues = new LinkedHashSet<>();
+        private ExchangeBindingIndex index;
+
+        private TestExchange(AmqpExchange.Type type) {
+            exchange = new InMemoryExchange("ex", type, false);
+            index = ExchangeBindingIndex.build(exchange.getName(), type, queues);
+        }
+
+        private AmqpQueue bind(String queueName, String bindingKey, Map<String, Object> arguments) {
+            AmqpQueue queue = queues.stream().filter(q -> q.getName().equals(queueName)).findFirst()
+                    .orElseGet(() -> new InMemoryQueue(queueName, 0));
+            queue.bindExchange(exchange, AbstractAmqpMessageRouter.generateRouter(exchange.getType()), bindingKey,
+                    arguments);
+            queues.add(queue);
+            index = ExchangeBindingIndex.build(exchange.getName(), exchange.getType(), queues);
+            return queue;
+        }
+
+        private void unbind(AmqpQueue queue) {
+            queue.unbindExchange(exchange);
+            queues.remove(queue);
+            index = ExchangeBindingIndex.build(exchange.getName(), exchange.getType(), queues);
+        }
+
+        private Set<String> route(String routingKey, Map<String, Object> headers) {
+            return names(index.getQueues(routingKey, headers));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.testng.Assert.assertEquals;
+
+import io.streamnative.pulsar.handlers.amqp.AdaptiveRouteWindow;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+/**
+ * Adaptive route window test.
+ */
+public class AdaptiveRouteWindowTest {
+
+    @Test
+    private void resize() {
+        AdaptiveRouteWindow window = new AdaptiveRouteWindow("test", 64, 16, 72, 10);
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+        long slow = TimeUnit.MILLISECONDS.toNanos(15);
+        long verySlow = TimeUnit.MILLISECONDS.toNanos(30);
+
+        // not limited by the window, it's kept
+        window.record(fast, 64);
+        assertEquals(window.getSize(), 64);
+
+        window.onLimited();
+        window.record(fast, 64);
+        assertEquals(window.getSize(), 72);
+        // bounded by the maximum size
+        window.onLimited();
+        window.record(fast, 72);
+        assertEquals(window.getSize(), 72);
+
+        window.record(slow, 72);
+        assertEquals(window.getSize(), 54);
+        window.record(verySlow, 54);
+        assertEquals(window.getSize(), 27);
+        window.record(verySlow, 27);
+        assertEquals(window.getSize(), 16);
+
+        // the samples of a period are averaged
+        window = new AdaptiveRouteWindow("test", 16, 4, 72, 10);
+        window.onLimited();
+        for (int i = 0; i < 8; i++) {
+            window.record(slow);
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals(window.getSize(), 16);
+            window.record(fast);
+        }
+        assertEquals(window.getSize(), 18);
+    }
+
+}
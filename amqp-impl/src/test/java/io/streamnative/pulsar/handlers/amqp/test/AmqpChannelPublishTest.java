@@ -0,0 +1,399 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import io.streamnative.pulsar.handlers.amqp.AmqpBrokerService;
+import io.streamnative.pulsar.handlers.amqp.AmqpChannel;
+import io.streamnative.pulsar.handlers.amqp.AmqpConnection;
+import io.streamnative.pulsar.handlers.amqp.AmqpExchange;
+import io.streamnative.pulsar.handlers.amqp.AmqpMultiBundlesChannel;
+import io.streamnative.pulsar.handlers.amqp.AmqpQueue;
+import io.streamnative.pulsar.handlers.amqp.AmqpServiceConfiguration;
+import io.streamnative.pulsar.handlers.amqp.ExchangeContainer;
+import io.streamnative.pulsar.handlers.amqp.QueueContainer;
+import io.streamnative.pulsar.handlers.amqp.UnacknowledgedMessageMap;
+import io.streamnative.pulsar.handlers.amqp.admin.AmqpAdmin;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.common.naming.NamespaceName;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.qpid.server.bytebuffer.QpidByteBuffer;
+import org.apache.qpid.server.protocol.ErrorCodes;
+import org.apache.qpid.server.protocol.ProtocolVersion;
+import org.apache.qpid.server.protocol.v0_8.AMQShortString;
+import org.apache.qpid.server.protocol.v0_8.transport.AMQBody;
+import org.apache.qpid.server.protocol.v0_8.transport.AMQDataBlock;
+import org.apache.qpid.server.protocol.v0_8.transport.AMQFrame;
+import org.apache.qpid.server.protocol.v0_8.transport.BasicContentHeaderProperties;
+import org.apache.qpid.server.protocol.v0_8.transport.MethodRegistry;
+import org.apache.qpid.server.protocol.v0_8.transport.TxCommitOkBody;
+import org.apache.qpid.server.protocol.v0_8.transport.TxRollbackOkBody;
+import org.apache.qpid.server.protocol.v0_8.transport.TxSelectOkBody;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * AMQP channel publish test.
+ */
+public class AmqpChannelPublishTest {
+
+    private EventLoop eventLoop;
+    private AmqpConnection connection;
+    private AmqpBrokerService amqpBrokerService;
+    private ExchangeContainer exchangeContainer;
+    private QueueContainer queueContainer;
+    private AmqpChannel channel;
+
+    @BeforeMethod
+    private void setup() {
+        eventLoop = new DefaultEventLoop();
+        connection = mock(AmqpConnection.class);
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        Channel nettyChannel = mock(Channel.class);
+        when(connection.getCtx()).thenReturn(ctx);
+        when(ctx.channel()).thenReturn(nettyChannel);
+        when(nettyChannel.eventLoop()).thenReturn(eventLoop);
+        when(connection.getAmqpConfig()).thenReturn(new AmqpServiceConfiguration());
+        when(connection.getNamespaceName()).thenReturn(NamespaceName.get("public", "vhost1"));
+        when(connection.getMethodRegistry()).thenReturn(new MethodRegistry(ProtocolVersion.v0_91));
+
+        amqpBrokerService = mock(AmqpBrokerService.class);
+        exchangeContainer = mock(ExchangeContainer.class);
+        queueContainer = mock(QueueContainer.class);
+        when(amqpBrokerService.getExchangeContainer()).thenReturn(exchangeContainer);
+        when(amqpBrokerService.getQueueContainer()).thenReturn(queueContainer);
+        channel = new AmqpChannel(1, connection, amqpBrokerService);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    private void cleanup() {
+        eventLoop.shutdownGracefully();
+    }
+
+    @Test
+    private void closeWithParkedPublish() throws Exception {
+        // the default exchange isn't resolved yet, the message is parked
+        CompletableFuture<AmqpExchange> exchangeFuture = new CompletableFuture<>();
+        when(exchangeContainer.asyncGetExchange(any(), anyString(), anyBoolean(), any())).thenReturn(exchangeFuture);
+        when(queueContainer.asyncGetQueue(any(), anyString(), anyBoolean()))
+                .thenReturn(CompletableFuture.completedFuture(mock(AmqpQueue.class)));
+        byte[] content = new byte[]{1, 2, 3};
+        eventLoop.submit(() -> {
+            channel.receiveBasicPublish(AMQShortString.EMPTY_STRING, AMQShortString.valueOf("queue"), false, false);
+            channel.receiveMessageHeader(new BasicContentHeaderProperties(), content.length);
+            channel.receiveMessageContent(QpidByteBuffer.wrap(content));
+            channel.close();
+        }).get();
+        verify(connection).acquirePublishMemory(content.length);
+        verify(connection).releasePublishMemory(content.length);
+
+        // the parked message is dropped with the channel, it's not published once the destination is resolved
+        AmqpExchange exchange = mock(AmqpExchange.class);
+        exchangeFuture.complete(exchange);
+        eventLoop.submit(() -> { }).get();
+        verify(exchangeContainer, times(1)).asyncGetExchange(any(), anyString(), anyBoolean(), any());
+        verify(exchange, never()).writeMessageAsync(any(), any());
+        verify(connection, never()).writeFrame(any());
+    }
+
+    @Test
+    private void closeMultiBundlesChannelWithParkedPublish() throws Exception {
+        // the queue isn't bound to the default exchange yet, the message is parked
+        AopProtocolHandlerTestBase.setFieldValue(AmqpConnection.class, connection, "publishInfoMap",
+                new ConcurrentHashMap<>());
+        AopProtocolHandlerTestBase.setFieldValue(AmqpConnection.class, connection, "producerMap",
+                new ConcurrentHashMap<>());
+        AmqpAdmin amqpAdmin = mock(AmqpAdmin.class);
+        when(amqpBrokerService.getAmqpAdmin()).thenReturn(amqpAdmin);
+        when(connection.getAmqpBrokerService()).thenReturn(amqpBrokerService);
+        CompletableFuture<Void> declareFuture = new CompletableFuture<>();
+        when(amqpAdmin.exchangeDeclare(any(), anyString(), any())).thenReturn(declareFuture);
+        AmqpChannel multiBundlesChannel = new AmqpMultiBundlesChannel(1, connection, amqpBrokerService);
+        byte[] content = new byte[]{1, 2, 3};
+        eventLoop.submit(() -> {
+            multiBundlesChannel.receiveBasicPublish(AMQShortString.EMPTY_STRING, AMQShortString.valueOf("queue"),
+                    false, false);
+            multiBundlesChannel.receiveMessageHeader(new BasicContentHeaderProperties(), content.length);
+            multiBundlesChannel.receiveMessageContent(QpidByteBuffer.wrap(content));
+            multiBundlesChannel.close();
+        }).get();
+        verify(connection).acquirePublishMemory(content.length);
+        verify(connection).releasePublishMemory(content.length);
+
+        // the parked message is dropped with the channel, it's not published once the queue is bound
+        when(amqpAdmin.queueBind(any(), anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        declareFuture.complete(null);
+        eventLoop.submit(() -> { }).get();
+        verify(amqpAdmin, never()).loadExchange(any(), anyString());
+        verify(connection, never()).writeFrame(any());
+    }
+
+    @Test
+    private void rejectMessageLargerThanBroker() throws Exception {
+        AmqpServiceConfiguration config = connection.getAmqpConfig();
+        config.setAmqpMaxMessageSize(10 * 1024);
+        config.setMaxMessageSize(1024);
+        eventLoop.submit(() -> {
+            channel.receiveBasicPublish(AMQShortString.valueOf("ex"), AMQShortString.valueOf("key"), false, false);
+            channel.receiveMessageHeader(new BasicContentHeaderProperties(), 1025);
+        }).get();
+
+        // the body is rejected before it is buffered
+        verify(connection).closeChannelAndWriteFrame(eq(channel), eq(ErrorCodes.MESSAGE_TOO_LARGE), anyString());
+        verify(connection, never()).acquirePublishMemory(anyLong());
+    }
+
+    @Test
+    private void rejectMessageLargerThanPublishMemory() throws Exception {
+        connection.getAmqpConfig().setAmqpMaxPublishMemoryBytes(1024);
+        eventLoop.submit(() -> {
+            channel.receiveBasicPublish(AMQShortString.valueOf("ex"), AMQShortString.valueOf("key"), false, false);
+            channel.receiveMessageHeader(new BasicContentHeaderProperties(), 1025);
+        }).get();
+
+        // the body could never be reserved from the publish memory
+        verify(connection).closeChannelAndWriteFrame(eq(channel), eq(ErrorCodes.MESSAGE_TOO_LARGE), anyString());
+        verify(connection, never()).acquirePublishMemory(anyLong());
+    }
+
+    @Test
+    private void completeMessageOverPublishMemory() throws Exception {
+        AmqpExchange exchange = mockExchange();
+        byte[] content = new byte[]{1, 2, 3};
+        eventLoop.submit(() -> {
+            channel.receiveBasicPublish(AMQShortString.valueOf("ex"), AMQShortString.valueOf("key"), false, false);
+            channel.receiveMessageHeader(new BasicContentHeaderProperties(), content.length);
+        }).get();
+
+        // the connection is still read until the content of the message is received
+        assertTrue(channel.isReceivingMessage());
+        verify(connection).updateAutoRead();
+        eventLoop.submit(() -> channel.receiveMessageContent(QpidByteBuffer.wrap(content))).get();
+        eventLoop.submit(() -> { }).get();
+
+        // the message is written and releases its memory, reading stops once it is complete
+        assertFalse(channel.isReceivingMessage());
+        verify(connection, times(2)).updateAutoRead();
+        verify(exchange).writeMessageAsync(any(), eq("key"));
+        verify(connection).releasePublishMemory(content.length);
+    }
+
+    @Test
+    private void commitTransaction() throws Exception {
+        AmqpExchange exchange = mockExchange();
+        eventLoop.submit(() -> {
+            channel.receiveTxSelect();
+            publish(new byte[]{1});
+            publish(new byte[]{2});
+        }).get();
+        verify(connection).writeFrame(frameOf(TxSelectOkBody.class));
+        // the messages are buffered until the commit
+        verify(exchange, never()).writeMessageAsync(any(), any());
+
+        eventLoop.submit(channel::receiveTxCommit).get();
+        eventLoop.submit(() -> { }).get();
+        verify(exchange, times(2)).writeMessageAsync(any(), eq("key"));
+        verify(connection).writeFrame(frameOf(TxCommitOkBody.class));
+    }
+
+    @Test
+    private void rollbackTransaction() throws Exception {
+        AmqpExchange exchange = mockExchange();
+        eventLoop.submit(() -> {
+            channel.receiveTxSelect();
+            publish(new byte[]{1});
+            channel.receiveTxRollback();
+            // the transaction that follows the rollback is empty
+            channel.receiveTxCommit();
+        }).get();
+        eventLoop.submit(() -> { }).get();
+        verify(connection).writeFrame(frameOf(TxRollbackOkBody.class));
+        verify(connection).writeFrame(frameOf(TxCommitOkBody.class));
+        verify(exchange, never()).writeMessageAsync(any(), any());
+        verify(connection).acquirePublishMemory(1);
+        verify(connection).releasePublishMemory(1);
+    }
+
+    @Test
+    private void commitAcks() throws Exception {
+        UnacknowledgedMessageMap.MessageProcessor consumer = deliverMessages(3);
+        eventLoop.submit(() -> {
+            channel.receiveTxSelect();
+            channel.receiveBasicAck(2, true);
+            channel.receiveBasicReject(3, false);
+        }).get();
+        // the acks are buffered until the commit
+        verify(consumer, never()).messagesAck(any());
+        verify(consumer, never()).discardMessage(any());
+        assertEquals(channel.getUnacknowledgedMessageMap().size(), 3);
+
+        // the rolled back acks can be issued again
+        eventLoop.submit(() -> {
+            channel.receiveTxRollback();
+            channel.receiveBasicAck(2, true);
+            channel.receiveBasicReject(3, false);
+            channel.receiveTxCommit();
+        }).get();
+        eventLoop.submit(() -> { }).get();
+        verify(consumer).messagesAck(List.of(PositionImpl.get(1, 1), PositionImpl.get(1, 2)));
+        verify(consumer).discardMessage(List.of(PositionImpl.get(1, 3)));
+        assertEquals(channel.getUnacknowledgedMessageMap().size(), 0);
+    }
+
+    @Test
+    private void recoverWithUncommittedAcks() throws Exception {
+        UnacknowledgedMessageMap.MessageProcessor consumer = deliverMessages(3);
+        eventLoop.submit(() -> {
+            channel.receiveTxSelect();
+            channel.receiveBasicAck(1, false);
+            channel.receiveBasicAck(3, false);
+            channel.receiveBasicRecover(true, false);
+        }).get();
+        // the messages acknowledged in the transaction are not redelivered
+        verify(consumer).requeue(List.of(PositionImpl.get(1, 2)));
+
+        eventLoop.submit(channel::receiveTxCommit).get();
+        eventLoop.submit(() -> { }).get();
+        verify(consumer).messagesAck(List.of(PositionImpl.get(1, 1), PositionImpl.get(1, 3)));
+    }
+
+    @Test
+    private void ackAllInTransaction() throws Exception {
+        UnacknowledgedMessageMap.MessageProcessor consumer = deliverMessages(2);
+        eventLoop.submit(() -> {
+            channel.receiveTxSelect();
+            channel.receiveBasicAck(0, true);
+            // delivered after the ack, it's not acknowledged by the commit
+            channel.getUnacknowledgedMessageMap().add(channel.getNextDeliveryTag(), PositionImpl.get(1, 3),
+                    consumer, 0);
+            channel.receiveTxCommit();
+        }).get();
+        eventLoop.submit(() -> { }).get();
+        verify(consumer).messagesAck(List.of(PositionImpl.get(1, 1), PositionImpl.get(1, 2)));
+        assertEquals(channel.getUnacknowledgedMessageMap().size(), 1);
+    }
+
+    @Test
+    private void ackUnknownTagInTransaction() throws Exception {
+        deliverMessages(1);
+        eventLoop.submit(() -> {
+            channel.receiveTxSelect();
+            channel.receiveBasicAck(2, true);
+        }).get();
+        // the delivery tag is checked when the ack is received
+        verify(connection).closeChannelAndWriteFrame(eq(channel), eq(ErrorCodes.IN_USE), anyString());
+    }
+
+    @Test
+    private void exceedMaxTransactionSize() throws Exception {
+        connection.getAmqpConfig().setAmqpMaxTransactionSize(4);
+        AmqpExchange exchange = mockExchange();
+        eventLoop.submit(() -> {
+            channel.receiveTxSelect();
+            publish(new byte[]{1, 2, 3});
+            publish(new byte[]{4, 5, 6});
+        }).get();
+        verify(connection).closeChannelAndWriteFrame(eq(channel), eq(ErrorCodes.IN_USE), anyString());
+        verify(exchange, never()).writeMessageAsync(any(), any());
+    }
+
+    @Test
+    private void commitNonTransactionalChannel() throws Exception {
+        eventLoop.submit(channel::receiveTxCommit).get();
+        verify(connection).closeChannelAndWriteFrame(eq(channel), eq(ErrorCodes.IN_USE), anyString());
+        eventLoop.submit(channel::receiveTxRollback).get();
+        verify(connection, times(2)).closeChannelAndWriteFrame(eq(channel), eq(ErrorCodes.IN_USE), anyString());
+    }
+
+    @Test
+    private void commitWithFailedWrite() throws Exception {
+        AmqpExchange exchange = mockExchange();
+        when(exchange.writeMessageAsync(any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(PositionImpl.get(2, 1)))
+                .thenReturn(FutureUtil.failedFuture(new RuntimeException("write failed")));
+        UnacknowledgedMessageMap.MessageProcessor consumer = deliverMessages(1);
+        eventLoop.submit(() -> {
+            channel.receiveTxSelect();
+            publish(new byte[]{1});
+            publish(new byte[]{2});
+            channel.receiveBasicAck(1, false);
+            channel.receiveTxCommit();
+        }).get();
+        eventLoop.submit(() -> { }).get();
+
+        // the commit is not atomic, the first message stays written but the acks are not applied
+        verify(exchange, times(2)).writeMessageAsync(any(), any());
+        verify(connection).closeChannelAndWriteFrame(eq(channel), eq(ErrorCodes.INTERNAL_ERROR), anyString());
+        verify(connection, never()).writeFrame(frameOf(TxCommitOkBody.class));
+        verify(consumer, never()).messagesAck(any());
+        assertEquals(channel.getUnacknowledgedMessageMap().size(), 1);
+    }
+
+    private AmqpExchange mockExchange() {
+        AmqpExchange exchange = mock(AmqpExchange.class);
+        when(exchange.writeMessageAsync(any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(PositionImpl.get(2, 1)));
+        when(exchangeContainer.asyncGetExchange(any(), anyString(), anyBoolean(), any()))
+                .thenReturn(CompletableFuture.completedFuture(exchange));
+        return exchange;
+    }
+
+    private void publish(byte[] content) {
+        channel.receiveBasicPublish(AMQShortString.valueOf("ex"), AMQShortString.valueOf("key"), false, false);
+        channel.receiveMessageHeader(new BasicContentHeaderProperties(), content.length);
+        channel.receiveMessageContent(QpidByteBuffer.wrap(content));
+    }
+
+    /**
+     * Deliver messages to the channel, the message with the delivery tag n is at the position 1:n.
+     */
+    private UnacknowledgedMessageMap.MessageProcessor deliverMessages(int count) throws Exception {
+        UnacknowledgedMessageMap.MessageProcessor consumer = mock(UnacknowledgedMessageMap.MessageProcessor.class);
+        eventLoop.submit(() -> {
+            for (int i = 0; i < count; i++) {
+                long deliveryTag = channel.getNextDeliveryTag();
+                channel.getUnacknowledgedMessageMap().add(deliveryTag, PositionImpl.get(1, deliveryTag), consumer, 0);
+            }
+        }).get();
+        return consumer;
+    }
+
+    private static AMQDataBlock frameOf(Class<? extends AMQBody> bodyClass) {
+        return argThat(frame -> frame instanceof AMQFrame
+                && bodyClass.isInstance(((AMQFrame) frame).getBodyFrame()));
+    }
+}
@@ -261,6 +261,10 @@ public abstract class AmqpProtocolTestBase {
             frame.writePayload(getBufferSender());
             getBufferSender().flush();
         }
+
+        @Override public synchronized void writeFrameNoFlush(AMQDataBlock frame) {
+            writeFrame(frame);
+        }
     }
 
     /**
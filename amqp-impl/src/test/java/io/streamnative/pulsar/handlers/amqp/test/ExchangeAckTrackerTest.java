@@ -0,0 +1,100 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+
+import io.streamnative.pulsar.handlers.amqp.ExchangeAckTracker;
+import java.util.List;
+import org.apache.bookkeeper.mledger.AsyncCallbacks;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.testng.annotations.Test;
+
+/**
+ * Exchange acknowledgement tracker test.
+ */
+public class ExchangeAckTrackerTest {
+
+    @Test
+    private void coalesceAcks() {
+        ManagedCursor cursor = mock(ManagedCursor.class);
+        ExchangeAckTracker tracker = new ExchangeAckTracker("test", cursor, 100);
+        for (int i = 0; i < 5; i++) {
+            tracker.read(PositionImpl.get(1, i));
+        }
+        tracker.ack(PositionImpl.get(1, 0));
+        tracker.ack(PositionImpl.get(1, 1));
+        tracker.ack(PositionImpl.get(1, 3));
+        assertEquals(tracker.getOutstandingEntries(), 2);
+        assertEquals(tracker.getPendingAcks(), 3);
+        verify(cursor, never()).asyncMarkDelete(any(), any(AsyncCallbacks.MarkDeleteCallback.class), any());
+
+        // the contiguous acknowledgements advance the mark-delete position, the others are deleted in one batch
+        tracker.flush();
+        verify(cursor).asyncMarkDelete(eq(PositionImpl.get(1, 1)), any(AsyncCallbacks.MarkDeleteCallback.class),
+                any());
+        verify(cursor).asyncDelete(eq(List.<Position>of(PositionImpl.get(1, 3))),
+                any(AsyncCallbacks.DeleteCallback.class), any());
+        assertEquals(tracker.getPendingAcks(), 0);
+
+        tracker.ack(List.of(PositionImpl.get(1, 2), PositionImpl.get(1, 4)));
+        tracker.flush();
+        verify(cursor).asyncMarkDelete(eq(PositionImpl.get(1, 4)), any(AsyncCallbacks.MarkDeleteCallback.class),
+                any());
+        assertEquals(tracker.getOutstandingEntries(), 0);
+    }
+
+    @Test
+    private void ackAfterClose() {
+        ManagedCursor cursor = mock(ManagedCursor.class);
+        ExchangeAckTracker tracker = new ExchangeAckTracker("test", cursor, 1);
+        tracker.read(PositionImpl.get(1, 0));
+        tracker.read(PositionImpl.get(1, 1));
+        tracker.close();
+
+        // the routes still in flight acknowledge their entries after the tracker is closed
+        tracker.ack(PositionImpl.get(1, 0));
+        tracker.ack(List.of(PositionImpl.get(1, 1)));
+        tracker.read(PositionImpl.get(1, 2));
+        tracker.flush();
+        verify(cursor, never()).asyncMarkDelete(any(), any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        verify(cursor, never()).asyncDelete(anyList(), any(AsyncCallbacks.DeleteCallback.class), any());
+        assertEquals(tracker.getPendingAcks(), 0);
+    }
+
+    @Test
+    private void flushOnMaxPendingAcks() {
+        ManagedCursor cursor = mock(ManagedCursor.class);
+        ExchangeAckTracker tracker = new ExchangeAckTracker("test", cursor, 2);
+        for (int i = 0; i < 3; i++) {
+            tracker.read(PositionImpl.get(1, i));
+        }
+        tracker.ack(PositionImpl.get(1, 1));
+        verify(cursor, never()).asyncDelete(anyList(), any(AsyncCallbacks.DeleteCallback.class), any());
+        tracker.ack(PositionImpl.get(1, 2));
+        verify(cursor).asyncDelete(eq(List.<Position>of(PositionImpl.get(1, 1), PositionImpl.get(1, 2))),
+                any(AsyncCallbacks.DeleteCallback.class), any());
+        verify(cursor, never()).asyncMarkDelete(any(), any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(tracker.getOutstandingEntries(), 1);
+    }
+
+}
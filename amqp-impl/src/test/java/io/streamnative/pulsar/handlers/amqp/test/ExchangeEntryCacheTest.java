@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.streamnative.pulsar.handlers.amqp.AmqpExchange;
+import io.streamnative.pulsar.handlers.amqp.ExchangeEntryCache;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.testng.annotations.Test;
+
+/**
+ * Exchange entry cache test.
+ */
+public class ExchangeEntryCacheTest {
+
+    @Test
+    private void readOnceForAllQueues() {
+        ExchangeEntryCache cache = new ExchangeEntryCache("test", 1024);
+        ByteBuf data = Unpooled.buffer(8).writerIndex(8);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            Entry entry = cache.get("exchange", 1, 1, 2, () -> {
+                loads.incrementAndGet();
+                return CompletableFuture.completedFuture(EntryImpl.create(1, 1, data));
+            }).join();
+            assertEquals(entry.getLength(), 8);
+            entry.release();
+        }
+        assertEquals(loads.get(), 1);
+        assertEquals(cache.getHits(), 2);
+        assertEquals(cache.getMisses(), 1);
+        // evicted after the last expected read
+        assertEquals(cache.getEntries(), 0);
+        assertEquals(cache.getSizeBytes(), 0);
+        assertEquals(data.refCnt(), 1);
+    }
+
+    @Test
+    private void cacheFanoutEntries() {
+        // a fanout entry is read by all the queues
+        assertEquals(ExchangeEntryCache.getOtherReads(AmqpExchange.Type.Fanout, 3), 2);
+        assertEquals(ExchangeEntryCache.getOtherReads(AmqpExchange.Type.Fanout, 1), 0);
+        assertEquals(ExchangeEntryCache.getOtherReads(AmqpExchange.Type.Fanout, 0), 0);
+        // the other entries are routed to a part of the queues only, they are not cached
+        assertEquals(ExchangeEntryCache.getOtherReads(AmqpExchange.Type.Direct, 3), 0);
+        assertEquals(ExchangeEntryCache.getOtherReads(AmqpExchange.Type.Topic, 3), 0);
+        assertEquals(ExchangeEntryCache.getOtherReads(AmqpExchange.Type.Headers, 3), 0);
+    }
+
+    @Test
+    private void evictOverSize() {
+        ExchangeEntryCache cache = new ExchangeEntryCache("test", 10);
+        ByteBuf first = Unpooled.buffer(8).writerIndex(8);
+        ByteBuf second = Unpooled.buffer(8).writerIndex(8);
+        Entry firstEntry = EntryImpl.create(1, 1, first);
+        Entry secondEntry = EntryImpl.create(1, 2, second);
+        cache.put("exchange", firstEntry, 1);
+        cache.put("exchange", secondEntry, 1);
+        firstEntry.release();
+        secondEntry.release();
+
+        assertEquals(cache.getEntries(), 1);
+        assertEquals(cache.getSizeBytes(), 8);
+        assertEquals(first.refCnt(), 1);
+        assertNull(cache.getRange("exchange", 1, 1, 2));
+        List<Entry> entries = cache.getRange("exchange", 1, 2, 2);
+        assertNotNull(entries);
+        assertEquals(entries.get(0).getEntryId(), 2);
+        entries.forEach(Entry::release);
+        assertEquals(cache.getSizeBytes(), 0);
+        assertEquals(second.refCnt(), 1);
+    }
+
+}
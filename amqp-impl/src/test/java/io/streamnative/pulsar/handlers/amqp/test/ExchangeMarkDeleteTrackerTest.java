@@ -0,0 +1,60 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.amqp.ExchangeMarkDeleteTracker;
+import java.util.Map;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.testng.annotations.Test;
+
+/**
+ * Exchange mark-delete tracker test.
+ */
+public class ExchangeMarkDeleteTrackerTest {
+
+    @Test
+    private void advance() {
+        ExchangeMarkDeleteTracker tracker = new ExchangeMarkDeleteTracker(4);
+        tracker.add("ex1", PositionImpl.get(1, 0), PositionImpl.get(10, 0));
+        tracker.add("ex2", PositionImpl.get(1, 1), PositionImpl.get(20, 0));
+        tracker.add("ex1", PositionImpl.get(1, 2), PositionImpl.get(10, 1));
+        tracker.add("ex1", PositionImpl.get(1, 3), PositionImpl.get(10, 2));
+        tracker.add("ex2", PositionImpl.get(1, 4), PositionImpl.get(20, 1));
+
+        // the last exchange position of each exchange up to the mark-delete position is pending
+        assertFalse(tracker.advance(PositionImpl.get(1, 2)));
+        assertTrue(tracker.hasPending());
+        assertEquals(tracker.getPendingPositions(), 3);
+        assertEquals(tracker.getDeliveredMessages(), 2);
+        assertFalse(tracker.advance(PositionImpl.get(1, 1)));
+
+        // the limit of pending positions is reached
+        assertTrue(tracker.advance(PositionImpl.get(1, 3)));
+        assertEquals(tracker.drain(), Map.of("ex1", PositionImpl.get(10, 2), "ex2", PositionImpl.get(20, 0)));
+        assertFalse(tracker.hasPending());
+        assertEquals(tracker.drain(), Map.of());
+
+        // the messages delivered before the mark-delete position are not tracked
+        tracker.add("ex1", PositionImpl.get(1, 3), PositionImpl.get(10, 2));
+        assertEquals(tracker.getDeliveredMessages(), 1);
+        tracker.advance(PositionImpl.get(1, 4));
+        assertEquals(tracker.drain(), Map.of("ex2", PositionImpl.get(20, 1)));
+        assertEquals(tracker.getDeliveredMessages(), 0);
+    }
+
+}
@@ -0,0 +1,630 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.streamnative.pulsar.handlers.amqp.AmqpExchange;
+import io.streamnative.pulsar.handlers.amqp.AmqpServiceConfiguration;
+import io.streamnative.pulsar.handlers.amqp.ExchangeMessageRouter;
+import io.streamnative.pulsar.handlers.amqp.impl.PersistentExchange;
+import io.streamnative.pulsar.handlers.amqp.utils.MessageConvertUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.bookkeeper.mledger.AsyncCallbacks;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
+import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.ProducerBuilder;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.impl.MessageImpl;
+import org.apache.pulsar.client.impl.ProducerImpl;
+import org.apache.pulsar.common.api.proto.CommandSubscribe;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.awaitility.Awaitility;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Exchange message router test.
+ */
+public class ExchangeMessageRouterTest {
+
+    private static final String MESSAGE_ID = "id";
+
+    private AmqpServiceConfiguration config;
+    private ExecutorService routeExecutor;
+    private ScheduledExecutorService executor;
+    private BrokerService brokerService;
+    private PulsarClient pulsarClient;
+    private Map<String, TestExchange> exchanges;
+    /**
+     * The ids of the messages sent to each destination, in send order.
+     */
+    private Map<String, List<String>> sentMessages;
+    private Map<String, AtomicInteger> sendAttempts;
+    private Map<String, ProducerImpl<byte[]>> producers;
+    /**
+     * The destinations whose producers fail the sends.
+     */
+    private Set<String> failingDestinations;
+
+    @BeforeMethod
+    private void setup() {
+        config = new AmqpServiceConfiguration();
+        // the positions are acknowledged to the cursor as soon as they are routed
+        config.setAmqpExchangeAckMaxPendingPositions(1);
+        config.setAmqpExchangeAckFlushIntervalMillis(0);
+        routeExecutor = Executors.newFixedThreadPool(4);
+        executor = Executors.newSingleThreadScheduledExecutor();
+        exchanges = new ConcurrentHashMap<>();
+        sentMessages = new ConcurrentHashMap<>();
+        sendAttempts = new ConcurrentHashMap<>();
+        producers = new ConcurrentHashMap<>();
+        failingDestinations = ConcurrentHashMap.newKeySet();
+
+        brokerService = mock(BrokerService.class);
+        PulsarService pulsarService = mock(PulsarService.class);
+        when(brokerService.getPulsar()).thenReturn(pulsarService);
+        when(pulsarService.getExecutor()).thenReturn(executor);
+        pulsarClient = mock(PulsarClient.class);
+        when(pulsarClient.newProducer()).thenAnswer(__ -> newProducerBuilder());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    private void cleanup() {
+        exchanges.values().forEach(exchange -> exchange.router.close());
+        routeExecutor.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    private void routeBatchEntryWithUnmatchedMessages() throws Exception {
+        TestExchange exchange = new TestExchange("ex1", AmqpExchange.Type.Direct);
+        exchange.router.addBinding("q1", "queue", "a", null);
+        exchange.router.start();
+
+        // none of the messages matches, each of them is released once
+        ByteBuf unmatched = newBatchEntryData(0, "x", "y", "z");
+        // only the matched messages of the batch are sent
+        ByteBuf mixed = newBatchEntryData(1, "a", "x", "a", "y");
+        exchange.read(EntryImpl.create(1, 0, unmatched));
+        exchange.read(EntryImpl.create(1, 1, mixed));
+
+        verify(exchange.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 1)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("q1"), List.of("1-0", "1-2"));
+        assertEquals(unmatched.refCnt(), 1);
+        unmatched.release();
+        mixed.release();
+    }
+
+    @Test
+    private void routeShardsInOrder() throws Exception {
+        config.setAmqpExchangeRouteShards(4);
+        TestExchange exchange = new TestExchange("ex1", AmqpExchange.Type.Direct);
+        exchange.router.addBinding("q1", "queue", "a", null);
+        exchange.router.addBinding("q2", "queue", "b", null);
+        exchange.router.start();
+
+        // enough entries to be parsed by all the shards
+        ByteBuf[] data = new ByteBuf[400];
+        List<String> q1Ids = new ArrayList<>();
+        List<String> q2Ids = new ArrayList<>();
+        for (int i = 0; i < data.length; i++) {
+            String routingKey = i % 3 == 0 ? "b" : "a";
+            data[i] = newBatchEntryData(i, routingKey);
+            (routingKey.equals("a") ? q1Ids : q2Ids).add(i + "-0");
+        }
+        exchange.read(newEntries(data));
+
+        // each destination receives its messages in the exchange order
+        verify(exchange.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 399)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("q1"), q1Ids);
+        assertEquals(getSentMessages("q2"), q2Ids);
+        exchange.releaseEntries();
+    }
+
+    @Test
+    private void dropReadAheadBatchAfterFailure() throws Exception {
+        TestExchange exchange = new TestExchange("ex1", AmqpExchange.Type.Direct);
+        exchange.router.addBinding("q1", "queue", "a", null);
+        exchange.router.addBinding("ex2", "exchange", "b", null);
+        CountDownLatch readAhead = new CountDownLatch(1);
+        failNextLookup(exchange, readAhead);
+        exchange.router.start();
+
+        ByteBuf[] data = {newBatchEntryData(0, "a"), newBatchEntryData(1, "b"), newBatchEntryData(2, "a"),
+                newBatchEntryData(3, "a")};
+        // the routing of the first batch fails on its second entry once the next batch is read ahead
+        exchange.read(EntryImpl.create(1, 0, data[0]), EntryImpl.create(1, 1, data[1]),
+                EntryImpl.create(1, 2, data[2]));
+        exchange.read(EntryImpl.create(1, 3, data[3]));
+        readAhead.countDown();
+
+        // the cursor is rewound and the batch read ahead is dropped, each entry is released once
+        verify(exchange.cursor, timeout(5000)).rewind();
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            for (ByteBuf buffer : data) {
+                assertEquals(buffer.refCnt(), 1);
+            }
+        });
+        assertTrue(getSentMessages("q1").isEmpty());
+
+        // the entries are read and routed again from the first one
+        exchange.read(newEntries(data));
+        verify(exchange.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 3)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("q1"), List.of("0-0", "2-0", "3-0"));
+        assertEquals(getSentMessages("ex2"), List.of("1-0"));
+        verify(exchange.cursor, times(1)).rewind();
+        exchange.releaseEntries();
+    }
+
+    @Test
+    private void rewindAfterPendingRead() throws Exception {
+        TestExchange exchange = new TestExchange("ex1", AmqpExchange.Type.Direct);
+        exchange.router.addBinding("q1", "queue", "a", null);
+        exchange.router.addBinding("ex2", "exchange", "b", null);
+        CountDownLatch readAhead = new CountDownLatch(1);
+        CountDownLatch failed = failNextLookup(exchange, readAhead);
+        exchange.router.start();
+
+        ByteBuf[] data = {newBatchEntryData(0, "b"), newBatchEntryData(1, "a")};
+        exchange.read(EntryImpl.create(1, 0, data[0]));
+        // the routing fails while the next read is pending
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> exchange.reads.size() == 1);
+        readAhead.countDown();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        // the pending read would move the read position, the cursor is rewound once it completes
+        verify(exchange.cursor, after(500).never()).rewind();
+        exchange.read(EntryImpl.create(1, 1, data[1]));
+        verify(exchange.cursor, timeout(5000)).rewind();
+        assertEquals(data[1].refCnt(), 1);
+        assertTrue(getSentMessages("q1").isEmpty());
+
+        exchange.read(newEntries(data));
+        verify(exchange.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 1)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("q1"), List.of("1-0"));
+        assertEquals(getSentMessages("ex2"), List.of("0-0"));
+        exchange.releaseEntries();
+    }
+
+    @Test
+    private void releaseEntriesOnceOnShardFailure() throws Exception {
+        config.setAmqpExchangeRouteShards(4);
+        TestExchange exchange = new TestExchange("ex1", AmqpExchange.Type.Direct);
+        exchange.router.addBinding("q1", "queue", "a", null);
+        exchange.router.addBinding("ex2", "exchange", "b", null);
+        failNextLookup(exchange, new CountDownLatch(0));
+        exchange.router.start();
+
+        // the message failing to be routed is parsed by the third shard
+        ByteBuf[] data = new ByteBuf[400];
+        List<String> q1Ids = new ArrayList<>();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = newBatchEntryData(i, i == 250 ? "b" : "a");
+            if (i != 250) {
+                q1Ids.add(i + "-0");
+            }
+        }
+        exchange.read(newEntries(data));
+
+        // the entries and the messages parsed by all the shards are released once
+        verify(exchange.cursor, timeout(5000)).rewind();
+        for (ByteBuf buffer : data) {
+            assertEquals(buffer.refCnt(), 1);
+        }
+        assertTrue(getSentMessages("q1").isEmpty());
+
+        exchange.read(newEntries(data));
+        verify(exchange.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 399)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("q1"), q1Ids);
+        assertEquals(getSentMessages("ex2"), List.of("250-0"));
+        exchange.releaseEntries();
+    }
+
+    @Test
+    private void routeExchangeCycleOnce() throws Exception {
+        TestExchange ex1 = new TestExchange("ex1", AmqpExchange.Type.Direct);
+        TestExchange ex2 = new TestExchange("ex2", AmqpExchange.Type.Fanout);
+        ex1.router.addBinding("q1", "queue", "a", null);
+        ex1.router.addBinding("ex2", "exchange", "a", null);
+        ex2.router.addBinding("q2", "queue", "", null);
+        ex2.router.addBinding("ex1", "exchange", "", null);
+        ex2.router.start();
+        ex1.router.start();
+
+        // the message goes back to the first exchange through the cycle, it is not routed again
+        ex1.read(EntryImpl.create(1, 0, newBatchEntryData(0, "a")));
+        verify(ex1.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 0)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("q1"), List.of("0-0"));
+        assertEquals(getSentMessages("q2"), List.of("0-0"));
+        assertTrue(getSentMessages("ex1").isEmpty());
+        assertTrue(getSentMessages("ex2").isEmpty());
+        ex1.releaseEntries();
+    }
+
+    @Test
+    private void routeExchangeDiamondOnce() throws Exception {
+        TestExchange ex1 = new TestExchange("ex1", AmqpExchange.Type.Fanout);
+        TestExchange ex2 = new TestExchange("ex2", AmqpExchange.Type.Fanout);
+        TestExchange ex3 = new TestExchange("ex3", AmqpExchange.Type.Fanout);
+        TestExchange ex4 = new TestExchange("ex4", AmqpExchange.Type.Fanout);
+        ex1.router.addBinding("ex2", "exchange", "", null);
+        ex1.router.addBinding("ex3", "exchange", "", null);
+        ex2.router.addBinding("ex4", "exchange", "", null);
+        ex3.router.addBinding("ex4", "exchange", "", null);
+        ex4.router.addBinding("q1", "queue", "", null);
+        for (TestExchange exchange : List.of(ex4, ex3, ex2, ex1)) {
+            exchange.router.start();
+        }
+
+        // the last exchange is reached through both paths, the queue receives the message once
+        ex1.read(EntryImpl.create(1, 0, newBatchEntryData(0, "a")));
+        verify(ex1.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 0)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("q1"), List.of("0-0"));
+        for (String exchangeName : List.of("ex2", "ex3", "ex4")) {
+            assertTrue(getSentMessages(exchangeName).isEmpty());
+        }
+        ex1.releaseEntries();
+    }
+
+    @Test
+    private void writeExchangePastMaxHops() throws Exception {
+        config.setAmqpExchangeRouteMaxHops(1);
+        TestExchange ex1 = new TestExchange("ex1", AmqpExchange.Type.Fanout);
+        TestExchange ex2 = new TestExchange("ex2", AmqpExchange.Type.Fanout);
+        TestExchange ex3 = new TestExchange("ex3", AmqpExchange.Type.Fanout);
+        ex1.router.addBinding("ex2", "exchange", "", null);
+        ex2.router.addBinding("ex3", "exchange", "", null);
+        ex3.router.addBinding("q1", "queue", "", null);
+        for (TestExchange exchange : List.of(ex3, ex2, ex1)) {
+            exchange.router.start();
+        }
+
+        // the second exchange is followed, the third one is past the maximum hops and routes the message itself
+        ex1.read(EntryImpl.create(1, 0, newBatchEntryData(0, "a")));
+        verify(ex1.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 0)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("ex3"), List.of("0-0"));
+        assertTrue(getSentMessages("ex2").isEmpty());
+        assertTrue(getSentMessages("q1").isEmpty());
+        ex1.releaseEntries();
+    }
+
+    @Test
+    private void writeExchangeNotRoutedLocally() throws Exception {
+        TestExchange ex1 = new TestExchange("ex1", AmqpExchange.Type.Fanout);
+        TestExchange delayed = new TestExchange("ex2", AmqpExchange.Type.Fanout);
+        when(delayed.exchange.isExistDelayedType()).thenReturn(true);
+        // the third exchange is not loaded on this broker, the lookup does not find it
+        ex1.router.addBinding("ex2", "exchange", "", null);
+        ex1.router.addBinding("ex3", "exchange", "", null);
+        delayed.router.addBinding("q1", "queue", "", null);
+        delayed.router.start();
+        ex1.router.start();
+
+        // the messages are written to the delayed and remote exchanges, which route them
+        ex1.read(EntryImpl.create(1, 0, newBatchEntryData(0, "a")));
+        verify(ex1.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 0)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        assertEquals(getSentMessages("ex2"), List.of("0-0"));
+        assertEquals(getSentMessages("ex3"), List.of("0-0"));
+        assertTrue(getSentMessages("q1").isEmpty());
+        ex1.releaseEntries();
+    }
+
+    @Test
+    private void parkMessagesOfFailingDestination() throws Exception {
+        config.setAmqpExchangeRouteDestinationMaxParkedMessages(2);
+        routeWithFailingDestination();
+    }
+
+    @Test
+    private void parkBytesOfFailingDestination() throws Exception {
+        // the messages have a payload of one byte
+        config.setAmqpExchangeRouteDestinationMaxParkedBytes(2);
+        routeWithFailingDestination();
+    }
+
+    private void routeWithFailingDestination() throws Exception {
+        failingDestinations.add("q2");
+        TestExchange exchange = new TestExchange("ex1", AmqpExchange.Type.Fanout);
+        exchange.router.addBinding("q1", "queue", "", null);
+        exchange.router.addBinding("q2", "queue", "", null);
+        exchange.router.start();
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            exchange.read(EntryImpl.create(1, i, newBatchEntryData(i, "a")));
+            ids.add(i + "-0");
+        }
+        // the healthy destination doesn't wait for the failing one, the positions are held by the failing one
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
+                assertEquals(getSentMessages("q1"), ids));
+        verify(exchange.cursor, never()).asyncMarkDelete(any(), any(AsyncCallbacks.MarkDeleteCallback.class), any());
+
+        // the first messages are parked, the ones past the bound are read again once the destination recovers
+        failingDestinations.remove("q2");
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).untilAsserted(() ->
+                assertEquals(getSentMessages("q2"), ids));
+        verify(exchange.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 4)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Set<? extends Position>> replayed = ArgumentCaptor.forClass((Class) Set.class);
+        verify(exchange.cursor, atLeastOnce()).asyncReplayEntries(replayed.capture(),
+                any(AsyncCallbacks.ReadEntriesCallback.class), any(), eq(true));
+        assertEquals(replayed.getAllValues().stream().flatMap(Set::stream).collect(Collectors.toSet()),
+                Set.of(PositionImpl.get(1, 2), PositionImpl.get(1, 3), PositionImpl.get(1, 4)));
+        exchange.releaseEntries();
+    }
+
+    @Test
+    private void closeSenderOfUnboundDestination() throws Exception {
+        failingDestinations.add("q1");
+        TestExchange exchange = new TestExchange("ex1", AmqpExchange.Type.Direct);
+        exchange.router.addBinding("q1", "queue", "a", null);
+        exchange.router.addBinding("q1", "queue", "b", null);
+        exchange.router.start();
+        exchange.read(EntryImpl.create(1, 0, newBatchEntryData(0, "a")),
+                EntryImpl.create(1, 1, newBatchEntryData(1, "b")));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> getSendAttempts("q1") > 0);
+        ProducerImpl<byte[]> producer = producers.get("q1");
+
+        // the destination is still bound with the other key
+        exchange.router.removeBinding("q1", "queue", "a", null);
+        verify(producer, after(500).never()).closeAsync();
+
+        // the parked messages are dropped with the last binding and their positions are acknowledged
+        exchange.router.removeBinding("q1", "queue", "b", null);
+        verify(producer, timeout(5000)).closeAsync();
+        verify(exchange.cursor, timeout(5000)).asyncMarkDelete(eq(PositionImpl.get(1, 1)),
+                any(AsyncCallbacks.MarkDeleteCallback.class), any());
+        // and the destination is not retried anymore
+        int attempts = getSendAttempts("q1");
+        Thread.sleep(500);
+        assertEquals(getSendAttempts("q1"), attempts);
+        assertTrue(getSentMessages("q1").isEmpty());
+        exchange.releaseEntries();
+    }
+
+    /**
+     * An exchange with a mocked topic, cursor and producers, the entries are read when the test completes the reads.
+     */
+    private class TestExchange {
+        private final PersistentExchange exchange = mock(PersistentExchange.class);
+        private final ManagedCursorImpl cursor = mock(ManagedCursorImpl.class);
+        private final BlockingQueue<AsyncCallbacks.ReadEntriesCallback> reads = new LinkedBlockingQueue<>();
+        /**
+         * The data of the entries read, to read them again.
+         */
+        private final Map<Position, ByteBuf> entryData = new ConcurrentHashMap<>();
+        private final ExchangeMessageRouter router;
+
+        private TestExchange(String name, AmqpExchange.Type type) {
+            PersistentTopic topic = mock(PersistentTopic.class);
+            ManagedLedgerImpl managedLedger = mock(ManagedLedgerImpl.class);
+            when(topic.getName()).thenReturn("persistent://public/vhost1/" + PersistentExchange.TOPIC_PREFIX + name);
+            when(topic.getManagedLedger()).thenReturn(managedLedger);
+            when(topic.getBrokerService()).thenReturn(brokerService);
+            doAnswer(invocation -> {
+                invocation.<AsyncCallbacks.OpenCursorCallback>getArgument(2).openCursorComplete(cursor, null);
+                return null;
+            }).when(managedLedger).asyncOpenCursor(anyString(), any(CommandSubscribe.InitialPosition.class),
+                    any(AsyncCallbacks.OpenCursorCallback.class), any());
+            doAnswer(invocation -> {
+                reads.add(invocation.getArgument(2));
+                return null;
+            }).when(cursor).asyncReadEntriesOrWait(anyInt(), anyLong(),
+                    any(AsyncCallbacks.ReadEntriesCallback.class), any(), any());
+            doAnswer(invocation -> {
+                Set<? extends Position> positions = invocation.getArgument(0);
+                List<Entry> entries = positions.stream().map(PositionImpl.class::cast).sorted()
+                        .map(position -> (Entry) EntryImpl.create(position.getLedgerId(), position.getEntryId(),
+                                entryData.get(position)))
+                        .collect(Collectors.toList());
+                invocation.<AsyncCallbacks.ReadEntriesCallback>getArgument(1).readEntriesComplete(entries, null);
+                return Collections.emptySet();
+            }).when(cursor).asyncReplayEntries(any(), any(AsyncCallbacks.ReadEntriesCallback.class), any(),
+                    anyBoolean());
+
+            when(exchange.getName()).thenReturn(name);
+            when(exchange.getType()).thenReturn(type);
+            when(exchange.getTopic()).thenReturn(topic);
+            when(exchange.getConfig()).thenReturn(config);
+            when(exchange.getRouteShards()).thenReturn(Math.max(1, config.getAmqpExchangeRouteShards()));
+            when(exchange.getPulsarClient()).thenReturn(pulsarClient);
+            when(exchange.getExchangeLookup()).thenReturn(exchangeName -> {
+                TestExchange downstream = exchanges.get(exchangeName);
+                return downstream != null ? downstream.exchange : null;
+            });
+            router = ExchangeMessageRouter.getInstance(exchange, routeExecutor);
+            when(exchange.getExchangeMessageRouter()).thenReturn(router);
+            exchanges.put(name, this);
+        }
+
+        /**
+         * Complete the next read of the router with the entries.
+         */
+        private void read(Entry... entries) throws InterruptedException {
+            AsyncCallbacks.ReadEntriesCallback callback = reads.poll(5, TimeUnit.SECONDS);
+            assertNotNull(callback);
+            for (Entry entry : entries) {
+                entryData.put(entry.getPosition(), entry.getDataBuffer());
+            }
+            callback.readEntriesComplete(new ArrayList<>(Arrays.asList(entries)), null);
+        }
+
+        /**
+         * Release the data of the entries read, once they are routed.
+         */
+        private void releaseEntries() {
+            entryData.values().forEach(ByteBuf::release);
+            entryData.clear();
+        }
+    }
+
+    /**
+     * Fail the next lookup of a bound exchange by the router once the latch is released.
+     *
+     * @return a latch released when the lookup fails
+     */
+    private static CountDownLatch failNextLookup(TestExchange exchange, CountDownLatch release) {
+        CountDownLatch failed = new CountDownLatch(1);
+        AtomicBoolean failing = new AtomicBoolean(true);
+        Function<String, PersistentExchange> lookup = exchange.exchange.getExchangeLookup();
+        when(exchange.exchange.getExchangeLookup()).thenReturn(exchangeName -> {
+            if (failing.compareAndSet(true, false)) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                failed.countDown();
+                throw new IllegalStateException("Failed to look up exchange " + exchangeName);
+            }
+            return lookup.apply(exchangeName);
+        });
+        return failed;
+    }
+
+    /**
+     * The entries with the data, at the positions 1:0 to 1:n-1.
+     */
+    private static Entry[] newEntries(ByteBuf[] data) {
+        Entry[] entries = new Entry[data.length];
+        for (int i = 0; i < data.length; i++) {
+            entries[i] = EntryImpl.create(1, i, data[i]);
+        }
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProducerBuilder<byte[]> newProducerBuilder() {
+        ProducerBuilder<byte[]> builder = mock(ProducerBuilder.class, RETURNS_SELF);
+        String[] topic = new String[1];
+        when(builder.topic(anyString())).thenAnswer(invocation -> {
+            topic[0] = invocation.getArgument(0);
+            return builder;
+        });
+        when(builder.createAsync()).thenAnswer(__ -> CompletableFuture.completedFuture(newProducer(topic[0])));
+        return builder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProducerImpl<byte[]> newProducer(String topic) {
+        String destination = topic.substring(topic.lastIndexOf("__") + 2);
+        ProducerImpl<byte[]> producer = mock(ProducerImpl.class);
+        when(producer.sendAsync(any(Message.class))).thenAnswer(invocation -> {
+            sendAttempts.computeIfAbsent(destination, k -> new AtomicInteger()).incrementAndGet();
+            if (failingDestinations.contains(destination)) {
+                return FutureUtil.failedFuture(new PulsarClientException("send failed"));
+            }
+            MessageImpl<byte[]> message = invocation.getArgument(0);
+            sentMessages.computeIfAbsent(destination, k -> new CopyOnWriteArrayList<>())
+                    .add(message.getProperty(MESSAGE_ID));
+            return CompletableFuture.<MessageId>completedFuture(null);
+        });
+        producers.put(destination, producer);
+        return producer;
+    }
+
+    private int getSendAttempts(String destination) {
+        AtomicInteger attempts = sendAttempts.get(destination);
+        return attempts != null ? attempts.get() : 0;
+    }
+
+    private List<String> getSentMessages(String destination) {
+        return sentMessages.getOrDefault(destination, Collections.emptyList());
+    }
+
+    private static MessageMetadata newMetadata(String routingKey, String id) {
+        MessageMetadata metadata = new MessageMetadata()
+                .setProducerName("test")
+                .setSequenceId(0)
+                .setPublishTime(System.currentTimeMillis());
+        metadata.addProperty().setKey(MessageConvertUtils.PROP_ROUTING_KEY).setValue(routingKey);
+        metadata.addProperty().setKey(MESSAGE_ID).setValue(id);
+        return metadata;
+    }
+
+    /**
+     * A batch entry with one message for each routing key, the messages have the ids entryId-index.
+     */
+    private static ByteBuf newBatchEntryData(long entryId, String... routingKeys) {
+        ByteBuf batchBuffer = Unpooled.buffer();
+        for (int i = 0; i < routingKeys.length; i++) {
+            Commands.serializeSingleMessageInBatchWithPayload(newMetadata(routingKeys[i], entryId + "-" + i),
+                    Unpooled.wrappedBuffer(new byte[]{(byte) i}), batchBuffer);
+        }
+        return MessageConvertUtils.batchToByteBuf(batchBuffer, routingKeys.length);
+    }
+}
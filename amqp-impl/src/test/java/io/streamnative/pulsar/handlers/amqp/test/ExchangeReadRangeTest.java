@@ -0,0 +1,77 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.amqp.ExchangeReadRange;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.testng.annotations.Test;
+
+/**
+ * Exchange read range test.
+ */
+public class ExchangeReadRangeTest {
+
+    @Test
+    private void coalesce() {
+        TreeSet<PositionImpl> positions = new TreeSet<>(List.of(
+                PositionImpl.get(1, 0), PositionImpl.get(1, 1), PositionImpl.get(1, 4),
+                PositionImpl.get(1, 20), PositionImpl.get(2, 0), PositionImpl.get(2, 2)));
+
+        assertEquals(ExchangeReadRange.coalesce(positions, 100, 2), List.of(
+                new ExchangeReadRange(1, 0, 4, List.of(0L, 1L, 4L)),
+                new ExchangeReadRange(1, 20, 20, List.of(20L)),
+                new ExchangeReadRange(2, 0, 2, List.of(0L, 2L))));
+        // the ranges are split at the maximum number of entries
+        assertEquals(ExchangeReadRange.coalesce(positions, 2, 2), List.of(
+                new ExchangeReadRange(1, 0, 1, List.of(0L, 1L)),
+                new ExchangeReadRange(1, 4, 4, List.of(4L)),
+                new ExchangeReadRange(1, 20, 20, List.of(20L)),
+                new ExchangeReadRange(2, 0, 0, List.of(0L)),
+                new ExchangeReadRange(2, 2, 2, List.of(2L))));
+        // one entry per range
+        assertEquals(ExchangeReadRange.coalesce(positions, 1, 8).size(), positions.size());
+        assertTrue(ExchangeReadRange.coalesce(new TreeSet<>(), 100, 8).isEmpty());
+    }
+
+    @Test
+    private void readEach() throws Exception {
+        ExchangeReadRange range = new ExchangeReadRange(1, 0, 6, List.of(0L, 3L, 5L, 6L));
+        List<Long> reads = new ArrayList<>();
+        List<Entry> entries = range.readEach(entryId -> {
+            reads.add(entryId);
+            if (entryId == 3) {
+                return FutureUtil.failedFuture(new IllegalStateException("read failed"));
+            }
+            // the entry 5 is missing
+            return CompletableFuture.completedFuture(entryId == 5 ? null : EntryImpl.create(1, entryId, new byte[0]));
+        }).get();
+
+        // the entries in the gaps are not read, the entries failing to be read are skipped
+        assertEquals(reads, List.of(0L, 3L, 5L, 6L));
+        assertEquals(entries.stream().map(Entry::getEntryId).collect(Collectors.toList()), List.of(0L, 6L));
+        entries.forEach(Entry::release);
+    }
+
+}
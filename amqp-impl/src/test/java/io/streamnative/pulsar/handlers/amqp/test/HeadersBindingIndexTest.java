@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.amqp.HeadersBindingIndex;
+import java.util.Map;
+import java.util.Set;
+import org.testng.annotations.Test;
+
+/**
+ * Headers binding index test.
+ */
+public class HeadersBindingIndexTest {
+
+    @Test
+    private void match() {
+        HeadersBindingIndex<String> index = new HeadersBindingIndex<>();
+        index.add("all", "", Map.of("x-match", "all", "format", "pdf", "type", "report"));
+        index.add("any", "", Map.of("x-match", "any", "format", "zip", "type", "log"));
+        index.add("present", "", Map.of("priority", ""));
+        index.add("everything", "", Map.of());
+
+        assertEquals(index.match(Map.of("format", "pdf", "type", "report")), Set.of("all", "everything"));
+        assertEquals(index.match(Map.of("format", "pdf", "type", "log")), Set.of("any", "everything"));
+        assertEquals(index.match(Map.of("priority", "1", "format", "zip")), Set.of("any", "present", "everything"));
+        assertEquals(index.match(null), Set.of("everything"));
+        // header values are compared as strings
+        index.add("number", "", Map.of("count", 1));
+        assertEquals(index.match(Map.of("count", "1")), Set.of("number", "everything"));
+    }
+
+    @Test
+    private void unbind() {
+        HeadersBindingIndex<String> index = new HeadersBindingIndex<>();
+        assertTrue(index.add("q1", "pdf", Map.of("format", "pdf")));
+        assertFalse(index.add("q1", "pdf", Map.of("format", "doc")));
+        index.add("q1", "zip", Map.of("format", "zip"));
+        index.add("q2", "", Map.of("format", "pdf"));
+
+        assertTrue(index.remove("q1", "pdf"));
+        assertFalse(index.remove("q1", "pdf"));
+        assertEquals(index.match(Map.of("format", "pdf")), Set.of("q2"));
+        assertEquals(index.match(Map.of("format", "zip")), Set.of("q1"));
+
+        index.remove("q1", "zip");
+        index.remove("q2", "");
+        assertTrue(index.isEmpty());
+        assertTrue(index.match(Map.of("format", "pdf")).isEmpty());
+    }
+
+}
@@ -33,4 +33,17 @@ public class IndexMessageTest {
         indexMessage.recycle();
         decoded.recycle();
     }
+
+    @Test
+    public void testEncodeAndDecodeBatchIndex() {
+        IndexMessage indexMessage = IndexMessage.create("test", 1L, 2L, 3, null);
+        IndexMessage decoded = IndexMessage.create(indexMessage.encode());
+        Assert.assertEquals(decoded, indexMessage);
+        Assert.assertEquals(decoded.getLedgerId(), 1L);
+        Assert.assertEquals(decoded.getEntryId(), 2L);
+        Assert.assertEquals(decoded.getBatchIndex(), 3);
+        Assert.assertEquals(decoded.getExchangeName(), "test");
+        indexMessage.recycle();
+        decoded.recycle();
+    }
 }
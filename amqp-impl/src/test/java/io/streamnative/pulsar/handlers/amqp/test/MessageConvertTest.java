@@ -15,8 +15,10 @@ package io.streamnative.pulsar.handlers.amqp.test;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.streamnative.pulsar.handlers.amqp.AmqpMessageData;
 import io.streamnative.pulsar.handlers.amqp.IndexMessage;
@@ -27,7 +29,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.client.impl.MessageImpl;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
 import org.apache.qpid.server.bytebuffer.QpidByteBuffer;
 import org.apache.qpid.server.bytebuffer.SingleQpidByteBuffer;
 import org.apache.qpid.server.protocol.v0_8.AMQShortString;
@@ -113,6 +118,101 @@ public class MessageConvertTest {
         assertEquals(expectedContentByteBuf, byteBuf);
     }
 
+    @Test
+    private void batchEntryConvert() throws Exception {
+        ByteBuf batchBuffer = Unpooled.buffer();
+        for (int i = 0; i < 3; i++) {
+            MessagePublishInfo info = new MessagePublishInfo();
+            info.setExchange(AMQShortString.createAMQShortString("testExchange"));
+            info.setRoutingKey(AMQShortString.createAMQShortString("key-" + i));
+            IncomingMessage incomingMessage = new IncomingMessage(info);
+            incomingMessage.setContentHeaderBody(new ContentHeaderBody(new BasicContentHeaderProperties()));
+            incomingMessage.addContentBodyFrame(new ContentBody(QpidByteBuffer.wrap(new byte[]{(byte) i})));
+            MessageConvertUtils.addMessageToBatch(MessageConvertUtils.toPulsarMessage(incomingMessage), batchBuffer);
+        }
+        ByteBuf data = MessageConvertUtils.batchToByteBuf(batchBuffer, 3);
+
+        EntryImpl entry = EntryImpl.create(0, 5, data.duplicate());
+        assertEquals(MessageConvertUtils.getMarkDeletePosition(entry, 1), PositionImpl.get(0, 4));
+        assertEquals(MessageConvertUtils.getMarkDeletePosition(entry, 2), PositionImpl.get(0, 5));
+        AmqpMessageData amqpMessageData = MessageConvertUtils.entryToAmqpBody(entry, 1);
+        assertEquals(amqpMessageData.getMessagePublishInfo().getRoutingKey().toString(), "key-1");
+        assertEquals(amqpMessageData.getContentHeaderBody().getBodySize(), 1);
+
+        entry = EntryImpl.create(0, 5, data.duplicate());
+        assertEquals(MessageConvertUtils.entriesToAmqpBodyList(Collections.singletonList(entry)).size(), 3);
+    }
+
+    @Test
+    private void compactPropertiesConvert() throws Exception {
+        MessagePublishInfo info = new MessagePublishInfo();
+        info.setExchange(AMQShortString.createAMQShortString("testExchange"));
+        info.setRoutingKey(AMQShortString.createAMQShortString("testRoutingKey"));
+        IncomingMessage incomingMessage = new IncomingMessage(info);
+
+        BasicContentHeaderProperties originProps = new BasicContentHeaderProperties();
+        originProps.setContentType("json");
+        originProps.setCorrelationId("correlation");
+        originProps.setExpiration(1000L);
+        Map<String, Object> originHeaders = new HashMap<>();
+        originHeaders.put("string", "string");
+        originHeaders.put("x-delay", 100L);
+        originProps.setHeaders(FieldTableFactory.createFieldTable(originHeaders));
+        incomingMessage.setContentHeaderBody(new ContentHeaderBody(originProps));
+        incomingMessage.addContentBodyFrame(new ContentBody(QpidByteBuffer.wrap(new byte[]{1, 2, 3})));
+
+        MessageImpl<byte[]> message = MessageConvertUtils.toPulsarMessage(incomingMessage, true);
+        Map<String, String> properties = message.getProperties();
+        assertNotNull(properties.get(MessageConvertUtils.PROP_CONTENT_HEADER));
+        assertEquals(properties.get(MessageConvertUtils.PROP_ROUTING_KEY), "testRoutingKey");
+        assertEquals(properties.get(MessageConvertUtils.PROP_EXPIRATION), "1000");
+        assertEquals(properties.get(MessageConvertUtils.BASIC_PROP_HEADER_X_DELAY), "100");
+        assertEquals(properties.get(MessageConvertUtils.PROP_CONTENT_TYPE), null);
+        assertEquals(MessageConvertUtils.expandCompactProperties(properties)
+                .get(MessageConvertUtils.PROP_CONTENT_TYPE), "json");
+
+        EntryImpl entry = EntryImpl.create(0, 0, MessageConvertUtils.messageToByteBuf(message));
+        AmqpMessageData amqpMessageData = MessageConvertUtils.entryToAmqpBody(entry);
+        assertEquals(amqpMessageData.getMessagePublishInfo().getRoutingKey().toString(), "testRoutingKey");
+        BasicContentHeaderProperties props = amqpMessageData.getContentHeaderBody().getProperties();
+        assertEquals(props.getContentTypeAsString(), "json");
+        assertEquals(props.getCorrelationIdAsString(), "correlation");
+        assertEquals(props.getExpiration(), 1000L);
+        assertEquals(props.getHeadersAsMap().get("string"), "string");
+        assertEquals(amqpMessageData.getContentHeaderBody().getBodySize(), 3);
+    }
+
+    @Test
+    private void serializeWithChecksum() throws Exception {
+        MessagePublishInfo info = new MessagePublishInfo();
+        info.setExchange(AMQShortString.createAMQShortString("testExchange"));
+        info.setRoutingKey(AMQShortString.createAMQShortString("testRoutingKey"));
+        IncomingMessage incomingMessage = new IncomingMessage(info);
+        incomingMessage.setContentHeaderBody(new ContentHeaderBody(new BasicContentHeaderProperties()));
+        // content bodies of several sizes, the payload is composed of them
+        for (int size : new int[]{1, 7, 1024, 3, 4096}) {
+            byte[] content = new byte[size];
+            for (int i = 0; i < size; i++) {
+                content[i] = (byte) (i * 31 + size);
+            }
+            incomingMessage.addContentBodyFrame(new ContentBody(QpidByteBuffer.wrap(content)));
+        }
+        MessageImpl<byte[]> message = MessageConvertUtils.toPulsarMessage(incomingMessage);
+        assertTrue(message.getDataBuffer().nioBufferCount() > 1);
+        ByteBuf data = MessageConvertUtils.messageToByteBuf(message);
+
+        assertTrue(Commands.hasChecksum(data));
+        assertTrue(Commands.verifyChecksum(data.duplicate()));
+
+        // the same bytes as the serialization of the broker, from the metadata and payload written
+        ByteBuf parsed = data.duplicate();
+        MessageMetadata metadata = Commands.parseMessageMetadata(parsed);
+        ByteBuf expected = Commands.serializeMetadataAndPayload(Commands.ChecksumType.Crc32c, metadata, parsed);
+        assertEquals(ByteBufUtil.getBytes(data), ByteBufUtil.getBytes(expected));
+        expected.release();
+        data.release();
+    }
+
     @Test
     private void positionConvert() {
         MessageImpl<byte[]> message;
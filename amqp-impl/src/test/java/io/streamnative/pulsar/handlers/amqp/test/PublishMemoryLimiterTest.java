@@ -0,0 +1,64 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+
+import io.streamnative.pulsar.handlers.amqp.AmqpConnection;
+import io.streamnative.pulsar.handlers.amqp.PublishMemoryLimiter;
+import org.testng.annotations.Test;
+
+/**
+ * Publish memory limiter test.
+ */
+public class PublishMemoryLimiterTest {
+
+    @Test
+    private void blockAndResume() {
+        PublishMemoryLimiter limiter = new PublishMemoryLimiter("test", 100, 50);
+        AmqpConnection connection = mock(AmqpConnection.class);
+
+        limiter.acquire(connection, 60);
+        limiter.acquire(connection, 40);
+        verify(connection, never()).block();
+
+        limiter.acquire(connection, 10);
+        limiter.acquire(connection, 10);
+        verify(connection, times(1)).block();
+        assertEquals(limiter.getBlockedConnections(), 1);
+
+        // still above the resume threshold
+        limiter.release(60);
+        verify(connection, never()).unblock();
+
+        limiter.release(20);
+        verify(connection, times(1)).unblock();
+        assertEquals(limiter.getBlockedConnections(), 0);
+        assertEquals(limiter.getUsedBytes(), 40);
+    }
+
+    @Test
+    private void disabled() {
+        PublishMemoryLimiter limiter = new PublishMemoryLimiter("test", 0, 80);
+        AmqpConnection connection = mock(AmqpConnection.class);
+        limiter.acquire(connection, Long.MAX_VALUE);
+        verify(connection, never()).block();
+        assertEquals(limiter.getUsedBytes(), 0);
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.amqp.PublishRoute;
+import io.streamnative.pulsar.handlers.amqp.admin.model.rabbitmq.ExchangeDetail;
+import io.streamnative.pulsar.handlers.amqp.admin.model.rabbitmq.ExchangeSource;
+import io.streamnative.pulsar.handlers.amqp.impl.PersistentExchange;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.testng.annotations.Test;
+
+/**
+ * Publish route test.
+ */
+public class PublishRouteTest {
+
+    @Test
+    private void directRoute() {
+        PublishRoute route = PublishRoute.of("ex", newDetail("direct", null), List.of(
+                newBinding("q1", "queue", "a"),
+                newBinding("q2", "queue", "a"),
+                newBinding("q3", "queue", "b")), Long.MAX_VALUE);
+        assertTrue(route.isRoutedOnPublish());
+        assertEquals(route.getQueues("a"), Set.of("q1", "q2"));
+        assertEquals(route.getQueues("b"), Set.of("q3"));
+        assertTrue(route.getQueues("c").isEmpty());
+    }
+
+    @Test
+    private void fanoutRoute() {
+        PublishRoute route = PublishRoute.of("ex", newDetail("fanout", null), List.of(
+                newBinding("q1", "queue", "a"),
+                newBinding("q2", "queue", "")), Long.MAX_VALUE);
+        assertTrue(route.isRoutedOnPublish());
+        assertEquals(route.getQueues("any"), Set.of("q1", "q2"));
+        assertEquals(route.getQueues(null), Set.of("q1", "q2"));
+
+        PublishRoute unbound = PublishRoute.of("ex", newDetail("fanout", null), List.of(), Long.MAX_VALUE);
+        assertTrue(unbound.isRoutedOnPublish());
+        assertTrue(unbound.getQueues("any").isEmpty());
+    }
+
+    @Test
+    private void routeViaExchange() {
+        // the exchange routes the messages of the topic and headers exchanges
+        assertFalse(PublishRoute.of("ex", newDetail("topic", null), List.of(newBinding("q1", "queue", "a")),
+                Long.MAX_VALUE).isRoutedOnPublish());
+        assertFalse(PublishRoute.of("ex", newDetail("headers", null), List.of(), Long.MAX_VALUE)
+                .isRoutedOnPublish());
+        // the messages are delayed by the exchange
+        assertFalse(PublishRoute.of("ex", newDetail("direct", Map.of(PersistentExchange.X_DELAYED_TYPE, "direct")),
+                List.of(newBinding("q1", "queue", "a")), Long.MAX_VALUE).isRoutedOnPublish());
+        // the messages are routed to another exchange
+        assertFalse(PublishRoute.of("ex", newDetail("direct", null), List.of(
+                newBinding("q1", "queue", "a"),
+                newBinding("ex2", "exchange", "a")), Long.MAX_VALUE).isRoutedOnPublish());
+        assertFalse(PublishRoute.viaExchange("ex", Long.MAX_VALUE).isRoutedOnPublish());
+    }
+
+    @Test
+    private void expireRoute() {
+        PublishRoute route = PublishRoute.of("ex", newDetail("direct", null), List.of(), 1000);
+        assertFalse(route.isExpired(999));
+        assertTrue(route.isExpired(1000));
+        // the route is resolved again once
+        assertTrue(route.startRefresh());
+        assertFalse(route.startRefresh());
+    }
+
+    private static ExchangeDetail newDetail(String type, Map<String, Object> arguments) {
+        ExchangeDetail detail = new ExchangeDetail();
+        detail.setType(type);
+        detail.setArguments(arguments != null ? arguments : Collections.emptyMap());
+        return detail;
+    }
+
+    private static ExchangeSource newBinding(String destination, String destinationType, String routingKey) {
+        ExchangeSource binding = new ExchangeSource();
+        binding.setDestination(destination);
+        binding.setDestination_type(destinationType);
+        binding.setRouting_key(routingKey);
+        return binding;
+    }
+}
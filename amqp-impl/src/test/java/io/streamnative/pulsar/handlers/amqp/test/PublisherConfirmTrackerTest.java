@@ -0,0 +1,82 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.amqp.AmqpConnection;
+import io.streamnative.pulsar.handlers.amqp.PublisherConfirmTracker;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.qpid.server.protocol.ProtocolVersion;
+import org.apache.qpid.server.protocol.v0_8.transport.AMQBody;
+import org.apache.qpid.server.protocol.v0_8.transport.AMQFrame;
+import org.apache.qpid.server.protocol.v0_8.transport.BasicAckBody;
+import org.apache.qpid.server.protocol.v0_8.transport.BasicNackBody;
+import org.apache.qpid.server.protocol.v0_8.transport.MethodRegistry;
+import org.testng.annotations.Test;
+
+/**
+ * Publisher confirm tracker test.
+ */
+public class PublisherConfirmTrackerTest {
+
+    @Test
+    private void confirmInOrder() {
+        List<AMQBody> confirms = new ArrayList<>();
+        AmqpConnection connection = mock(AmqpConnection.class);
+        when(connection.getMethodRegistry()).thenReturn(new MethodRegistry(ProtocolVersion.v0_91));
+        doAnswer(invocation -> {
+            confirms.add(((AMQFrame) invocation.getArgument(0)).getBodyFrame());
+            return null;
+        }).when(connection).writeFrame(any());
+
+        PublisherConfirmTracker tracker = new PublisherConfirmTracker(connection, 1);
+        for (int i = 1; i <= 6; i++) {
+            assertEquals(tracker.nextDeliveryTag(), i);
+        }
+
+        // the later tags wait for the first one
+        tracker.ack(3);
+        tracker.ack(2);
+        assertTrue(confirms.isEmpty());
+        tracker.ack(1);
+        assertEquals(confirms.size(), 1);
+        BasicAckBody ack = (BasicAckBody) confirms.get(0);
+        assertEquals(ack.getDeliveryTag(), 3);
+        assertTrue(ack.getMultiple());
+
+        tracker.nack(4);
+        assertEquals(confirms.size(), 2);
+        assertEquals(((BasicNackBody) confirms.get(1)).getDeliveryTag(), 4);
+
+        tracker.ack(6);
+        tracker.ack(5);
+        assertEquals(confirms.size(), 3);
+        ack = (BasicAckBody) confirms.get(2);
+        assertEquals(ack.getDeliveryTag(), 6);
+        assertTrue(ack.getMultiple());
+
+        assertEquals(tracker.nextDeliveryTag(), 7);
+        tracker.ack(7);
+        assertFalse(((BasicAckBody) confirms.get(3)).getMultiple());
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.amqp.TopicBindingTrie;
+import java.util.Set;
+import org.testng.annotations.Test;
+
+/**
+ * Topic binding trie test.
+ */
+public class TopicBindingTrieTest {
+
+    @Test
+    private void match() {
+        TopicBindingTrie<String> trie = new TopicBindingTrie<>(100);
+        trie.add("a.b.c", "q1");
+        trie.add("a.*.c", "q2");
+        trie.add("a.#", "q3");
+        trie.add("#", "q4");
+        trie.add("*.b.#", "q5");
+        trie.add("a.#.c", "q6");
+
+        assertEquals(trie.match("a.b.c"), Set.of("q1", "q2", "q3", "q4", "q5", "q6"));
+        assertEquals(trie.match("a"), Set.of("q3", "q4"));
+        assertEquals(trie.match("a.c"), Set.of("q3", "q4", "q6"));
+        assertEquals(trie.match("a.x.y.c"), Set.of("q3", "q4", "q6"));
+        assertEquals(trie.match("x.b"), Set.of("q4", "q5"));
+        assertEquals(trie.match(""), Set.of("q4"));
+    }
+
+    @Test
+    private void bindAndUnbind() {
+        TopicBindingTrie<String> trie = new TopicBindingTrie<>(100);
+        assertTrue(trie.add("a.*", "q1"));
+        assertFalse(trie.add("a.*", "q1"));
+        assertTrue(trie.add("a.b", "q1"));
+        assertEquals(trie.match("a.b"), Set.of("q1"));
+
+        // the cached result is dropped when the bindings change
+        trie.add("a.b", "q2");
+        assertEquals(trie.match("a.b"), Set.of("q1", "q2"));
+
+        assertTrue(trie.remove("a.*", "q1"));
+        assertFalse(trie.remove("a.*", "q1"));
+        assertEquals(trie.match("a.b"), Set.of("q1", "q2"));
+        assertTrue(trie.match("a.c").isEmpty());
+
+        trie.remove("a.b", "q1");
+        trie.remove("a.b", "q2");
+        assertTrue(trie.isEmpty());
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp.test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.streamnative.pulsar.handlers.amqp.AmqpChannel;
+import io.streamnative.pulsar.handlers.amqp.UnacknowledgedMessageMap;
+import java.util.Collection;
+import java.util.List;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.testng.annotations.Test;
+
+/**
+ * Unacknowledged message map test.
+ */
+public class UnacknowledgedMessageMapTest {
+
+    @Test
+    private void acknowledgeMultiple() {
+        AmqpChannel channel = mock(AmqpChannel.class);
+        UnacknowledgedMessageMap map = new UnacknowledgedMessageMap(channel);
+        UnacknowledgedMessageMap.MessageProcessor consumer = mock(UnacknowledgedMessageMap.MessageProcessor.class);
+        for (long tag = 1; tag <= 40; tag++) {
+            map.add(tag, PositionImpl.get(1, tag), consumer, 10);
+        }
+        assertEquals(map.remove(3).getPosition(), PositionImpl.get(1, 3));
+        assertNull(map.remove(3));
+
+        // the messages are acknowledged in delivery tag order, the removed one is skipped
+        Collection<UnacknowledgedMessageMap.MessageConsumerAssociation> acked = map.acknowledge(5, true);
+        assertEquals(acked.stream().map(UnacknowledgedMessageMap.MessageConsumerAssociation::getPosition).toList(),
+                List.of(PositionImpl.get(1, 1), PositionImpl.get(1, 2), PositionImpl.get(1, 4),
+                        PositionImpl.get(1, 5)));
+        verify(channel).restoreCredit(4, 40);
+        assertEquals(map.size(), 35);
+        assertFalse(map.contains(5));
+        assertTrue(map.contains(6));
+
+        assertEquals(map.acknowledge(20, false).size(), 1);
+        assertEquals(map.acknowledge(20, false).size(), 0);
+        assertEquals(map.acknowledgeAll().size(), 34);
+        assertEquals(map.size(), 0);
+    }
+
+    @Test
+    private void addOutOfOrder() {
+        AmqpChannel channel = mock(AmqpChannel.class);
+        UnacknowledgedMessageMap map = new UnacknowledgedMessageMap(channel);
+        UnacknowledgedMessageMap.MessageProcessor consumer = mock(UnacknowledgedMessageMap.MessageProcessor.class);
+        for (long tag : new long[]{2, 5, 3, 8, 1, 7}) {
+            map.add(tag, PositionImpl.get(1, tag), consumer, 1);
+        }
+        assertEquals(List.copyOf(map.getMap().keySet()), List.of(1L, 2L, 3L, 5L, 7L, 8L));
+        assertEquals(map.acknowledge(5, true).size(), 4);
+        assertEquals(List.copyOf(map.getMap().keySet()), List.of(7L, 8L));
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.streamnative.pulsar.handlers.amqp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import io.streamnative.pulsar.handlers.amqp.impl.PersistentQueue;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import lombok.Cleanup;
+import org.awaitility.Awaitility;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Route on publish test.
+ */
+public class RouteOnPublishTest extends AmqpTestBase {
+
+    @BeforeClass
+    @Override
+    public void setup() throws Exception {
+        setBrokerCount(3);
+        this.conf.setAmqpMultiBundleEnable(true);
+        this.conf.setAmqpRouteOnPublishEnabled(true);
+        this.conf.setDefaultNumberOfNamespaceBundles(16);
+        super.setup();
+    }
+
+    @Test
+    public void routeDirectAndFanoutOnPublish() throws Exception {
+        @Cleanup
+        Connection conn = getConnection("vhost1", getAmqpBrokerPortList().get(0));
+        @Cleanup
+        Channel channel = conn.createChannel();
+        channel.confirmSelect();
+
+        String direct = randExName();
+        channel.exchangeDeclare(direct, "direct", true);
+        String fanout = randExName();
+        channel.exchangeDeclare(fanout, "fanout", true);
+        String qu1 = randQuName();
+        channel.queueDeclare(qu1, true, false, false, null);
+        String qu2 = randQuName();
+        channel.queueDeclare(qu2, true, false, false, null);
+        channel.queueBind(qu1, direct, "key1");
+        channel.queueBind(qu2, direct, "key2");
+        channel.queueBind(qu1, fanout, "");
+        channel.queueBind(qu2, fanout, "");
+
+        for (int i = 0; i < 10; i++) {
+            channel.basicPublish(direct, "key1", null, ("direct-" + i).getBytes());
+            channel.basicPublish(fanout, "", null, ("fanout-" + i).getBytes());
+        }
+        channel.waitForConfirmsOrDie(5000);
+
+        // the messages are written to the queue topics, the router of the exchanges does not write them again
+        Awaitility.await().pollDelay(1, TimeUnit.SECONDS).atMost(10, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertEquals(getMsgInCounter(qu1), 20);
+            assertEquals(getMsgInCounter(qu2), 10);
+        });
+    }
+
+    @Test
+    public void confirmUnroutableMessages() throws Exception {
+        @Cleanup
+        Connection conn = getConnection("vhost1", getAmqpBrokerPortList().get(0));
+        @Cleanup
+        Channel channel = conn.createChannel();
+        channel.confirmSelect();
+        List<String> returned = new CopyOnWriteArrayList<>();
+        channel.addReturnListener(returnMessage -> returned.add(
+                returnMessage.getReplyCode() + ":" + new String(returnMessage.getBody())));
+
+        String direct = randExName();
+        channel.exchangeDeclare(direct, "direct", true);
+
+        // unknown queue through the default exchange and no binding for the routing key
+        channel.basicPublish("", randQuName(), false, null, "default".getBytes());
+        channel.basicPublish(direct, "key1", false, null, "direct".getBytes());
+        channel.basicPublish("", randQuName(), true, null, "default-mandatory".getBytes());
+        channel.basicPublish(direct, "key1", true, null, "direct-mandatory".getBytes());
+        assertTrue(channel.waitForConfirms(5000));
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).untilAsserted(() ->
+                assertEquals(returned, List.of("312:default-mandatory", "312:direct-mandatory")));
+    }
+
+    @Test
+    public void publishAfterQueueDeleted() throws Exception {
+        @Cleanup
+        Connection conn = getConnection("vhost1", getAmqpBrokerPortList().get(0));
+        @Cleanup
+        Channel channel = conn.createChannel();
+        channel.confirmSelect();
+
+        String queue = randQuName();
+        channel.queueDeclare(queue, true, false, false, null);
+        channel.basicPublish("", queue, null, "before".getBytes());
+        channel.waitForConfirmsOrDie(5000);
+
+        channel.queueDelete(queue);
+        // the producer of the deleted queue is closed, the message is unroutable
+        channel.basicPublish("", queue, null, "after".getBytes());
+        assertTrue(channel.waitForConfirms(5000));
+        assertTrue(admin.topics().getList("public/vhost1").stream().noneMatch(topic -> topic.endsWith(
+                PersistentQueue.TOPIC_PREFIX + queue)));
+    }
+
+    private long getMsgInCounter(String queue) throws Exception {
+        return admin.topics().getStats("persistent://public/vhost1/" + PersistentQueue.TOPIC_PREFIX + queue)
+                .getMsgInCounter();
+    }
+}
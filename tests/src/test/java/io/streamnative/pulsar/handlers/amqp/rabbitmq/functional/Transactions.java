@@ -23,6 +23,9 @@ import com.rabbitmq.client.GetResponse;
 import com.rabbitmq.client.test.BrokerTestCase;
 import java.io.IOException;
 import java.util.concurrent.TimeoutException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
 
 /**
  * Transactions.
@@ -33,6 +36,21 @@ public class Transactions extends BrokerTestCase {
 
     protected long latestTag = 0L;
 
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        // the messages got by a closed channel are requeued by the channels of the multi bundles mode
+        conf.setAmqpMultiBundleEnable(true);
+        super.setup();
+    }
+
+    @BeforeMethod
+    public void purgeQueue() throws IOException {
+        // the messages left by the previous test are requeued once its connection is closed
+        channel.queuePurge(Q);
+        latestTag = 0L;
+    }
+
     protected void createResources() throws IOException {
         channel.queueDeclare(Q, false, false, false, null);
     }
@@ -102,7 +120,7 @@ public class Transactions extends BrokerTestCase {
     /*
       publishes are embargoed until commit
      */
-    ////@Test
+    @Test
     public void commitPublish()
             throws IOException {
         txSelect();
@@ -116,7 +134,7 @@ public class Transactions extends BrokerTestCase {
     /*
       rollback rolls back publishes
     */
-    ////@Test
+    @Test
     public void rollbackPublish()
             throws IOException {
         txSelect();
@@ -128,7 +146,7 @@ public class Transactions extends BrokerTestCase {
     /*
       closing a channel rolls back publishes
     */
-    ////@Test
+    @Test
     public void rollbackPublishOnClose()
             throws IOException {
         txSelect();
@@ -141,7 +159,7 @@ public class Transactions extends BrokerTestCase {
     /*
       closing a channel requeues both ack'ed and un-ack'ed messages
     */
-    ////@Test
+    @Test
     public void requeueOnClose()
             throws IOException {
         basicPublish();
@@ -162,7 +180,7 @@ public class Transactions extends BrokerTestCase {
       messages with committed acks are not requeued on channel close,
       messages that weren't ack'ed are requeued on close, but not before then.
     */
-    ////@Test
+    @Test
     public void commitAcks()
             throws IOException {
         basicPublish();
@@ -182,7 +200,7 @@ public class Transactions extends BrokerTestCase {
 
     /*
      */
-    ////@Test
+    @Test
     public void commitAcksOutOfOrder()
             throws IOException {
         long[] tags = publishSelectAndGet(4);
@@ -197,7 +215,7 @@ public class Transactions extends BrokerTestCase {
       rollback rolls back acks
       and a rolled back ack can be re-issued
     */
-    ////@Test
+    @Test
     public void rollbackAcksAndReAck()
             throws IOException {
         basicPublish();
@@ -216,7 +234,7 @@ public class Transactions extends BrokerTestCase {
     /*
       it is illegal to ack with an unknown delivery tag
     */
-    ////@Test
+    @Test
     public void unknownTagAck()
             throws IOException {
         basicPublish();
@@ -232,7 +250,7 @@ public class Transactions extends BrokerTestCase {
     /*
       rollback does not requeue delivered ack'ed or un-ack'ed messages
     */
-    ////@Test
+    @Test
     public void noRequeueOnRollback()
             throws IOException {
         basicPublish();
@@ -248,7 +266,7 @@ public class Transactions extends BrokerTestCase {
     /*
       auto-acks are not part of tx
     */
-    ////@Test
+    @Test
     public void autoAck()
             throws IOException {
         basicPublish();
@@ -262,7 +280,7 @@ public class Transactions extends BrokerTestCase {
     /*
       "ack all", once committed, acks all delivered messages
     */
-    ////@Test
+    @Test
     public void ackAll()
             throws IOException {
         basicPublish();
@@ -277,7 +295,7 @@ public class Transactions extends BrokerTestCase {
         assertNull(basicGet());
     }
 
-    ////@Test
+    @Test
     public void nonTransactedCommit()
             throws IOException {
         try {
@@ -288,7 +306,7 @@ public class Transactions extends BrokerTestCase {
         }
     }
 
-    ////@Test
+    @Test
     public void nonTransactedRollback()
             throws IOException {
         try {
@@ -299,7 +317,7 @@ public class Transactions extends BrokerTestCase {
         }
     }
 
-    ////@Test
+    @Test
     public void redeliverAckedUncommitted()
             throws IOException {
         txSelect();
@@ -316,7 +334,7 @@ public class Transactions extends BrokerTestCase {
                 basicGet(true));
     }
 
-    ////@Test
+    @Test
     public void commitWithDeletedQueue()
             throws IOException, TimeoutException {
         txSelect();
@@ -334,7 +352,7 @@ public class Transactions extends BrokerTestCase {
         }
     }
 
-    ////@Test
+    @Test
     public void shuffleAcksBeforeRollback()
             throws IOException {
         long[] tags = publishSelectAndGet(3);
@@ -420,37 +438,37 @@ public class Transactions extends BrokerTestCase {
         assertNull(basicGet());
     }
 
-    ////@Test
+    @Test
     public void commitNacks()
             throws IOException {
         commitNacks(basicNack);
     }
 
-    ////@Test
+    @Test
     public void rollbackNacks()
             throws IOException {
         rollbackNacks(basicNack);
     }
 
-    ////@Test
+    @Test
     public void commitAcksAndNacks()
             throws IOException {
         commitAcksAndNacks(basicNack);
     }
 
-    ////@Test
+    @Test
     public void commitRejects()
             throws IOException {
         commitNacks(basicReject);
     }
 
-    ////@Test
+    @Test
     public void rollbackRejects()
             throws IOException {
         rollbackNacks(basicReject);
     }
 
-    ////@Test
+    @Test
     public void commitAcksAndRejects()
             throws IOException {
         commitAcksAndNacks(basicReject);